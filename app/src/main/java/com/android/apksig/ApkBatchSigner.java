@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig;
+
+import com.android.apksig.util.PooledRunnablesExecutor;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Signs a batch of APKs with the same configuration, several APKs at a time.
+ *
+ * <p>All APKs are signed as by the template {@link ApkSigner} provided to the {@link Builder},
+ * except for their input and output files. The only state shared by the APKs is the executor
+ * used to compute their digests, so that no thread pool is created per APK, and the template's
+ * signer configs converted for {@link DefaultApkSignerEngine}. Everything else is prepared anew
+ * for each APK, as when signing it with its own {@link ApkSigner}: the per-scheme signer configs,
+ * including the encoded certificates and the signature algorithms selected for the APK's
+ * {@code minSdkVersion}, and the {@code Signature} instances. This preparation is cheap compared
+ * to digesting and signing an APK. The batch thus saves the creation of thread pools, and runs
+ * several APKs at a time.
+ *
+ * <p>Use {@link Builder} to obtain instances of this signer.
+ */
+public class ApkBatchSigner {
+    private final ApkSigner mTemplate;
+    private final List<Apk> mApks;
+    private final int mParallelism;
+    private final RunnablesExecutor mExecutor;
+
+    private ApkBatchSigner(
+            ApkSigner template, List<Apk> apks, int parallelism, RunnablesExecutor executor) {
+        mTemplate = template;
+        mApks = apks;
+        mParallelism = parallelism;
+        mExecutor = executor;
+    }
+
+    /**
+     * Signs all APKs of the batch and returns the outcome for each of them, in the order in which
+     * they were added to the batch. The failure to sign an APK does not prevent other APKs from
+     * being signed: it is reported by the APK's {@link Result}.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting for APKs to
+     *     be signed. APKs whose signing has not started by then are not signed.
+     */
+    public List<Result> sign() throws InterruptedException {
+        PooledRunnablesExecutor ownExecutor =
+                (mExecutor == null) ? new PooledRunnablesExecutor() : null;
+        RunnablesExecutor executor = (mExecutor != null) ? mExecutor : ownExecutor;
+        int threadCount = Math.min(mParallelism, Math.max(1, mApks.size()));
+        ExecutorService apkExecutor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(mApks.size());
+            for (Apk apk : mApks) {
+                futures.add(apkExecutor.submit(() -> sign(apk, executor)));
+            }
+            List<Result> results = new ArrayList<>(mApks.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // Exceptions are reported in the APK's result, so this can only be an Error
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException("Failed to sign APK", cause);
+                }
+            }
+            return results;
+        } finally {
+            apkExecutor.shutdownNow();
+            if (ownExecutor != null) {
+                ownExecutor.close();
+            }
+        }
+    }
+
+    private Result sign(Apk apk, RunnablesExecutor executor) {
+        long startTimeNanos = System.nanoTime();
+        Exception failure = null;
+        try {
+            mTemplate.withApks(apk.mInputFile, apk.mOutputFile, apk.mOutputV4File, executor)
+                    .sign();
+        } catch (Exception e) {
+            failure = e;
+        }
+        return new Result(
+                apk.mInputFile,
+                apk.mOutputFile,
+                failure,
+                (System.nanoTime() - startTimeNanos) / 1000000);
+    }
+
+    private static class Apk {
+        private final File mInputFile;
+        private final File mOutputFile;
+        private final File mOutputV4File;
+
+        private Apk(File inputFile, File outputFile, File outputV4File) {
+            mInputFile = inputFile;
+            mOutputFile = outputFile;
+            mOutputV4File = outputV4File;
+        }
+    }
+
+    /**
+     * Outcome of signing one APK of the batch.
+     */
+    public static class Result {
+        private final File mInputApk;
+        private final File mOutputApk;
+        private final Exception mFailure;
+        private final long mDurationMillis;
+
+        private Result(File inputApk, File outputApk, Exception failure, long durationMillis) {
+            mInputApk = inputApk;
+            mOutputApk = outputApk;
+            mFailure = failure;
+            mDurationMillis = durationMillis;
+        }
+
+        /** Returns the input APK. */
+        public File getInputApk() {
+            return mInputApk;
+        }
+
+        /** Returns the output APK. */
+        public File getOutputApk() {
+            return mOutputApk;
+        }
+
+        /** Returns {@code true} if the APK was signed successfully. */
+        public boolean isSuccessful() {
+            return mFailure == null;
+        }
+
+        /**
+         * Returns the exception which caused the signing of the APK to fail, or {@code null} if
+         * the APK was signed successfully. This is an exception thrown by
+         * {@link ApkSigner#sign()}.
+         */
+        public Exception getFailure() {
+            return mFailure;
+        }
+
+        /** Returns the time taken to sign the APK, in milliseconds. */
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+    }
+
+    /**
+     * Builder of {@link ApkBatchSigner} instances.
+     */
+    public static class Builder {
+        private final ApkSigner mTemplate;
+        private final List<Apk> mApks = new ArrayList<>();
+        private int mParallelism = Runtime.getRuntime().availableProcessors();
+        private RunnablesExecutor mExecutor;
+
+        /**
+         * Constructs a new {@code Builder} for a batch of APKs signed with the configuration of
+         * the provided signer. The signer's input and output APKs and v4 signature output file,
+         * if any, are ignored. The signer must not have been built around an
+         * {@link ApkSignerEngine}, as engines sign a single APK.
+         *
+         * @throws IllegalArgumentException if {@code template} was built around an
+         *     {@link ApkSignerEngine}
+         */
+        public Builder(ApkSigner template) {
+            if (template == null) {
+                throw new NullPointerException("template == null");
+            }
+            if (template.isUsingProvidedSignerEngine()) {
+                throw new IllegalArgumentException(
+                        "Signers built around an ApkSignerEngine cannot sign a batch of APKs");
+            }
+            mTemplate = template;
+        }
+
+        /**
+         * Adds an APK to the batch, to be signed from {@code inputApk} into {@code outputApk}.
+         * The APK is not signed using APK Signature Scheme v4.
+         */
+        public Builder addApk(File inputApk, File outputApk) {
+            addApk(new Apk(inputApk, outputApk, null));
+            return this;
+        }
+
+        /**
+         * Adds an APK to the batch, to be signed from {@code inputApk} into {@code outputApk}. If
+         * the template signer has APK Signature Scheme v4 signing enabled, the v4 signature is
+         * output into {@code v4SignatureOutputFile}.
+         */
+        public Builder addApk(File inputApk, File outputApk, File v4SignatureOutputFile) {
+            if (v4SignatureOutputFile == null) {
+                throw new NullPointerException("v4SignatureOutputFile == null");
+            }
+            addApk(new Apk(inputApk, outputApk, v4SignatureOutputFile));
+            return this;
+        }
+
+        private void addApk(Apk apk) {
+            if (apk.mInputFile == null) {
+                throw new NullPointerException("inputApk == null");
+            }
+            if (apk.mOutputFile == null) {
+                throw new NullPointerException("outputApk == null");
+            }
+            mApks.add(apk);
+        }
+
+        /**
+         * Sets the maximum number of APKs signed concurrently. By default, this is the number of
+         * available processors.
+         */
+        public Builder setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+            }
+            mParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the executor shared by all APKs of the batch to compute their digests. By default,
+         * a {@link PooledRunnablesExecutor} is created for each invocation of
+         * {@link ApkBatchSigner#sign()} and closed once all APKs are signed. Any executor set on
+         * the template signer is ignored.
+         */
+        public Builder setExecutor(RunnablesExecutor executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Returns a new {@code ApkBatchSigner} instance initialized according to the configuration
+         * of this builder.
+         */
+        public ApkBatchSigner build() {
+            return new ApkBatchSigner(
+                    mTemplate,
+                    Collections.unmodifiableList(new ArrayList<>(mApks)),
+                    mParallelism,
+                    mExecutor);
+        }
+    }
+}
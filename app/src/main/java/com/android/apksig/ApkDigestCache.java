@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig;
+
+import com.android.apksig.internal.apk.ReusableChunkDigests;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipUtils;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.zip.ZipFormatException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Digests computed while signing an APK, for reuse when an APK with mostly the same contents is
+ * signed again, for example after a single asset of a large APK has changed.
+ *
+ * <p>The cache records:
+ * <ul>
+ * <li>the JAR signing (v1) digests of entries' uncompressed data, keyed by entry name, CRC32 and
+ *     uncompressed size. Entries whose name, CRC32 and size are unchanged are not inflated and
+ *     digested again.</li>
+ * <li>the digests of the 1 MB chunks of the ZIP entries section of the last signed APK, used by
+ *     APK Signature Scheme v2 and v3, together with the layout of the entries in that section.
+ *     Chunks which only contain uncompressed (STORED) entries output at the same offset, with the
+ *     same Local File Header, CRC32 and size as in the last signed APK are not digested again.
+ *     Chunks which overlap compressed entries are always digested again because the CRC32 and
+ *     sizes of such an entry do not identify its compressed data, which may differ, e.g., when
+ *     the entry is recompressed using a different compression level.</li>
+ * </ul>
+ *
+ * <p>As implied by the above, the cache trusts an entry's CRC32 and sizes to identify its
+ * contents. It should thus only be used for APKs produced by a trusted build.
+ *
+ * <p>The cache is populated by the signing runs which use it (see
+ * {@link ApkSigner.Builder#setDigestCache(ApkDigestCache)}), and may be shared between signing
+ * runs, including concurrent ones.
+ */
+public class ApkDigestCache {
+    private final Map<String, JarEntryDigests> mJarEntryDigests = new HashMap<>();
+    private ZipEntriesLayout mChunkDigestsLayout;
+    private ReusableChunkDigests mChunkDigests;
+
+    /** Discards all cached digests. */
+    public synchronized void clear() {
+        mJarEntryDigests.clear();
+        mChunkDigestsLayout = null;
+        mChunkDigests = null;
+    }
+
+    /**
+     * Returns the cached digest of the specified JAR entry's uncompressed data, computed using the
+     * specified JCA digest algorithm, or {@code null} if it is not cached.
+     */
+    synchronized byte[] getJarEntryDigest(
+            String entryName, long crc32, long uncompressedSize, String jcaDigestAlgorithm) {
+        JarEntryDigests entryDigests = mJarEntryDigests.get(entryName);
+        if ((entryDigests == null)
+                || (entryDigests.crc32 != crc32)
+                || (entryDigests.uncompressedSize != uncompressedSize)) {
+            return null;
+        }
+        byte[] digest = entryDigests.digests.get(jcaDigestAlgorithm);
+        return (digest != null) ? digest.clone() : null;
+    }
+
+    /** Records the digest of the specified JAR entry's uncompressed data. */
+    synchronized void putJarEntryDigest(
+            String entryName,
+            long crc32,
+            long uncompressedSize,
+            String jcaDigestAlgorithm,
+            byte[] digest) {
+        JarEntryDigests entryDigests = mJarEntryDigests.get(entryName);
+        if ((entryDigests == null)
+                || (entryDigests.crc32 != crc32)
+                || (entryDigests.uncompressedSize != uncompressedSize)) {
+            entryDigests = new JarEntryDigests(crc32, uncompressedSize);
+            mJarEntryDigests.put(entryName, entryDigests);
+        }
+        entryDigests.digests.put(jcaDigestAlgorithm, digest.clone());
+    }
+
+    /**
+     * Returns the chunk digests, for the ZIP entries section of the provided size and layout,
+     * which are known to match from the last signed APK. The returned object is owned by the
+     * caller.
+     */
+    synchronized ReusableChunkDigests getReusableChunkDigests(
+            ZipEntriesLayout layout, long sectionSize) {
+        ReusableChunkDigests result = new ReusableChunkDigests(sectionSize);
+        if ((layout == null) || (mChunkDigestsLayout == null)) {
+            return result;
+        }
+        ReusableChunkDigests previous = mChunkDigests;
+        List<long[]> unchangedRanges = layout.getUnchangedRanges(mChunkDigestsLayout);
+        int rangeIndex = 0;
+        int chunkCount = Math.min(result.getChunkCount(), previous.getChunkCount());
+        for (int i = 0; i < chunkCount; i++) {
+            long chunkStart = (i == 0) ? 0 : result.getChunkEndOffset(i - 1);
+            long chunkEnd = result.getChunkEndOffset(i);
+            if (chunkEnd != previous.getChunkEndOffset(i)) {
+                continue;
+            }
+            // Unchanged ranges are sorted, non-overlapping and merged where adjacent. The chunk is
+            // unchanged if it is contained in one of them.
+            while ((rangeIndex < unchangedRanges.size())
+                    && (unchangedRanges.get(rangeIndex)[1] <= chunkStart)) {
+                rangeIndex++;
+            }
+            if ((rangeIndex < unchangedRanges.size())
+                    && (unchangedRanges.get(rangeIndex)[0] <= chunkStart)
+                    && (unchangedRanges.get(rangeIndex)[1] >= chunkEnd)) {
+                result.reuseDigests(previous, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the chunk digests of the ZIP entries section of the provided layout, replacing the
+     * chunk digests of the previously signed APK.
+     */
+    synchronized void putChunkDigests(ZipEntriesLayout layout, ReusableChunkDigests digests) {
+        mChunkDigestsLayout = layout;
+        mChunkDigests = (layout != null) ? digests : null;
+    }
+
+    /** Digests of a JAR entry's uncompressed data, keyed by JCA digest algorithm. */
+    private static class JarEntryDigests {
+        private final long crc32;
+        private final long uncompressedSize;
+        private final Map<String, byte[]> digests = new HashMap<>(1);
+
+        private JarEntryDigests(long crc32, long uncompressedSize) {
+            this.crc32 = crc32;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * Layout of the records in the ZIP entries section of an APK: the byte range occupied by each
+     * record and what identifies the record's contents.
+     */
+    static class ZipEntriesLayout {
+        /** Uncompressed records, sorted by offset. */
+        private final List<Record> mRecords;
+
+        private ZipEntriesLayout(List<Record> records) {
+            mRecords = records;
+        }
+
+        /**
+         * Returns the layout of the ZIP entries section described by the provided Central
+         * Directory, or {@code null} if the layout cannot be established. Only uncompressed
+         * records are included in the layout, because the CRC32 and sizes of a compressed record
+         * do not identify the record's compressed data.
+         */
+        static ZipEntriesLayout read(DataSource zipEntries, DataSource zipCentralDirectory)
+                throws IOException {
+            if (zipCentralDirectory.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer cd =
+                    zipCentralDirectory.getByteBuffer(0, (int) zipCentralDirectory.size());
+            cd.order(ByteOrder.LITTLE_ENDIAN);
+            List<CentralDirectoryRecord> cdRecords = new ArrayList<>();
+            try {
+                while (cd.hasRemaining()) {
+                    cdRecords.add(CentralDirectoryRecord.getRecord(cd));
+                }
+            } catch (ZipFormatException e) {
+                return null;
+            }
+            Collections.sort(
+                    cdRecords, CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+
+            List<Record> records = new ArrayList<>(cdRecords.size());
+            long previousEnd = 0;
+            for (CentralDirectoryRecord cdRecord : cdRecords) {
+                LocalFileRecord lfhRecord;
+                try {
+                    lfhRecord = LocalFileRecord.getRecord(zipEntries, cdRecord, zipEntries.size());
+                } catch (ZipFormatException e) {
+                    return null;
+                }
+                long start = cdRecord.getLocalFileHeaderOffset();
+                if (start < previousEnd) {
+                    // Overlapping records
+                    return null;
+                }
+                long end = start + lfhRecord.getSize();
+                previousEnd = end;
+                if (cdRecord.getCompressionMethod() != ZipUtils.COMPRESSION_METHOD_STORED) {
+                    continue;
+                }
+                ByteBuffer header =
+                        zipEntries.getByteBuffer(start, lfhRecord.getDataStartOffsetInRecord());
+                ByteBuffer identity = ByteBuffer.allocate(header.remaining() + 3 * 8);
+                identity.put(header);
+                identity.putLong(cdRecord.getCrc32());
+                identity.putLong(cdRecord.getCompressedSize());
+                identity.putLong(cdRecord.getUncompressedSize());
+                records.add(new Record(start, end, identity.array()));
+            }
+            return new ZipEntriesLayout(records);
+        }
+
+        /**
+         * Returns the byte ranges of this layout's section which are occupied by records found at
+         * the same offsets and with the same contents in the {@code other} layout. The ranges are
+         * sorted by offset, and adjacent ranges are merged.
+         */
+        private List<long[]> getUnchangedRanges(ZipEntriesLayout other) {
+            List<long[]> result = new ArrayList<>();
+            int otherIndex = 0;
+            for (Record record : mRecords) {
+                while ((otherIndex < other.mRecords.size())
+                        && (other.mRecords.get(otherIndex).start < record.start)) {
+                    otherIndex++;
+                }
+                if (otherIndex == other.mRecords.size()) {
+                    break;
+                }
+                Record otherRecord = other.mRecords.get(otherIndex);
+                if ((otherRecord.start != record.start)
+                        || (otherRecord.end != record.end)
+                        || (!Arrays.equals(otherRecord.identity, record.identity))) {
+                    continue;
+                }
+                long[] last = result.isEmpty() ? null : result.get(result.size() - 1);
+                if ((last != null) && (last[1] == record.start)) {
+                    last[1] = record.end;
+                } else {
+                    result.add(new long[] {record.start, record.end});
+                }
+            }
+            return result;
+        }
+
+        private static class Record {
+            private final long start;
+            private final long end;
+            /** Local File Header, followed by CRC32, compressed size and uncompressed size. */
+            private final byte[] identity;
+
+            private Record(long start, long end, byte[] identity) {
+                this.start = start;
+                this.end = end;
+                this.identity = identity;
+            }
+        }
+    }
+}
@@ -23,6 +23,8 @@ import com.android.apksig.apk.ApkSigningBlockNotFoundException;
 import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.apk.MinSdkVersionException;
 import com.android.apksig.internal.util.ByteBufferDataSource;
+import com.android.apksig.internal.util.PhaseTracer;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
 import com.android.apksig.internal.zip.EocdRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
@@ -32,11 +34,14 @@ import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
 import com.android.apksig.util.ReadableDataSink;
+import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.TraceListener;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -49,10 +54,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.Inflater;
 
 /**
  * APK signer.
@@ -98,6 +104,10 @@ public class ApkSigner {
     private final boolean mDebuggableApkPermitted;
     private final boolean mOtherSignersSignaturesPreserved;
     private final String mCreatedBy;
+    private final RunnablesExecutor mExecutor;
+    private final boolean mPipelinedJarEntryInspectionEnabled;
+    private final ApkDigestCache mDigestCache;
+    private final TraceListener mTraceListener;
 
     private final ApkSignerEngine mSignerEngine;
 
@@ -112,6 +122,13 @@ public class ApkSigner {
 
     private final SigningCertificateLineage mSigningCertificateLineage;
 
+    /**
+     * Signer configs converted for {@link DefaultApkSignerEngine}, shared with the signers derived
+     * from this one by {@link #withApks(File, File, File, RunnablesExecutor)}. {@code null} until
+     * first needed.
+     */
+    private List<DefaultApkSignerEngine.SignerConfig> mEngineSignerConfigs;
+
     private ApkSigner(
             List<SignerConfig> signerConfigs,
             SignerConfig sourceStampSignerConfig,
@@ -127,6 +144,10 @@ public class ApkSigner {
             boolean debuggableApkPermitted,
             boolean otherSignersSignaturesPreserved,
             String createdBy,
+            RunnablesExecutor executor,
+            boolean pipelinedJarEntryInspectionEnabled,
+            ApkDigestCache digestCache,
+            TraceListener traceListener,
             ApkSignerEngine signerEngine,
             File inputApkFile,
             DataSource inputApkDataSource,
@@ -150,6 +171,10 @@ public class ApkSigner {
         mDebuggableApkPermitted = debuggableApkPermitted;
         mOtherSignersSignaturesPreserved = otherSignersSignaturesPreserved;
         mCreatedBy = createdBy;
+        mExecutor = executor;
+        mPipelinedJarEntryInspectionEnabled = pipelinedJarEntryInspectionEnabled;
+        mDigestCache = digestCache;
+        mTraceListener = traceListener;
 
         mSignerEngine = signerEngine;
 
@@ -165,6 +190,72 @@ public class ApkSigner {
         mSigningCertificateLineage = signingCertificateLineage;
     }
 
+    /**
+     * Returns a signer configured like this one, except that it signs the provided input APK into
+     * the provided output APK and uses the provided executor. The returned signer shares this
+     * signer's prepared signing engine configuration.
+     *
+     * <p>APK Signature Scheme v4 signing is disabled if {@code outputV4File} is {@code null}.
+     */
+    ApkSigner withApks(
+            File inputApk, File outputApk, File outputV4File, RunnablesExecutor executor) {
+        ApkSigner signer =
+                new ApkSigner(
+                        mSignerConfigs,
+                        mSourceStampSignerConfig,
+                        mSourceStampSigningCertificateLineage,
+                        mForceSourceStampOverwrite,
+                        mMinSdkVersion,
+                        mV1SigningEnabled,
+                        mV2SigningEnabled,
+                        mV3SigningEnabled,
+                        mV4SigningEnabled && (outputV4File != null),
+                        mVerityEnabled,
+                        mV4ErrorReportingEnabled,
+                        mDebuggableApkPermitted,
+                        mOtherSignersSignaturesPreserved,
+                        mCreatedBy,
+                        executor,
+                        mPipelinedJarEntryInspectionEnabled,
+                        mDigestCache,
+                        mTraceListener,
+                        mSignerEngine,
+                        inputApk,
+                        null,
+                        outputApk,
+                        null,
+                        null,
+                        outputV4File,
+                        mSigningCertificateLineage);
+        if (mSignerEngine == null) {
+            signer.mEngineSignerConfigs = getEngineSignerConfigs();
+        }
+        return signer;
+    }
+
+    /** Returns {@code true} if this signer was built around a caller-provided signing engine. */
+    boolean isUsingProvidedSignerEngine() {
+        return mSignerEngine != null;
+    }
+
+    private synchronized List<DefaultApkSignerEngine.SignerConfig> getEngineSignerConfigs() {
+        if (mEngineSignerConfigs == null) {
+            List<DefaultApkSignerEngine.SignerConfig> engineSignerConfigs =
+                    new ArrayList<>(mSignerConfigs.size());
+            for (SignerConfig signerConfig : mSignerConfigs) {
+                engineSignerConfigs.add(
+                        new DefaultApkSignerEngine.SignerConfig.Builder(
+                                        signerConfig.getName(),
+                                        signerConfig.getPrivateKey(),
+                                        signerConfig.getCertificates(),
+                                        signerConfig.getDeterministicDsaSigning())
+                                .build());
+            }
+            mEngineSignerConfigs = Collections.unmodifiableList(engineSignerConfigs);
+        }
+        return mEngineSignerConfigs;
+    }
+
     /**
      * Signs the input APK and outputs the resulting signed APK. The input APK is not modified.
      *
@@ -227,7 +318,10 @@ public class ApkSigner {
     private void sign(DataSource inputApk, DataSink outputApkOut, DataSource outputApkIn)
             throws IOException, ApkFormatException, NoSuchAlgorithmException, InvalidKeyException,
                     SignatureException {
+        PhaseTracer tracer = new PhaseTracer(mTraceListener);
+
         // Step 1. Find input APK's main ZIP sections
+        long phaseStartNanos = tracer.start(TraceListener.Phase.FIND_ZIP_SECTIONS);
         ApkUtils.ZipSections inputZipSections;
         try {
             inputZipSections = ApkUtils.findZipSections(inputApk);
@@ -252,18 +346,31 @@ public class ApkSigner {
                         (inputApkSigningBlockOffset != -1)
                                 ? inputApkSigningBlockOffset
                                 : inputZipSections.getZipCentralDirectoryOffset());
+        tracer.finish(
+                TraceListener.Phase.FIND_ZIP_SECTIONS,
+                phaseStartNanos,
+                inputApk.size(),
+                inputZipSections.getZipCentralDirectoryRecordCount());
 
         // Step 2. Parse the input APK's ZIP Central Directory
+        phaseStartNanos = tracer.start(TraceListener.Phase.PARSE_CENTRAL_DIRECTORY);
         ByteBuffer inputCd = getZipCentralDirectory(inputApk, inputZipSections);
-        List<CentralDirectoryRecord> inputCdRecords =
-                parseZipCentralDirectory(inputCd, inputZipSections);
+        CentralDirectoryIndex inputCdIndex = parseZipCentralDirectory(inputCd, inputZipSections);
+        List<CentralDirectoryRecord> inputCdRecords = inputCdIndex.getRecords();
+        tracer.finish(
+                TraceListener.Phase.PARSE_CENTRAL_DIRECTORY,
+                phaseStartNanos,
+                inputCdIndex.getSizeBytes(),
+                inputCdIndex.size());
 
         List<Hints.PatternWithRange> pinPatterns =
-                extractPinPatterns(inputCdRecords, inputApkLfhSection);
+                extractPinPatterns(inputCdIndex, inputApkLfhSection);
         List<Hints.ByteRange> pinByteRanges = pinPatterns == null ? null : new ArrayList<>();
 
         // Step 3. Obtain a signer engine instance
         ApkSignerEngine signerEngine;
+        // Engine which looks up JAR entry digests in the digest cache, if one is used
+        DefaultApkSignerEngine cachingSignerEngine = null;
         if (mSignerEngine != null) {
             // Use the provided signer engine
             signerEngine = mSignerEngine;
@@ -275,19 +382,10 @@ public class ApkSigner {
                 minSdkVersion = mMinSdkVersion;
             } else {
                 // Need to extract minSdkVersion from the APK's AndroidManifest.xml
-                minSdkVersion = getMinSdkVersionFromApk(inputCdRecords, inputApkLfhSection);
+                minSdkVersion = getMinSdkVersionFromApk(inputCdIndex, inputApkLfhSection);
             }
             List<DefaultApkSignerEngine.SignerConfig> engineSignerConfigs =
-                    new ArrayList<>(mSignerConfigs.size());
-            for (SignerConfig signerConfig : mSignerConfigs) {
-                engineSignerConfigs.add(
-                        new DefaultApkSignerEngine.SignerConfig.Builder(
-                                        signerConfig.getName(),
-                                        signerConfig.getPrivateKey(),
-                                        signerConfig.getCertificates(),
-                                        signerConfig.getDeterministicDsaSigning())
-                                .build());
-            }
+                    getEngineSignerConfigs();
             DefaultApkSignerEngine.Builder signerEngineBuilder =
                     new DefaultApkSignerEngine.Builder(engineSignerConfigs, minSdkVersion)
                             .setV1SigningEnabled(mV1SigningEnabled)
@@ -313,7 +411,18 @@ public class ApkSigner {
                 signerEngineBuilder.setSourceStampSigningCertificateLineage(
                         mSourceStampSigningCertificateLineage);
             }
-            signerEngine = signerEngineBuilder.build();
+            DefaultApkSignerEngine defaultSignerEngine = signerEngineBuilder.build();
+            if (mExecutor != null) {
+                defaultSignerEngine.setExecutor(mExecutor);
+            }
+            if (mDigestCache != null) {
+                defaultSignerEngine.setDigestCache(mDigestCache);
+                cachingSignerEngine = defaultSignerEngine;
+            }
+            if (mTraceListener != null) {
+                defaultSignerEngine.setTraceListener(mTraceListener);
+            }
+            signerEngine = defaultSignerEngine;
         }
 
         // Step 4. Provide the signer engine with the input APK's APK Signing Block (if any)
@@ -337,137 +446,180 @@ public class ApkSigner {
         byte[] sourceStampCertificateDigest = null;
         Map<String, CentralDirectoryRecord> outputCdRecordsByName =
                 new HashMap<>(inputCdRecords.size());
-        for (final CentralDirectoryRecord inputCdRecord : inputCdRecordsSortedByLfhOffset) {
-            String entryName = inputCdRecord.getName();
-            if (Hints.PIN_BYTE_RANGE_ZIP_ENTRY_NAME.equals(entryName)) {
-                continue; // We'll re-add below if needed.
-            }
-            if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(entryName)) {
-                try {
-                    sourceStampCertificateDigest =
-                            LocalFileRecord.getUncompressedData(
-                                    inputApkLfhSection, inputCdRecord, inputApkLfhSection.size());
-                } catch (ZipFormatException ex) {
-                    throw new ApkFormatException("Bad source stamp entry");
+        JarEntryInspectionPipeline inspectionPipeline =
+                mPipelinedJarEntryInspectionEnabled
+                        ? new JarEntryInspectionPipeline(
+                                (mExecutor != null) ? mExecutor : RunnablesExecutor.MULTI_THREADED,
+                                inputApkLfhSection)
+                        : null;
+        InputRangeCopier inputRangeCopier = new InputRangeCopier(inputApkLfhSection, outputApkOut);
+        phaseStartNanos = tracer.start(TraceListener.Phase.COPY_ENTRIES);
+        try {
+            for (final CentralDirectoryRecord inputCdRecord : inputCdRecordsSortedByLfhOffset) {
+                String entryName = inputCdRecord.getName();
+                if (Hints.PIN_BYTE_RANGE_ZIP_ENTRY_NAME.equals(entryName)) {
+                    continue; // We'll re-add below if needed.
+                }
+                if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(entryName)) {
+                    try {
+                        sourceStampCertificateDigest =
+                                LocalFileRecord.getUncompressedData(
+                                        inputApkLfhSection,
+                                        inputCdRecord,
+                                        inputApkLfhSection.size());
+                    } catch (ZipFormatException ex) {
+                        throw new ApkFormatException("Bad source stamp entry");
+                    }
+                    continue; // Existing source stamp is handled below as needed.
+                }
+                ApkSignerEngine.InputJarEntryInstructions entryInstructions =
+                        signerEngine.inputJarEntry(entryName);
+                boolean shouldOutput;
+                switch (entryInstructions.getOutputPolicy()) {
+                    case OUTPUT:
+                        shouldOutput = true;
+                        break;
+                    case OUTPUT_BY_ENGINE:
+                    case SKIP:
+                        shouldOutput = false;
+                        break;
+                    default:
+                        throw new RuntimeException(
+                                "Unknown output policy: " + entryInstructions.getOutputPolicy());
                 }
-                continue; // Existing source stamp is handled below as needed.
-            }
-            ApkSignerEngine.InputJarEntryInstructions entryInstructions =
-                    signerEngine.inputJarEntry(entryName);
-            boolean shouldOutput;
-            switch (entryInstructions.getOutputPolicy()) {
-                case OUTPUT:
-                    shouldOutput = true;
-                    break;
-                case OUTPUT_BY_ENGINE:
-                case SKIP:
-                    shouldOutput = false;
-                    break;
-                default:
-                    throw new RuntimeException(
-                            "Unknown output policy: " + entryInstructions.getOutputPolicy());
-            }
-
-            long inputLocalFileHeaderStartOffset = inputCdRecord.getLocalFileHeaderOffset();
-            if (inputLocalFileHeaderStartOffset > inputOffset) {
-                // Unprocessed data in input starting at inputOffset and ending and the start of
-                // this record's LFH. We output this data verbatim because this signer is supposed
-                // to preserve as much of input as possible.
-                long chunkSize = inputLocalFileHeaderStartOffset - inputOffset;
-                inputApkLfhSection.feed(inputOffset, chunkSize, outputApkOut);
-                outputOffset += chunkSize;
-                inputOffset = inputLocalFileHeaderStartOffset;
-            }
-            LocalFileRecord inputLocalFileRecord;
-            try {
-                inputLocalFileRecord =
-                        LocalFileRecord.getRecord(
-                                inputApkLfhSection, inputCdRecord, inputApkLfhSection.size());
-            } catch (ZipFormatException e) {
-                throw new ApkFormatException("Malformed ZIP entry: " + inputCdRecord.getName(), e);
-            }
-            inputOffset += inputLocalFileRecord.getSize();
-
-            ApkSignerEngine.InspectJarEntryRequest inspectEntryRequest =
-                    entryInstructions.getInspectJarEntryRequest();
-            if (inspectEntryRequest != null) {
-                fulfillInspectInputJarEntryRequest(
-                        inputApkLfhSection, inputLocalFileRecord, inspectEntryRequest);
-            }
 
-            if (shouldOutput) {
-                // Find the max value of last modified, to be used for new entries added by the
-                // signer.
-                int lastModifiedDate = inputCdRecord.getLastModificationDate();
-                int lastModifiedTime = inputCdRecord.getLastModificationTime();
-                if ((lastModifiedDateForNewEntries == -1)
-                        || (lastModifiedDate > lastModifiedDateForNewEntries)
-                        || ((lastModifiedDate == lastModifiedDateForNewEntries)
-                                && (lastModifiedTime > lastModifiedTimeForNewEntries))) {
-                    lastModifiedDateForNewEntries = lastModifiedDate;
-                    lastModifiedTimeForNewEntries = lastModifiedTime;
+                long inputLocalFileHeaderStartOffset = inputCdRecord.getLocalFileHeaderOffset();
+                if (inputLocalFileHeaderStartOffset > inputOffset) {
+                    // Unprocessed data in input starting at inputOffset and ending and the start
+                    // of this record's LFH. We output this data verbatim because this signer is
+                    // supposed to preserve as much of input as possible.
+                    long chunkSize = inputLocalFileHeaderStartOffset - inputOffset;
+                    inputRangeCopier.copy(inputOffset, chunkSize);
+                    outputOffset += chunkSize;
+                    inputOffset = inputLocalFileHeaderStartOffset;
                 }
+                LocalFileRecord inputLocalFileRecord;
+                try {
+                    inputLocalFileRecord =
+                            LocalFileRecord.getRecord(
+                                    inputApkLfhSection, inputCdRecord, inputApkLfhSection.size());
+                } catch (ZipFormatException e) {
+                    throw new ApkFormatException(
+                            "Malformed ZIP entry: " + inputCdRecord.getName(), e);
+                }
+                inputOffset += inputLocalFileRecord.getSize();
 
-                inspectEntryRequest = signerEngine.outputJarEntry(entryName);
+                ApkSignerEngine.InspectJarEntryRequest inspectEntryRequest =
+                        entryInstructions.getInspectJarEntryRequest();
                 if (inspectEntryRequest != null) {
                     fulfillInspectInputJarEntryRequest(
                             inputApkLfhSection, inputLocalFileRecord, inspectEntryRequest);
                 }
 
-                // Output entry's Local File Header + data
-                long outputLocalFileHeaderOffset = outputOffset;
-                OutputSizeAndDataOffset outputLfrResult =
-                        outputInputJarEntryLfhRecordPreservingDataAlignment(
-                                inputApkLfhSection,
-                                inputLocalFileRecord,
-                                outputApkOut,
-                                outputLocalFileHeaderOffset);
-                outputOffset += outputLfrResult.outputBytes;
-                long outputDataOffset =
-                        outputLocalFileHeaderOffset + outputLfrResult.dataOffsetBytes;
-
-                if (pinPatterns != null) {
-                    boolean pinFileHeader = false;
-                    for (Hints.PatternWithRange pinPattern : pinPatterns) {
-                        if (pinPattern.matcher(inputCdRecord.getName()).matches()) {
-                            Hints.ByteRange dataRange =
-                                    new Hints.ByteRange(outputDataOffset, outputOffset);
-                            Hints.ByteRange pinRange =
-                                    pinPattern.ClampToAbsoluteByteRange(dataRange);
-                            if (pinRange != null) {
-                                pinFileHeader = true;
-                                pinByteRanges.add(pinRange);
+                if (shouldOutput) {
+                    // Find the max value of last modified, to be used for new entries added by the
+                    // signer.
+                    int lastModifiedDate = inputCdRecord.getLastModificationDate();
+                    int lastModifiedTime = inputCdRecord.getLastModificationTime();
+                    if ((lastModifiedDateForNewEntries == -1)
+                            || (lastModifiedDate > lastModifiedDateForNewEntries)
+                            || ((lastModifiedDate == lastModifiedDateForNewEntries)
+                                    && (lastModifiedTime > lastModifiedTimeForNewEntries))) {
+                        lastModifiedDateForNewEntries = lastModifiedDate;
+                        lastModifiedTimeForNewEntries = lastModifiedTime;
+                    }
+
+                    inspectEntryRequest =
+                            (cachingSignerEngine != null)
+                                    ? cachingSignerEngine.outputJarEntry(
+                                            entryName,
+                                            inputCdRecord.getCrc32(),
+                                            inputCdRecord.getUncompressedSize())
+                                    : signerEngine.outputJarEntry(entryName);
+                    if (inspectEntryRequest != null) {
+                        if (inspectionPipeline != null) {
+                            // Inflate and digest the entry's data on a worker while this thread
+                            // carries on copying records to the output.
+                            inspectionPipeline.submit(inputLocalFileRecord, inspectEntryRequest);
+                        } else {
+                            fulfillInspectInputJarEntryRequest(
+                                    inputApkLfhSection, inputLocalFileRecord, inspectEntryRequest);
+                        }
+                    }
+
+                    // Output entry's Local File Header + data
+                    long outputLocalFileHeaderOffset = outputOffset;
+                    OutputSizeAndDataOffset outputLfrResult =
+                            outputInputJarEntryLfhRecordPreservingDataAlignment(
+                                    inputApkLfhSection,
+                                    inputLocalFileRecord,
+                                    outputApkOut,
+                                    outputLocalFileHeaderOffset,
+                                    inputRangeCopier);
+                    outputOffset += outputLfrResult.outputBytes;
+                    long outputDataOffset =
+                            outputLocalFileHeaderOffset + outputLfrResult.dataOffsetBytes;
+
+                    if (pinPatterns != null) {
+                        boolean pinFileHeader = false;
+                        for (Hints.PatternWithRange pinPattern : pinPatterns) {
+                            if (pinPattern.matcher(inputCdRecord.getName()).matches()) {
+                                Hints.ByteRange dataRange =
+                                        new Hints.ByteRange(outputDataOffset, outputOffset);
+                                Hints.ByteRange pinRange =
+                                        pinPattern.ClampToAbsoluteByteRange(dataRange);
+                                if (pinRange != null) {
+                                    pinFileHeader = true;
+                                    pinByteRanges.add(pinRange);
+                                }
                             }
                         }
+                        if (pinFileHeader) {
+                            pinByteRanges.add(
+                                    new Hints.ByteRange(
+                                            outputLocalFileHeaderOffset, outputDataOffset));
+                        }
                     }
-                    if (pinFileHeader) {
-                        pinByteRanges.add(
-                                new Hints.ByteRange(outputLocalFileHeaderOffset, outputDataOffset));
+
+                    // Enqueue entry's Central Directory record for output
+                    CentralDirectoryRecord outputCdRecord;
+                    if (outputLocalFileHeaderOffset
+                            == inputLocalFileRecord.getStartOffsetInArchive()) {
+                        outputCdRecord = inputCdRecord;
+                    } else {
+                        outputCdRecord =
+                                inputCdRecord.createWithModifiedLocalFileHeaderOffset(
+                                        outputLocalFileHeaderOffset);
                     }
+                    outputCdRecordsByName.put(entryName, outputCdRecord);
                 }
+            }
+            long inputLfhSectionSize = inputApkLfhSection.size();
+            if (inputOffset < inputLfhSectionSize) {
+                // Unprocessed data in input starting at inputOffset and ending and the end of the
+                // input APK's LFH section. We output this data verbatim because this signer is
+                // supposed to preserve as much of input as possible.
+                long chunkSize = inputLfhSectionSize - inputOffset;
+                inputRangeCopier.copy(inputOffset, chunkSize);
+                outputOffset += chunkSize;
+                inputOffset = inputLfhSectionSize;
+            }
+            inputRangeCopier.flush();
 
-                // Enqueue entry's Central Directory record for output
-                CentralDirectoryRecord outputCdRecord;
-                if (outputLocalFileHeaderOffset == inputLocalFileRecord.getStartOffsetInArchive()) {
-                    outputCdRecord = inputCdRecord;
-                } else {
-                    outputCdRecord =
-                            inputCdRecord.createWithModifiedLocalFileHeaderOffset(
-                                    outputLocalFileHeaderOffset);
-                }
-                outputCdRecordsByName.put(entryName, outputCdRecord);
+            // Wait for the data of entries handed off to the pipeline to be inspected.
+            if (inspectionPipeline != null) {
+                inspectionPipeline.awaitCompletion();
+            }
+        } finally {
+            if (inspectionPipeline != null) {
+                inspectionPipeline.close();
             }
         }
-        long inputLfhSectionSize = inputApkLfhSection.size();
-        if (inputOffset < inputLfhSectionSize) {
-            // Unprocessed data in input starting at inputOffset and ending and the end of the input
-            // APK's LFH section. We output this data verbatim because this signer is supposed
-            // to preserve as much of input as possible.
-            long chunkSize = inputLfhSectionSize - inputOffset;
-            inputApkLfhSection.feed(inputOffset, chunkSize, outputApkOut);
-            outputOffset += chunkSize;
-            inputOffset = inputLfhSectionSize;
-        }
+        tracer.finish(
+                TraceListener.Phase.COPY_ENTRIES,
+                phaseStartNanos,
+                outputOffset,
+                outputCdRecordsByName.size());
 
         // Step 6. Sort output APK's Central Directory records in the order in which they should
         // appear in the output
@@ -485,6 +637,10 @@ public class ApkSigner {
             lastModifiedTimeForNewEntries = 0;
         }
 
+        // Entries generated below are deflated in parallel if they are large enough to benefit
+        RunnablesExecutor deflateExecutor =
+                (mExecutor != null) ? mExecutor : RunnablesExecutor.MULTI_THREADED;
+
         // Step 7. Generate and output SourceStamp certificate hash, if necessary. This may output
         // more Local File Header + data entries and add to the list of output Central Directory
         // records.
@@ -501,7 +657,8 @@ public class ApkSigner {
                                 outputCdRecords,
                                 lastModifiedTimeForNewEntries,
                                 lastModifiedDateForNewEntries,
-                                outputApkOut);
+                                outputApkOut,
+                                deflateExecutor);
             } else {
                 throw new ApkFormatException(
                         String.format(
@@ -531,18 +688,24 @@ public class ApkSigner {
                     outputCdRecords,
                     lastModifiedTimeForNewEntries,
                     lastModifiedDateForNewEntries,
-                    outputApkOut);
+                    outputApkOut,
+                    deflateExecutor);
         }
 
         // Step 8. Generate and output JAR signatures, if necessary. This may output more Local File
         // Header + data entries and add to the list of output Central Directory records.
+        phaseStartNanos = tracer.start(TraceListener.Phase.JAR_SIGNATURE);
         ApkSignerEngine.OutputJarSignatureRequest outputJarSignatureRequest =
                 signerEngine.outputJarEntries();
+        long jarSignatureEntriesSize = 0;
+        int jarSignatureEntryCount = 0;
         if (outputJarSignatureRequest != null) {
             for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry :
                     outputJarSignatureRequest.getAdditionalJarEntries()) {
                 String entryName = entry.getName();
                 byte[] uncompressedData = entry.getData();
+                jarSignatureEntriesSize += uncompressedData.length;
+                jarSignatureEntryCount++;
 
                 requestOutputEntryInspection(signerEngine, entryName, uncompressedData);
                 outputOffset +=
@@ -553,10 +716,16 @@ public class ApkSigner {
                                 outputCdRecords,
                                 lastModifiedTimeForNewEntries,
                                 lastModifiedDateForNewEntries,
-                                outputApkOut);
+                                outputApkOut,
+                                deflateExecutor);
             }
             outputJarSignatureRequest.done();
         }
+        tracer.finish(
+                TraceListener.Phase.JAR_SIGNATURE,
+                phaseStartNanos,
+                jarSignatureEntriesSize,
+                jarSignatureEntryCount);
 
         // Step 9. Construct output ZIP Central Directory in an in-memory buffer
         long outputCentralDirSizeBytes = 0;
@@ -589,31 +758,55 @@ public class ApkSigner {
         // Step 11. Generate and output APK Signature Scheme v2 and/or v3 signatures and/or
         // SourceStamp signatures, if necessary.
         // This may insert an APK Signing Block just before the output's ZIP Central Directory
+        phaseStartNanos = tracer.start(TraceListener.Phase.SIGNATURE_GENERATION);
         ApkSignerEngine.OutputApkSigningBlockRequest2 outputApkSigningBlockRequest =
                 signerEngine.outputZipSections2(
                         outputApkIn,
                         outputCentralDirDataSource,
                         DataSources.asDataSource(outputEocd));
-
+        byte[] outputApkSigningBlock =
+                (outputApkSigningBlockRequest != null)
+                        ? outputApkSigningBlockRequest.getApkSigningBlock()
+                        : null;
+        tracer.finish(
+                TraceListener.Phase.SIGNATURE_GENERATION,
+                phaseStartNanos,
+                (outputApkSigningBlock != null) ? outputApkSigningBlock.length : 0,
+                -1);
+
+        phaseStartNanos = tracer.start(TraceListener.Phase.OUTPUT);
+        long outputApkSigningBlockSize = 0;
         if (outputApkSigningBlockRequest != null) {
             int padding = outputApkSigningBlockRequest.getPaddingSizeBeforeApkSigningBlock();
             outputApkOut.consume(ByteBuffer.allocate(padding));
-            byte[] outputApkSigningBlock = outputApkSigningBlockRequest.getApkSigningBlock();
             outputApkOut.consume(outputApkSigningBlock, 0, outputApkSigningBlock.length);
+            outputApkSigningBlockSize = padding + outputApkSigningBlock.length;
             ZipUtils.setZipEocdCentralDirectoryOffset(
                     outputEocd,
-                    outputCentralDirStartOffset + padding + outputApkSigningBlock.length);
+                    outputCentralDirStartOffset + outputApkSigningBlockSize);
             outputApkSigningBlockRequest.done();
         }
 
         // Step 12. Output ZIP Central Directory and ZIP End of Central Directory
+        long outputEocdSize = outputEocd.remaining();
         outputCentralDirDataSource.feed(0, outputCentralDirDataSource.size(), outputApkOut);
         outputApkOut.consume(outputEocd);
         signerEngine.outputDone();
+        tracer.finish(
+                TraceListener.Phase.OUTPUT,
+                phaseStartNanos,
+                outputApkSigningBlockSize + outputCentralDirDataSource.size() + outputEocdSize,
+                outputCentralDirRecordCount);
 
         // Step 13. Generate and output APK Signature Scheme v4 signatures, if necessary.
         if (mV4SigningEnabled) {
+            phaseStartNanos = tracer.start(TraceListener.Phase.APK_SIGNATURE_SCHEME_V4);
             signerEngine.signV4(outputApkIn, mOutputV4File, !mV4ErrorReportingEnabled);
+            tracer.finish(
+                    TraceListener.Phase.APK_SIGNATURE_SCHEME_V4,
+                    phaseStartNanos,
+                    outputApkIn.size(),
+                    -1);
         }
     }
 
@@ -638,9 +831,11 @@ public class ApkSigner {
             List<CentralDirectoryRecord> outputCdRecords,
             int lastModifiedTimeForNewEntries,
             int lastModifiedDateForNewEntries,
-            DataSink outputApkOut)
+            DataSink outputApkOut,
+            RunnablesExecutor deflateExecutor)
             throws IOException {
-        ZipUtils.DeflateResult deflateResult = ZipUtils.deflate(ByteBuffer.wrap(uncompressedData));
+        ZipUtils.DeflateResult deflateResult =
+                ZipUtils.deflate(ByteBuffer.wrap(uncompressedData), deflateExecutor);
         byte[] compressedData = deflateResult.output;
         long uncompressedDataCrc32 = deflateResult.inputCrc32;
         long numOfDataBytes =
@@ -677,6 +872,227 @@ public class ApkSigner {
         inspectEntryRequest.done();
     }
 
+    /**
+     * Fulfills {@link ApkSignerEngine.InspectJarEntryRequest}s for output JAR entries on worker
+     * threads, so that inflating and digesting entries' data overlaps with copying the entries to
+     * the output APK.
+     *
+     * <p>Requests are queued by {@link #submit} and picked up by runnables run by the provided
+     * {@link RunnablesExecutor} on a dispatcher thread. {@link #awaitCompletion()} waits for all
+     * queued requests to be fulfilled and rethrows the failure of the earliest submitted request
+     * which failed, if any. If a worker is interrupted, the requests not yet picked up are
+     * abandoned and {@code awaitCompletion} throws an {@link InterruptedIOException}.
+     */
+    private static class JarEntryInspectionPipeline implements Closeable {
+        private static final InspectionTask END_OF_TASKS = new InspectionTask(-1, null, null);
+
+        private final DataSource mLfhSection;
+        private final BlockingQueue<InspectionTask> mTasks = new LinkedBlockingQueue<>();
+        private final Thread mDispatcher;
+        private final Object mLock = new Object();
+
+        private int mSubmittedTaskCount;
+        private boolean mEndOfTasksQueued;
+        private volatile boolean mAborted;
+        private InspectionTask mFirstFailedTask;
+        private InterruptedIOException mInterruptedFailure;
+        private Throwable mDispatcherFailure;
+
+        private JarEntryInspectionPipeline(RunnablesExecutor executor, DataSource lfhSection) {
+            mLfhSection = lfhSection;
+            mDispatcher = new Thread(() -> {
+                try {
+                    executor.execute(() -> this::fulfillQueuedRequests);
+                } catch (Throwable e) {
+                    synchronized (mLock) {
+                        mDispatcherFailure = e;
+                    }
+                    mAborted = true;
+                }
+            }, "apksig-jar-entry-inspection");
+            mDispatcher.setDaemon(true);
+            mDispatcher.start();
+        }
+
+        private void submit(
+                LocalFileRecord localFileRecord,
+                ApkSignerEngine.InspectJarEntryRequest inspectEntryRequest) {
+            mTasks.add(
+                    new InspectionTask(
+                            mSubmittedTaskCount++, localFileRecord, inspectEntryRequest));
+        }
+
+        private void awaitCompletion() throws IOException, ApkFormatException {
+            queueEndOfTasks();
+            joinDispatcher();
+            synchronized (mLock) {
+                if (mFirstFailedTask != null) {
+                    Exception failure = mFirstFailedTask.failure;
+                    if (failure instanceof ApkFormatException) {
+                        throw (ApkFormatException) failure;
+                    } else if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    }
+                    throw (RuntimeException) failure;
+                }
+                if (mInterruptedFailure != null) {
+                    throw mInterruptedFailure;
+                }
+                if (mDispatcherFailure instanceof RuntimeException) {
+                    throw (RuntimeException) mDispatcherFailure;
+                } else if (mDispatcherFailure instanceof Error) {
+                    throw (Error) mDispatcherFailure;
+                } else if (mDispatcherFailure != null) {
+                    throw new RuntimeException(mDispatcherFailure);
+                }
+            }
+        }
+
+        /**
+         * Abandons requests which have not been picked up yet, if any, and waits for the workers
+         * to finish.
+         */
+        @Override
+        public void close() {
+            mAborted = true;
+            queueEndOfTasks();
+            joinDispatcher();
+        }
+
+        private void queueEndOfTasks() {
+            if (!mEndOfTasksQueued) {
+                mEndOfTasksQueued = true;
+                mTasks.add(END_OF_TASKS);
+            }
+        }
+
+        private void joinDispatcher() {
+            boolean interrupted = false;
+            while (mDispatcher.isAlive()) {
+                try {
+                    mDispatcher.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void fulfillQueuedRequests() {
+            Inflater inflater = new Inflater(true);
+            try {
+                while (true) {
+                    InspectionTask task;
+                    try {
+                        task = mTasks.take();
+                    } catch (InterruptedException e) {
+                        // The requests which have not been fulfilled yet are abandoned. Record
+                        // this so that awaitCompletion does not report success.
+                        InterruptedIOException failure = new InterruptedIOException(
+                                "Interrupted while waiting for JAR entries to inspect");
+                        failure.initCause(e);
+                        synchronized (mLock) {
+                            if (mInterruptedFailure == null) {
+                                mInterruptedFailure = failure;
+                            }
+                        }
+                        mAborted = true;
+                        return;
+                    }
+                    if (task == END_OF_TASKS) {
+                        // Leave the marker in place for the other workers.
+                        mTasks.add(END_OF_TASKS);
+                        return;
+                    }
+                    if (mAborted) {
+                        continue;
+                    }
+                    try {
+                        try {
+                            task.localFileRecord.outputUncompressedData(
+                                    mLfhSection, task.request.getDataSink(), inflater);
+                        } catch (ZipFormatException e) {
+                            throw new ApkFormatException(
+                                    "Malformed ZIP entry: " + task.localFileRecord.getName(), e);
+                        }
+                        task.request.done();
+                    } catch (IOException | ApkFormatException | RuntimeException e) {
+                        task.failure = e;
+                        synchronized (mLock) {
+                            if ((mFirstFailedTask == null)
+                                    || (task.index < mFirstFailedTask.index)) {
+                                mFirstFailedTask = task;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private static class InspectionTask {
+            private final int index;
+            private final LocalFileRecord localFileRecord;
+            private final ApkSignerEngine.InspectJarEntryRequest request;
+            private Exception failure;
+
+            private InspectionTask(
+                    int index,
+                    LocalFileRecord localFileRecord,
+                    ApkSignerEngine.InspectJarEntryRequest request) {
+                this.index = index;
+                this.localFileRecord = localFileRecord;
+                this.request = request;
+            }
+        }
+    }
+
+    /**
+     * Copies ranges of the input APK's Local File Header section verbatim to the output. Runs of
+     * adjacent ranges are coalesced and copied using a single
+     * {@link DataSource#feed(long, long, DataSink) feed}, which file-backed data sources perform
+     * as a single transfer between files when the output is a file too.
+     *
+     * <p>{@link #flush()} must be invoked before anything else is output.
+     */
+    private static class InputRangeCopier {
+        private final DataSource mInput;
+        private final DataSink mOutput;
+        private long mPendingOffset;
+        private long mPendingSize;
+
+        private InputRangeCopier(DataSource input, DataSink output) {
+            mInput = input;
+            mOutput = output;
+        }
+
+        /**
+         * Copies the specified range of the input to the output, possibly deferring it to be
+         * coalesced with the following ranges. Returns the number of bytes copied.
+         */
+        private long copy(long offset, long size) throws IOException {
+            if ((mPendingSize > 0) && (mPendingOffset + mPendingSize == offset)) {
+                mPendingSize += size;
+            } else {
+                flush();
+                mPendingOffset = offset;
+                mPendingSize = size;
+            }
+            return size;
+        }
+
+        /** Outputs all deferred ranges. */
+        private void flush() throws IOException {
+            if (mPendingSize > 0) {
+                mInput.feed(mPendingOffset, mPendingSize, mOutput);
+                mPendingSize = 0;
+            }
+        }
+    }
+
     private static class OutputSizeAndDataOffset {
         public long outputBytes;
         public long dataOffsetBytes;
@@ -691,13 +1107,14 @@ public class ApkSigner {
             DataSource inputLfhSection,
             LocalFileRecord inputRecord,
             DataSink outputLfhSection,
-            long outputOffset)
+            long outputOffset,
+            InputRangeCopier inputRangeCopier)
             throws IOException {
         long inputOffset = inputRecord.getStartOffsetInArchive();
         if (inputOffset == outputOffset) {
             // This record's data will be aligned same as in the input APK.
             return new OutputSizeAndDataOffset(
-                    inputRecord.outputRecord(inputLfhSection, outputLfhSection),
+                    inputRangeCopier.copy(inputOffset, inputRecord.getSize()),
                     inputRecord.getDataStartOffsetInRecord());
         }
         int dataAlignmentMultiple = getInputJarEntryDataAlignmentMultiple(inputRecord);
@@ -706,7 +1123,7 @@ public class ApkSigner {
                         == (outputOffset % dataAlignmentMultiple))) {
             // This record's data will be aligned same as in the input APK.
             return new OutputSizeAndDataOffset(
-                    inputRecord.outputRecord(inputLfhSection, outputLfhSection),
+                    inputRangeCopier.copy(inputOffset, inputRecord.getSize()),
                     inputRecord.getDataStartOffsetInRecord());
         }
 
@@ -715,7 +1132,7 @@ public class ApkSigner {
             // This record's data is not aligned in the input APK. No need to align it in the
             // output.
             return new OutputSizeAndDataOffset(
-                    inputRecord.outputRecord(inputLfhSection, outputLfhSection),
+                    inputRangeCopier.copy(inputOffset, inputRecord.getSize()),
                     inputRecord.getDataStartOffsetInRecord());
         }
 
@@ -730,6 +1147,7 @@ public class ApkSigner {
                 (long) inputRecord.getDataStartOffsetInRecord()
                         + aligningExtra.remaining()
                         - inputRecord.getExtra().remaining();
+        inputRangeCopier.flush();
         return new OutputSizeAndDataOffset(
                 inputRecord.outputRecordWithModifiedExtra(
                         inputLfhSection, aligningExtra, outputLfhSection),
@@ -853,51 +1271,26 @@ public class ApkSigner {
         return cd;
     }
 
-    private static List<CentralDirectoryRecord> parseZipCentralDirectory(
+    private static CentralDirectoryIndex parseZipCentralDirectory(
             ByteBuffer cd, ApkUtils.ZipSections apkSections) throws ApkFormatException {
         long cdOffset = apkSections.getZipCentralDirectoryOffset();
         int expectedCdRecordCount = apkSections.getZipCentralDirectoryRecordCount();
-        List<CentralDirectoryRecord> cdRecords = new ArrayList<>(expectedCdRecordCount);
-        Set<String> entryNames = new HashSet<>(expectedCdRecordCount);
-        for (int i = 0; i < expectedCdRecordCount; i++) {
-            CentralDirectoryRecord cdRecord;
-            int offsetInsideCd = cd.position();
-            try {
-                cdRecord = CentralDirectoryRecord.getRecord(cd);
-            } catch (ZipFormatException e) {
-                throw new ApkFormatException(
-                        "Malformed ZIP Central Directory record #"
-                                + (i + 1)
-                                + " at file offset "
-                                + (cdOffset + offsetInsideCd),
-                        e);
-            }
-            String entryName = cdRecord.getName();
-            if (!entryNames.add(entryName)) {
-                throw new ApkFormatException(
-                        "Multiple ZIP entries with the same name: " + entryName);
-            }
-            cdRecords.add(cdRecord);
+        CentralDirectoryIndex cdIndex =
+                CentralDirectoryIndex.read(cd, expectedCdRecordCount, cdOffset);
+        int duplicateIndex = cdIndex.getFirstDuplicateNameIndex();
+        if (duplicateIndex != -1) {
+            throw new ApkFormatException(
+                    "Multiple ZIP entries with the same name: " + cdIndex.getName(duplicateIndex));
         }
-        if (cd.hasRemaining()) {
+        if (cdIndex.getSizeBytes() < cd.remaining()) {
             throw new ApkFormatException(
                     "Unused space at the end of ZIP Central Directory: "
-                            + cd.remaining()
+                            + (cd.remaining() - cdIndex.getSizeBytes())
                             + " bytes starting at file offset "
-                            + (cdOffset + cd.position()));
+                            + (cdOffset + cdIndex.getSizeBytes()));
         }
 
-        return cdRecords;
-    }
-
-    private static CentralDirectoryRecord findCdRecord(
-            List<CentralDirectoryRecord> cdRecords, String name) {
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            if (name.equals(cdRecord.getName())) {
-                return cdRecord;
-            }
-        }
-        return null;
+        return cdIndex;
     }
 
     /**
@@ -905,10 +1298,10 @@ public class ApkSigner {
      * is not present in the APK.
      */
     static ByteBuffer getAndroidManifestFromApk(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, ApkFormatException, ZipFormatException {
         CentralDirectoryRecord androidManifestCdRecord =
-                findCdRecord(cdRecords, ANDROID_MANIFEST_ZIP_ENTRY_NAME);
+                cdIndex.findRecord(ANDROID_MANIFEST_ZIP_ENTRY_NAME);
         if (androidManifestCdRecord == null) {
             throw new ApkFormatException("Missing " + ANDROID_MANIFEST_ZIP_ENTRY_NAME);
         }
@@ -923,10 +1316,10 @@ public class ApkSigner {
      * {@code null}.
      */
     private static List<Hints.PatternWithRange> extractPinPatterns(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, ApkFormatException {
         CentralDirectoryRecord pinListCdRecord =
-                findCdRecord(cdRecords, Hints.PIN_HINT_ASSET_ZIP_ENTRY_NAME);
+                cdIndex.findRecord(Hints.PIN_HINT_ASSET_ZIP_ENTRY_NAME);
         List<Hints.PatternWithRange> pinPatterns = null;
         if (pinListCdRecord != null) {
             pinPatterns = new ArrayList<>();
@@ -948,11 +1341,11 @@ public class ApkSigner {
      * on the {@code android:minSdkVersion} attributes of the APK's {@code AndroidManifest.xml}.
      */
     private static int getMinSdkVersionFromApk(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, MinSdkVersionException {
         ByteBuffer androidManifest;
         try {
-            androidManifest = getAndroidManifestFromApk(cdRecords, lhfSection);
+            androidManifest = getAndroidManifestFromApk(cdIndex, lhfSection);
         } catch (ZipFormatException | ApkFormatException e) {
             throw new MinSdkVersionException(
                     "Failed to determine APK's minimum supported Android platform version", e);
@@ -1093,6 +1486,10 @@ public class ApkSigner {
         private boolean mOtherSignersSignaturesPreserved;
         private String mCreatedBy;
         private Integer mMinSdkVersion;
+        private RunnablesExecutor mExecutor;
+        private boolean mPipelinedJarEntryInspectionEnabled = false;
+        private ApkDigestCache mDigestCache;
+        private TraceListener mTraceListener;
 
         private final ApkSignerEngine mSignerEngine;
 
@@ -1499,6 +1896,86 @@ public class ApkSigner {
             return this;
         }
 
+        /**
+         * Sets the executor used by the signer to compute the APK's content digests. By default,
+         * {@link RunnablesExecutor#MULTI_THREADED} is used.
+         *
+         * <p>This is useful for sharing a long-lived pool, such as a
+         * {@link com.android.apksig.util.PooledRunnablesExecutor}, between signers.
+         *
+         * <p>This method may only be invoked when this builder is not initialized with an
+         * {@link ApkSignerEngine}. Use {@link ApkSignerEngine#setExecutor(RunnablesExecutor)}
+         * instead.
+         *
+         * @throws IllegalStateException if this builder was initialized with an
+         *     {@link ApkSignerEngine}
+         */
+        public Builder setExecutor(RunnablesExecutor executor) {
+            checkInitializedWithoutEngine();
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets whether the data of JAR entries which the signing engine asks to inspect (e.g., to
+         * compute their digests for the JAR signature) is inflated and digested on worker threads
+         * while the signer carries on copying entries to the output APK.
+         *
+         * <p>The workers are run by the executor set via {@link #setExecutor(RunnablesExecutor)},
+         * or by {@link RunnablesExecutor#MULTI_THREADED} if no executor is set. This speeds up JAR
+         * signing of APKs with many entries.
+         *
+         * <p>By default, this is disabled and entries are inspected on the calling thread. When
+         * enabled with an {@link ApkSignerEngine} provided to {@link #Builder(ApkSignerEngine)},
+         * the engine's {@link ApkSignerEngine.InspectJarEntryRequest}s must support being
+         * fulfilled on a different thread than the one which obtained them.
+         */
+        public Builder setPipelinedJarEntryInspectionEnabled(boolean enabled) {
+            mPipelinedJarEntryInspectionEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the cache of digests from previous signing runs to use for incremental signing.
+         *
+         * <p>When an APK whose contents have mostly not changed since a previous signing run which
+         * used the same cache is signed, the JAR signature digests of unchanged entries and the
+         * APK Signature Scheme v2 and v3 digests of unchanged 1 MB chunks are taken from the cache
+         * rather than computed again. v2 and v3 digests are only reused for chunks which consist
+         * of uncompressed entries. See {@link ApkDigestCache} for what counts as unchanged.
+         *
+         * <p>This method may only be invoked when this builder is not initialized with an
+         * {@link ApkSignerEngine}. Use
+         * {@link DefaultApkSignerEngine#setDigestCache(ApkDigestCache)} instead.
+         *
+         * @throws IllegalStateException if this builder was initialized with an
+         *     {@link ApkSignerEngine}
+         */
+        public Builder setDigestCache(ApkDigestCache digestCache) {
+            checkInitializedWithoutEngine();
+            if (digestCache == null) {
+                throw new NullPointerException("digestCache == null");
+            }
+            mDigestCache = digestCache;
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of the phases of signing, e.g., to find out where the time of
+         * a slow signing is spent. When this builder is initialized with an
+         * {@link ApkSignerEngine}, phases internal to the engine are not reported.
+         */
+        public Builder setTraceListener(TraceListener traceListener) {
+            if (traceListener == null) {
+                throw new NullPointerException("traceListener == null");
+            }
+            mTraceListener = traceListener;
+            return this;
+        }
+
         /**
          * Returns a new {@code ApkSigner} instance initialized according to the configuration of
          * this builder.
@@ -1547,6 +2024,10 @@ public class ApkSigner {
                     mDebuggableApkPermitted,
                     mOtherSignersSignaturesPreserved,
                     mCreatedBy,
+                    mExecutor,
+                    mPipelinedJarEntryInspectionEnabled,
+                    mDigestCache,
+                    mTraceListener,
                     mSignerEngine,
                     mInputApkFile,
                     mInputApkDataSource,
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig;
+
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.apk.ApkSigningBlockNotFoundException;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.util.X509CertificateUtils;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.zip.ZipFormatException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of APK verification results, which may be saved to and loaded from a file, for
+ * skipping the verification of APKs which were already verified.
+ *
+ * <p>Results are keyed by a fingerprint of the APK and of the verifier's configuration. The APK's
+ * fingerprint consists of its size, its modification time if it is a file, and a digest of its ZIP
+ * End of Central Directory record, ZIP Central Directory and APK Signing Block. These are cheap to
+ * read, even for large APKs, and change whenever the APK is signed again or any of its entries
+ * changes in a way visible in the Central Directory.
+ *
+ * <p>As implied by the above, the cache does not read the contents of the APK's entries: an APK
+ * tampered with while preserving its size, modification time, Central Directory and signatures
+ * is not detected. The cache should thus only be used for APKs which are trusted not to be modified
+ * in place after their verification, for example in storage owned by the caller.
+ *
+ * <p>When the cache is full, the least recently used result is evicted. Instances of this class
+ * are thread-safe.
+ */
+public class ApkVerificationResultCache {
+    private static final int FILE_MAGIC = 0x41565243; // "AVRC"
+    private static final int FILE_FORMAT_VERSION = 2;
+
+    private static final int FLAG_VERIFIED = 1;
+    private static final int FLAG_VERIFIED_USING_V1_SCHEME = 1 << 1;
+    private static final int FLAG_VERIFIED_USING_V2_SCHEME = 1 << 2;
+    private static final int FLAG_VERIFIED_USING_V3_SCHEME = 1 << 3;
+    private static final int FLAG_VERIFIED_USING_V4_SCHEME = 1 << 4;
+    private static final int FLAG_SOURCE_STAMP_VERIFIED = 1 << 5;
+
+    private final Map<ByteBuffer, CachedResult> mResults;
+    private long mHitCount;
+    private long mMissCount;
+
+    /** Constructs a new empty cache which holds up to {@code maxSize} results. */
+    public ApkVerificationResultCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        mResults = new LinkedHashMap<ByteBuffer, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedResult> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a new cache which holds up to {@code maxSize} results, populated with the results
+     * saved to the provided file by {@link #save(File)}. The returned cache is empty if the file
+     * does not exist or is not a valid cache file. If the file holds more than {@code maxSize}
+     * results, the least recently used ones are discarded.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static ApkVerificationResultCache load(File file, int maxSize) throws IOException {
+        ApkVerificationResultCache cache = new ApkVerificationResultCache(maxSize);
+        if (!file.exists()) {
+            return cache;
+        }
+        byte[] contents;
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            if (f.length() > Integer.MAX_VALUE) {
+                return cache;
+            }
+            contents = new byte[(int) f.length()];
+            f.readFully(contents);
+        }
+        // Lengths read from the file are checked against the number of bytes remaining, which a
+        // ByteArrayInputStream reports exactly, so that corrupted lengths are not allocated
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if ((in.readInt() != FILE_MAGIC) || (in.readInt() != FILE_FORMAT_VERSION)) {
+                return cache;
+            }
+            int count = in.readInt();
+            // Results are saved from least to most recently used
+            for (int i = 0; i < count; i++) {
+                byte[] key = readBytes(in);
+                CachedResult result = CachedResult.readFrom(in);
+                cache.mResults.put(ByteBuffer.wrap(key), result);
+            }
+        } catch (EOFException | IllegalArgumentException e) {
+            // Truncated or corrupted file: ignore whatever it contains
+            cache.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Saves the results held by this cache to the provided file, for use by {@link #load(File,
+     * int)}.
+     *
+     * <p>The results are written to a new temporary file in the same directory, which then
+     * replaces the file. Concurrent saves to the same file thus do not interfere with each other:
+     * the last one to complete wins. The file is replaced atomically where renaming a file over
+     * an existing one is atomic, e.g., on Linux and macOS. Elsewhere, the file is deleted before
+     * being replaced, and a concurrent {@link #load(File, int)} may find no file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        List<Map.Entry<ByteBuffer, CachedResult>> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(mResults.entrySet());
+        }
+        // The prefix of a temporary file must be at least three characters long
+        File tmpFile =
+                File.createTempFile(
+                        file.getName() + ".save-", ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean replaced = false;
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<ByteBuffer, CachedResult> entry : entries) {
+                    writeBytes(out, entry.getKey().array());
+                    entry.getValue().writeTo(out);
+                }
+            }
+            replaced =
+                    (tmpFile.renameTo(file))
+                            || ((file.delete()) && (tmpFile.renameTo(file)));
+            if (!replaced) {
+                throw new IOException("Failed to replace " + file + " with " + tmpFile);
+            }
+        } finally {
+            if (!replaced) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the result of verifying the APK of the provided verifier, verifying the APK only if
+     * its result is not cached.
+     *
+     * @throws IOException if an I/O error is encountered while reading the APK
+     * @throws ApkFormatException if the APK is malformed
+     * @throws NoSuchAlgorithmException if the APK's signatures cannot be verified because a
+     *     required cryptographic algorithm implementation is missing
+     * @throws IllegalStateException if the verifier's configuration is missing required
+     *     information
+     *
+     * @see ApkVerifier#verify()
+     */
+    public CachedResult verify(ApkVerifier verifier)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        ByteBuffer key = getKey(verifier);
+        CachedResult result;
+        synchronized (this) {
+            result = mResults.get(key);
+            if (result != null) {
+                mHitCount++;
+                return result;
+            }
+            mMissCount++;
+        }
+
+        // Verify without holding the lock. Should another thread verify the same APK
+        // concurrently, either result may be cached: the two are equivalent.
+        result = new CachedResult(verifier.verify());
+        synchronized (this) {
+            mResults.put(key, result);
+        }
+        return result;
+    }
+
+    /** Returns the number of results currently cached. */
+    public synchronized int size() {
+        return mResults.size();
+    }
+
+    /** Returns the number of invocations of {@link #verify(ApkVerifier)} served from the cache. */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of invocations of {@link #verify(ApkVerifier)} which verified the APK. */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Discards all cached results. Hit and miss counts are not reset. */
+    public synchronized void clear() {
+        mResults.clear();
+    }
+
+    /**
+     * Returns the fingerprint of the APK of the provided verifier and of the verifier's
+     * configuration.
+     */
+    private static ByteBuffer getKey(ApkVerifier verifier)
+            throws IOException, ApkFormatException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to obtain SHA-256 MessageDigest", e);
+        }
+        Integer minSdkVersion = verifier.getMinSdkVersion();
+        md.update(
+                ByteBuffer.allocate(9)
+                        .putInt((minSdkVersion != null) ? minSdkVersion : -1)
+                        .putInt(verifier.getMaxSdkVersion())
+                        .put((byte) (verifier.isStrongestSchemeOnly() ? 1 : 0))
+                        .array());
+        File v4SignatureFile = verifier.getV4SignatureFile();
+        if (v4SignatureFile != null) {
+            md.update(v4SignatureFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            updateWithFileStatus(md, v4SignatureFile.length(), v4SignatureFile.lastModified());
+        }
+
+        File apkFile = verifier.getApkFile();
+        if (apkFile == null) {
+            DataSource apk = verifier.getApkDataSource();
+            if (apk == null) {
+                throw new IllegalStateException("APK not provided");
+            }
+            updateWithFileStatus(md, apk.size(), -1);
+            updateWithApkSignatureSections(md, apk);
+        } else {
+            try (RandomAccessFile f = new RandomAccessFile(apkFile, "r")) {
+                updateWithFileStatus(md, f.length(), apkFile.lastModified());
+                updateWithApkSignatureSections(md, DataSources.asDataSource(f, 0, f.length()));
+            }
+        }
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    private static void updateWithFileStatus(MessageDigest md, long size, long lastModified) {
+        md.update(ByteBuffer.allocate(16).putLong(size).putLong(lastModified).array());
+    }
+
+    private static void updateWithApkSignatureSections(MessageDigest md, DataSource apk)
+            throws IOException, ApkFormatException {
+        ApkUtils.ZipSections zipSections;
+        try {
+            zipSections = ApkUtils.findZipSections(apk);
+        } catch (ZipFormatException e) {
+            throw new ApkFormatException("Malformed APK: not a ZIP archive", e);
+        }
+        md.update(zipSections.getZipEndOfCentralDirectory());
+        apk.feed(
+                zipSections.getZipCentralDirectoryOffset(),
+                zipSections.getZipCentralDirectorySizeBytes(),
+                DataSinks.asDataSink(md));
+        try {
+            ApkUtils.ApkSigningBlock apkSigningBlock =
+                    ApkUtils.findApkSigningBlock(apk, zipSections);
+            DataSource contents = apkSigningBlock.getContents();
+            contents.feed(0, contents.size(), DataSinks.asDataSink(md));
+        } catch (ApkSigningBlockNotFoundException e) {
+            // JAR-signed or unsigned APK: its Central Directory covers its signature files
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length: " + length);
+        }
+        if (length > in.available()) {
+            throw new EOFException(
+                    "Length exceeds remaining input: " + length + " > " + in.available());
+        }
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Compact form of an {@link ApkVerifier.Result}: whether the APK verified, using which
+     * schemes and for which platform versions, its signers' certificates, and the text of the
+     * errors and warnings.
+     */
+    public static class CachedResult {
+        private final int mFlags;
+        private final int mMinCheckedPlatformVersion;
+        private final List<byte[]> mEncodedSignerCerts;
+        private final List<String> mErrors;
+        private final List<String> mWarnings;
+        private List<X509Certificate> mSignerCerts;
+
+        private CachedResult(ApkVerifier.Result result) {
+            int flags = 0;
+            flags |= result.isVerified() ? FLAG_VERIFIED : 0;
+            flags |= result.isVerifiedUsingV1Scheme() ? FLAG_VERIFIED_USING_V1_SCHEME : 0;
+            flags |= result.isVerifiedUsingV2Scheme() ? FLAG_VERIFIED_USING_V2_SCHEME : 0;
+            flags |= result.isVerifiedUsingV3Scheme() ? FLAG_VERIFIED_USING_V3_SCHEME : 0;
+            flags |= result.isVerifiedUsingV4Scheme() ? FLAG_VERIFIED_USING_V4_SCHEME : 0;
+            flags |= result.isSourceStampVerified() ? FLAG_SOURCE_STAMP_VERIFIED : 0;
+            mFlags = flags;
+            mMinCheckedPlatformVersion = result.getMinCheckedPlatformVersion();
+            List<byte[]> encodedSignerCerts = new ArrayList<>();
+            for (X509Certificate cert : result.getSignerCertificates()) {
+                try {
+                    encodedSignerCerts.add(cert.getEncoded());
+                } catch (CertificateEncodingException e) {
+                    throw new RuntimeException("Failed to encode signer certificate", e);
+                }
+            }
+            mEncodedSignerCerts = encodedSignerCerts;
+            mSignerCerts = Collections.unmodifiableList(
+                    new ArrayList<>(result.getSignerCertificates()));
+            mErrors = toStrings(result.getAllErrors());
+            mWarnings = toStrings(result.getWarnings());
+        }
+
+        private CachedResult(
+                int flags, int minCheckedPlatformVersion, List<byte[]> encodedSignerCerts,
+                List<String> errors, List<String> warnings) {
+            mFlags = flags;
+            mMinCheckedPlatformVersion = minCheckedPlatformVersion;
+            mEncodedSignerCerts = encodedSignerCerts;
+            mErrors = errors;
+            mWarnings = warnings;
+        }
+
+        private static List<String> toStrings(List<ApkVerifier.IssueWithParams> issues) {
+            List<String> result = new ArrayList<>(issues.size());
+            for (ApkVerifier.IssueWithParams issue : issues) {
+                result.add(issue.toString());
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        private static CachedResult readFrom(DataInputStream in) throws IOException {
+            int flags = in.readInt();
+            int minCheckedPlatformVersion = in.readInt();
+            int signerCount = in.readInt();
+            List<byte[]> encodedSignerCerts = new ArrayList<>();
+            for (int i = 0; i < signerCount; i++) {
+                encodedSignerCerts.add(readBytes(in));
+            }
+            List<String> errors = readStrings(in);
+            List<String> warnings = readStrings(in);
+            return new CachedResult(
+                    flags, minCheckedPlatformVersion, encodedSignerCerts, errors, warnings);
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(mFlags);
+            out.writeInt(mMinCheckedPlatformVersion);
+            out.writeInt(mEncodedSignerCerts.size());
+            for (byte[] encodedSignerCert : mEncodedSignerCerts) {
+                writeBytes(out, encodedSignerCert);
+            }
+            writeStrings(out, mErrors);
+            writeStrings(out, mWarnings);
+        }
+
+        /** @see ApkVerifier.Result#isVerified() */
+        public boolean isVerified() {
+            return (mFlags & FLAG_VERIFIED) != 0;
+        }
+
+        /** @see ApkVerifier.Result#isVerifiedUsingV1Scheme() */
+        public boolean isVerifiedUsingV1Scheme() {
+            return (mFlags & FLAG_VERIFIED_USING_V1_SCHEME) != 0;
+        }
+
+        /** @see ApkVerifier.Result#isVerifiedUsingV2Scheme() */
+        public boolean isVerifiedUsingV2Scheme() {
+            return (mFlags & FLAG_VERIFIED_USING_V2_SCHEME) != 0;
+        }
+
+        /** @see ApkVerifier.Result#isVerifiedUsingV3Scheme() */
+        public boolean isVerifiedUsingV3Scheme() {
+            return (mFlags & FLAG_VERIFIED_USING_V3_SCHEME) != 0;
+        }
+
+        /** @see ApkVerifier.Result#isVerifiedUsingV4Scheme() */
+        public boolean isVerifiedUsingV4Scheme() {
+            return (mFlags & FLAG_VERIFIED_USING_V4_SCHEME) != 0;
+        }
+
+        /** @see ApkVerifier.Result#isSourceStampVerified() */
+        public boolean isSourceStampVerified() {
+            return (mFlags & FLAG_SOURCE_STAMP_VERIFIED) != 0;
+        }
+
+        /** @see ApkVerifier.Result#getMinCheckedPlatformVersion() */
+        public int getMinCheckedPlatformVersion() {
+            return mMinCheckedPlatformVersion;
+        }
+
+        /**
+         * Returns the verified signers' certificates, one per signer. Certificates of results
+         * loaded from a file are decoded on first use.
+         *
+         * @see ApkVerifier.Result#getSignerCertificates()
+         */
+        public synchronized List<X509Certificate> getSignerCertificates() {
+            if (mSignerCerts == null) {
+                List<X509Certificate> signerCerts = new ArrayList<>(mEncodedSignerCerts.size());
+                for (byte[] encodedSignerCert : mEncodedSignerCerts) {
+                    try {
+                        signerCerts.add(
+                                X509CertificateUtils.generateCertificate(encodedSignerCert));
+                    } catch (CertificateException e) {
+                        throw new IllegalStateException("Failed to decode cached certificate", e);
+                    }
+                }
+                mSignerCerts = Collections.unmodifiableList(signerCerts);
+            }
+            return mSignerCerts;
+        }
+
+        /**
+         * Returns the text of all errors encountered during verification, including those of
+         * individual signers.
+         *
+         * @see ApkVerifier.Result#getAllErrors()
+         */
+        public List<String> getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * Returns the text of the warnings encountered during verification which are not specific
+         * to a signer.
+         *
+         * @see ApkVerifier.Result#getWarnings()
+         */
+        public List<String> getWarnings() {
+            return mWarnings;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import com.android.apksig.internal.apk.ApkSigResult;
 import com.android.apksig.internal.apk.ApkSignerInfo;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ContentDigestsMemo;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.SignatureInfo;
 import com.android.apksig.internal.apk.SignatureNotFoundException;
@@ -43,11 +44,15 @@ import com.android.apksig.internal.apk.v3.V3SchemeConstants;
 import com.android.apksig.internal.apk.v3.V3SchemeVerifier;
 import com.android.apksig.internal.apk.v4.V4SchemeVerifier;
 import com.android.apksig.internal.util.AndroidSdkVersion;
+import com.android.apksig.internal.util.PhaseTracer;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipUtils;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
 import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.TraceListener;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.Closeable;
@@ -100,17 +105,53 @@ public class ApkVerifier {
     private final Integer mMinSdkVersion;
     private final int mMaxSdkVersion;
 
+    private final RunnablesExecutor mExecutor;
+    private final boolean mStrongestSchemeOnly;
+    private final TraceListener mTraceListener;
+
     private ApkVerifier(
             File apkFile,
             DataSource apkDataSource,
             File v4SignatureFile,
             Integer minSdkVersion,
-            int maxSdkVersion) {
+            int maxSdkVersion,
+            RunnablesExecutor executor,
+            boolean strongestSchemeOnly,
+            TraceListener traceListener) {
         mApkFile = apkFile;
         mApkDataSource = apkDataSource;
         mV4SignatureFile = v4SignatureFile;
         mMinSdkVersion = minSdkVersion;
         mMaxSdkVersion = maxSdkVersion;
+        mExecutor = executor;
+        mStrongestSchemeOnly = strongestSchemeOnly;
+        mTraceListener = traceListener;
+    }
+
+    /** Returns the APK file, or {@code null} if the APK was provided as a {@link DataSource}. */
+    File getApkFile() {
+        return mApkFile;
+    }
+
+    /** Returns the APK data source, or {@code null} if the APK was provided as a file. */
+    DataSource getApkDataSource() {
+        return mApkDataSource;
+    }
+
+    File getV4SignatureFile() {
+        return mV4SignatureFile;
+    }
+
+    Integer getMinSdkVersion() {
+        return mMinSdkVersion;
+    }
+
+    int getMaxSdkVersion() {
+        return mMaxSdkVersion;
+    }
+
+    boolean isStrongestSchemeOnly() {
+        return mStrongestSchemeOnly;
     }
 
     /**
@@ -168,19 +209,27 @@ public class ApkVerifier {
     private Result verify(DataSource apk)
             throws IOException, ApkFormatException, NoSuchAlgorithmException {
         int maxSdkVersion = mMaxSdkVersion;
+        PhaseTracer tracer = new PhaseTracer(mTraceListener);
 
+        long phaseStartNanos = tracer.start(TraceListener.Phase.FIND_ZIP_SECTIONS);
         ApkUtils.ZipSections zipSections;
         try {
             zipSections = ApkUtils.findZipSections(apk);
         } catch (ZipFormatException e) {
             throw new ApkFormatException("Malformed APK: not a ZIP archive", e);
         }
+        tracer.finish(
+                TraceListener.Phase.FIND_ZIP_SECTIONS,
+                phaseStartNanos,
+                apk.size(),
+                zipSections.getZipCentralDirectoryRecordCount());
 
         ByteBuffer androidManifest = null;
 
         int minSdkVersion = verifyAndGetMinSdkVersion(apk, zipSections);
 
         Result result = new Result();
+        result.mMinCheckedPlatformVersion = minSdkVersion;
         Map<Integer, Map<ContentDigestAlgorithm, byte[]>> signatureSchemeApkContentDigests =
                 new HashMap<>();
 
@@ -200,13 +249,17 @@ public class ApkVerifier {
         // verification. If the signature is found but does not verify, the APK is rejected.
         Set<Integer> foundApkSigSchemeIds = new HashSet<>(2);
         if (maxSdkVersion >= AndroidSdkVersion.N) {
-            RunnablesExecutor executor = RunnablesExecutor.SINGLE_THREADED;
+            RunnablesExecutor executor = mExecutor;
+            // The contents of the APK are digested once for all APK Signature Schemes below
+            ContentDigestsMemo contentDigestsMemo = new ContentDigestsMemo(tracer);
             // Android P and newer attempts to verify APKs using APK Signature Scheme v3
             if (maxSdkVersion >= AndroidSdkVersion.P) {
+                phaseStartNanos = tracer.start(TraceListener.Phase.APK_SIGNATURE_SCHEME_V3);
                 try {
                     ApkSigningBlockUtils.Result v3Result =
                             V3SchemeVerifier.verify(
                                     executor,
+                                    contentDigestsMemo,
                                     apk,
                                     zipSections,
                                     Math.max(minSdkVersion, AndroidSdkVersion.P),
@@ -219,6 +272,9 @@ public class ApkVerifier {
                 } catch (ApkSigningBlockUtils.SignatureNotFoundException ignored) {
                     // v3 signature not required
                 }
+                tracer.finish(
+                        TraceListener.Phase.APK_SIGNATURE_SCHEME_V3, phaseStartNanos, apk.size(),
+                        -1);
                 if (result.containsErrors()) {
                     return result;
                 }
@@ -227,12 +283,19 @@ public class ApkVerifier {
             // Attempt to verify the APK using v2 signing if necessary. Platforms prior to Android P
             // ignore APK Signature Scheme v3 signatures and always attempt to verify either JAR or
             // APK Signature Scheme v2 signatures.  Android P onwards verifies v2 signatures only if
-            // no APK Signature Scheme v3 (or newer scheme) signatures were found.
-            if (minSdkVersion < AndroidSdkVersion.P || foundApkSigSchemeIds.isEmpty()) {
+            // no APK Signature Scheme v3 (or newer scheme) signatures were found. When verifying
+            // only the strongest scheme, platforms prior to Android P are not checked once a v3
+            // signature verified.
+            if ((minSdkVersion < AndroidSdkVersion.P) && (mStrongestSchemeOnly)
+                    && (!foundApkSigSchemeIds.isEmpty())) {
+                result.narrowCheckedPlatformVersions(AndroidSdkVersion.P);
+            } else if ((minSdkVersion < AndroidSdkVersion.P) || (foundApkSigSchemeIds.isEmpty())) {
+                phaseStartNanos = tracer.start(TraceListener.Phase.APK_SIGNATURE_SCHEME_V2);
                 try {
                     ApkSigningBlockUtils.Result v2Result =
                             V2SchemeVerifier.verify(
                                     executor,
+                                    contentDigestsMemo,
                                     apk,
                                     zipSections,
                                     supportedSchemeNames,
@@ -247,6 +310,9 @@ public class ApkVerifier {
                 } catch (ApkSigningBlockUtils.SignatureNotFoundException ignored) {
                     // v2 signature not required
                 }
+                tracer.finish(
+                        TraceListener.Phase.APK_SIGNATURE_SCHEME_V2, phaseStartNanos, apk.size(),
+                        -1);
                 if (result.containsErrors()) {
                     return result;
                 }
@@ -254,8 +320,12 @@ public class ApkVerifier {
 
             // If v4 file is specified, use additional verification on it
             if (mV4SignatureFile != null) {
+                phaseStartNanos = tracer.start(TraceListener.Phase.APK_SIGNATURE_SCHEME_V4);
                 final ApkSigningBlockUtils.Result v4Result =
-                        V4SchemeVerifier.verify(apk, mV4SignatureFile);
+                        V4SchemeVerifier.verify(executor, apk, mV4SignatureFile);
+                tracer.finish(
+                        TraceListener.Phase.APK_SIGNATURE_SCHEME_V4, phaseStartNanos, apk.size(),
+                        -1);
                 foundApkSigSchemeIds.add(
                         ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V4);
                 result.mergeFrom(v4Result);
@@ -282,16 +352,28 @@ public class ApkVerifier {
             }
         }
 
-        List<CentralDirectoryRecord> cdRecords =
-                V1SchemeVerifier.parseZipCentralDirectory(apk, zipSections);
+        phaseStartNanos = tracer.start(TraceListener.Phase.PARSE_CENTRAL_DIRECTORY);
+        CentralDirectoryIndex cdIndex = ZipUtils.indexZipCentralDirectory(apk, zipSections);
+        tracer.finish(
+                TraceListener.Phase.PARSE_CENTRAL_DIRECTORY,
+                phaseStartNanos,
+                cdIndex.getSizeBytes(),
+                cdIndex.size());
 
         // Attempt to verify the APK using JAR signing if necessary. Platforms prior to Android N
         // ignore APK Signature Scheme v2 signatures and always attempt to verify JAR signatures.
         // Android N onwards verifies JAR signatures only if no APK Signature Scheme v2 (or newer
-        // scheme) signatures were found.
-        if ((minSdkVersion < AndroidSdkVersion.N) || (foundApkSigSchemeIds.isEmpty())) {
+        // scheme) signatures were found. When verifying only the strongest scheme, platforms
+        // prior to Android N are not checked once a v2 or v3 signature verified, which skips
+        // digesting every entry of the APK.
+        if ((minSdkVersion < AndroidSdkVersion.N) && (mStrongestSchemeOnly)
+                && (!foundApkSigSchemeIds.isEmpty())) {
+            result.narrowCheckedPlatformVersions(AndroidSdkVersion.N);
+        } else if ((minSdkVersion < AndroidSdkVersion.N) || (foundApkSigSchemeIds.isEmpty())) {
+            phaseStartNanos = tracer.start(TraceListener.Phase.JAR_SIGNATURE);
             V1SchemeVerifier.Result v1Result =
                     V1SchemeVerifier.verify(
+                            mExecutor,
                             apk,
                             zipSections,
                             supportedSchemeNames,
@@ -301,7 +383,14 @@ public class ApkVerifier {
             result.mergeFrom(v1Result);
             signatureSchemeApkContentDigests.put(
                     ApkSigningBlockUtils.VERSION_JAR_SIGNATURE_SCHEME,
-                    getApkContentDigestFromV1SigningScheme(cdRecords, apk, zipSections));
+                    getApkContentDigestFromV1SigningScheme(cdIndex, apk, zipSections));
+            long entriesSize = 0;
+            for (int i = 0; i < cdIndex.size(); i++) {
+                entriesSize += cdIndex.getUncompressedSize(i);
+            }
+            tracer.finish(
+                    TraceListener.Phase.JAR_SIGNATURE, phaseStartNanos, entriesSize,
+                    cdIndex.size());
         }
         if (result.containsErrors()) {
             return result;
@@ -309,17 +398,12 @@ public class ApkVerifier {
 
         // Verify the SourceStamp, if found in the APK.
         try {
-            CentralDirectoryRecord sourceStampCdRecord = null;
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
-                if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(
-                        cdRecord.getName())) {
-                    sourceStampCdRecord = cdRecord;
-                    break;
-                }
-            }
+            CentralDirectoryRecord sourceStampCdRecord =
+                    cdIndex.findRecord(SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME);
             // If SourceStamp file is found inside the APK, there must be a SourceStamp
             // block in the APK signing block as well.
             if (sourceStampCdRecord != null) {
+                phaseStartNanos = tracer.start(TraceListener.Phase.SOURCE_STAMP);
                 byte[] sourceStampCertificateDigest =
                         LocalFileRecord.getUncompressedData(
                                 apk,
@@ -333,6 +417,7 @@ public class ApkVerifier {
                                 signatureSchemeApkContentDigests,
                                 Math.max(minSdkVersion, AndroidSdkVersion.R),
                                 maxSdkVersion);
+                tracer.finish(TraceListener.Phase.SOURCE_STAMP, phaseStartNanos, -1, -1);
                 result.mergeFrom(sourceStampResult);
             }
         } catch (SignatureNotFoundException ignored) {
@@ -682,15 +767,9 @@ public class ApkVerifier {
             int minSdkVersion = verifyAndGetMinSdkVersion(apk, zipSections);
 
             // Attempt to obtain the source stamp's certificate digest from the APK.
-            List<CentralDirectoryRecord> cdRecords =
-                    V1SchemeVerifier.parseZipCentralDirectory(apk, zipSections);
-            CentralDirectoryRecord sourceStampCdRecord = null;
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
-                if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(cdRecord.getName())) {
-                    sourceStampCdRecord = cdRecord;
-                    break;
-                }
-            }
+            CentralDirectoryIndex cdIndex = ZipUtils.indexZipCentralDirectory(apk, zipSections);
+            CentralDirectoryRecord sourceStampCdRecord =
+                    cdIndex.findRecord(SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME);
 
             // If the source stamp's certificate digest is not available within the APK then the
             // source stamp cannot be verified; check if a source stamp signing block is in the
@@ -772,7 +851,7 @@ public class ApkVerifier {
 
             if (minSdkVersion < AndroidSdkVersion.N || foundApkSigSchemeIds.isEmpty()) {
                 signatureSchemeApkContentDigests.put(VERSION_JAR_SIGNATURE_SCHEME,
-                        getApkContentDigestFromV1SigningScheme(cdRecords, apk, zipSections));
+                        getApkContentDigestFromV1SigningScheme(cdIndex, apk, zipSections));
             }
 
             ApkSigResult sourceStampResult =
@@ -841,7 +920,8 @@ public class ApkVerifier {
      *
      * <p>Note, this method currently only supports signature scheme V2 and V3; to obtain the
      * content digests for V1 signatures use {@link
-     * #getApkContentDigestFromV1SigningScheme(List, DataSource, ApkUtils.ZipSections)}. If a
+     * #getApkContentDigestFromV1SigningScheme(CentralDirectoryIndex, DataSource,
+     * ApkUtils.ZipSections)}. If a
      * signature scheme version other than V2 or V3 is provided a {@code null} value will be
      * returned.
      */
@@ -925,19 +1005,13 @@ public class ApkVerifier {
     }
 
     private static Map<ContentDigestAlgorithm, byte[]> getApkContentDigestFromV1SigningScheme(
-            List<CentralDirectoryRecord> cdRecords,
+            CentralDirectoryIndex cdIndex,
             DataSource apk,
             ApkUtils.ZipSections zipSections)
             throws IOException, ApkFormatException {
-        CentralDirectoryRecord manifestCdRecord = null;
+        CentralDirectoryRecord manifestCdRecord = cdIndex.findRecord(MANIFEST_ENTRY_NAME);
         Map<ContentDigestAlgorithm, byte[]> v1ContentDigest = new EnumMap<>(
                 ContentDigestAlgorithm.class);
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            if (MANIFEST_ENTRY_NAME.equals(cdRecord.getName())) {
-                manifestCdRecord = cdRecord;
-                break;
-            }
-        }
         if (manifestCdRecord == null) {
             // No JAR signing manifest file found. For SourceStamp verification, returning an empty
             // digest is enough since this would affect the final digest signed by the stamp, and
@@ -975,11 +1049,10 @@ public class ApkVerifier {
     private static ByteBuffer getAndroidManifestFromApk(
             DataSource apk, ApkUtils.ZipSections zipSections)
             throws IOException, ApkFormatException {
-        List<CentralDirectoryRecord> cdRecords =
-                V1SchemeVerifier.parseZipCentralDirectory(apk, zipSections);
+        CentralDirectoryIndex cdIndex = ZipUtils.indexZipCentralDirectory(apk, zipSections);
         try {
             return ApkSigner.getAndroidManifestFromApk(
-                    cdRecords,
+                    cdIndex,
                     apk.slice(0, zipSections.getZipCentralDirectoryOffset()));
         } catch (ZipFormatException e) {
             throw new ApkFormatException("Failed to read AndroidManifest.xml", e);
@@ -1016,6 +1089,7 @@ public class ApkVerifier {
         private boolean mSourceStampVerified;
         private boolean mWarningsAsErrors;
         private SigningCertificateLineage mSigningCertificateLineage;
+        private int mMinCheckedPlatformVersion;
 
         /**
          * Returns {@code true} if the APK's signatures verified.
@@ -1063,6 +1137,36 @@ public class ApkVerifier {
             return mSourceStampVerified;
         }
 
+        /**
+         * Returns the lowest Android platform version (API Level) for which the APK's signatures
+         * were checked. This is the minimum checked platform version requested from the verifier,
+         * or the APK's {@code minSdkVersion} if none was requested, unless only the strongest
+         * signature scheme was verified (see {@link Builder#setStrongestSchemeOnly(boolean)}). In
+         * that case, this may be higher: {@link #isVerified()} then says nothing about platform
+         * versions below the returned one, and the result contains a
+         * {@link Issue#PLATFORM_VERSIONS_NOT_CHECKED} warning.
+         */
+        public int getMinCheckedPlatformVersion() {
+            return mMinCheckedPlatformVersion;
+        }
+
+        /**
+         * Raises the lowest platform version for which the APK's signatures are checked to the
+         * provided one, if it is not already that high. Invoked at most once with a higher
+         * version: schemes are skipped from the strongest to the weakest.
+         */
+        private void narrowCheckedPlatformVersions(int minCheckedPlatformVersion) {
+            if (minCheckedPlatformVersion <= mMinCheckedPlatformVersion) {
+                return;
+            }
+            addWarning(
+                    Issue.PLATFORM_VERSIONS_NOT_CHECKED,
+                    minCheckedPlatformVersion,
+                    mMinCheckedPlatformVersion,
+                    minCheckedPlatformVersion - 1);
+            mMinCheckedPlatformVersion = minCheckedPlatformVersion;
+        }
+
         /**
          * Returns the verified signers' certificates, one per signer.
          */
@@ -2049,6 +2153,22 @@ public class ApkVerifier {
                 "Missing APK Signature Scheme v2 signature required for target sandbox version"
                         + " %1$d"),
 
+        /**
+         * Only the strongest signature scheme was verified, as requested via
+         * {@link Builder#setStrongestSchemeOnly(boolean)}, and the weaker schemes which were not
+         * verified are required by some of the checked platform versions. The verification result
+         * does not apply to those platform versions.
+         *
+         * <ul>
+         * <li>Parameter 1: lowest platform version (API Level) checked ({@code Integer})</li>
+         * <li>Parameter 2: lowest platform version (API Level) not checked ({@code Integer})</li>
+         * <li>Parameter 3: highest platform version (API Level) not checked ({@code Integer})</li>
+         * </ul>
+         */
+        PLATFORM_VERSIONS_NOT_CHECKED(
+                "Signatures only checked for API Level %1$d and higher. API Levels %2$d to %3$d"
+                        + " require signature schemes which were not verified"),
+
         /**
          * APK is targeting an SDK version that requires a minimum signature scheme version, but the
          * APK is not signed with that version or later.
@@ -2950,6 +3070,10 @@ public class ApkVerifier {
         private Integer mMinSdkVersion;
         private int mMaxSdkVersion = Integer.MAX_VALUE;
 
+        private RunnablesExecutor mExecutor = RunnablesExecutor.MULTI_THREADED;
+        private boolean mStrongestSchemeOnly;
+        private TraceListener mTraceListener;
+
         /**
          * Constructs a new {@code Builder} for verifying the provided APK file.
          */
@@ -3011,6 +3135,57 @@ public class ApkVerifier {
             return this;
         }
 
+        /**
+         * Sets the executor used to compute the APK's content digests when verifying APK Signature
+         * Scheme v2 and v3 signatures.
+         *
+         * <p>By default, {@link RunnablesExecutor#MULTI_THREADED} is used so that the 1 MB chunks
+         * of the APK are digested in parallel. Use {@link RunnablesExecutor#SINGLE_THREADED} to
+         * digest the APK on the calling thread.
+         */
+        public Builder setExecutor(RunnablesExecutor executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets whether only the strongest signature scheme which verifies is checked, as done by
+         * an Android platform which supports that scheme.
+         *
+         * <p>By default, this is disabled and the APK is verified for every platform version in
+         * the checked range. For example, an APK whose minimum checked platform version predates
+         * Android N must also carry a valid JAR signature, which is verified by digesting every
+         * entry of the APK, even when its APK Signature Scheme v2 or v3 signature verifies.
+         *
+         * <p>When enabled, weaker schemes are verified only if no stronger scheme's signature is
+         * found: JAR signatures are not verified once a v2 or v3 signature verified, and v2
+         * signatures are not verified once a v3 signature verified. If the skipped schemes are
+         * required by some platform versions of the checked range, the result only applies to the
+         * platform versions which support the strongest scheme found: its
+         * {@link Result#getMinCheckedPlatformVersion()} is raised accordingly and it contains a
+         * {@link Issue#PLATFORM_VERSIONS_NOT_CHECKED} warning. When the checked range does not
+         * require the weaker schemes, the result is the same as when this is disabled.
+         */
+        public Builder setStrongestSchemeOnly(boolean strongestSchemeOnly) {
+            mStrongestSchemeOnly = strongestSchemeOnly;
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of the phases of verification, e.g., to find out where the
+         * time of a slow verification is spent.
+         */
+        public Builder setTraceListener(TraceListener traceListener) {
+            if (traceListener == null) {
+                throw new NullPointerException("traceListener == null");
+            }
+            mTraceListener = traceListener;
+            return this;
+        }
+
         /**
          * Returns an {@link ApkVerifier} initialized according to the configuration of this
          * builder.
@@ -3021,7 +3196,10 @@ public class ApkVerifier {
                     mApkDataSource,
                     mV4SignatureFile,
                     mMinSdkVersion,
-                    mMaxSdkVersion);
+                    mMaxSdkVersion,
+                    mExecutor,
+                    mStrongestSchemeOnly,
+                    mTraceListener);
         }
     }
 
@@ -27,6 +27,7 @@ import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ReusableChunkDigests;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.stamp.V2SourceStampSigner;
 import com.android.apksig.internal.apk.v1.DigestAlgorithm;
@@ -40,11 +41,13 @@ import com.android.apksig.internal.apk.v4.V4Signature;
 import com.android.apksig.internal.jar.ManifestParser;
 import com.android.apksig.internal.util.AndroidSdkVersion;
 import com.android.apksig.internal.util.Pair;
+import com.android.apksig.internal.util.PhaseTracer;
 import com.android.apksig.internal.util.TeeDataSink;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.TraceListener;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -164,6 +167,17 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
 
     private RunnablesExecutor mExecutor = RunnablesExecutor.MULTI_THREADED;
 
+    /** Cache of digests from previous signing runs, or {@code null} if not used. */
+    private ApkDigestCache mDigestCache;
+
+    private PhaseTracer mTracer = PhaseTracer.NONE;
+
+    /**
+     * CRC32 and uncompressed size of output JAR entries whose digests are to be recorded in
+     * {@link #mDigestCache} once computed.
+     */
+    private final Map<String, long[]> mOutputJarEntryDigestCacheKeys = new HashMap<>();
+
     /**
      * A Set of block IDs to be discarded when requesting to preserve the original signatures.
      */
@@ -554,6 +568,25 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         mExecutor = executor;
     }
 
+    /**
+     * Sets the cache of digests from previous signing runs which this engine reuses where the
+     * output APK's contents have not changed, and in which it records the digests it computes.
+     *
+     * <p>JAR entry digests are only looked up for entries output via
+     * {@link #outputJarEntry(String, long, long)}.
+     */
+    public void setDigestCache(ApkDigestCache digestCache) {
+        mDigestCache = digestCache;
+    }
+
+    /**
+     * Sets the listener notified of the computation of the APK's content digests and verity tree
+     * while generating APK Signature Scheme v2 and v3 signatures.
+     */
+    public void setTraceListener(TraceListener traceListener) {
+        mTracer = new PhaseTracer(traceListener);
+    }
+
     @Override
     public void inputApkSigningBlock(DataSource apkSigningBlock) {
         checkNotClosed();
@@ -713,6 +746,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                             V1SchemeSigner.getJcaMessageDigestAlgorithm(mV1ContentDigestAlgorithm));
             mOutputJarEntryDigestRequests.put(entryName, dataDigestRequest);
             mOutputJarEntryDigests.remove(entryName);
+            mOutputJarEntryDigestCacheKeys.remove(entryName);
 
             if ((!mDebuggableApkPermitted)
                     && (ApkUtils.ANDROID_MANIFEST_ZIP_ENTRY_NAME.equals(entryName))) {
@@ -753,6 +787,37 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         return null;
     }
 
+    /**
+     * Same as {@link #outputJarEntry(String)}, but takes the CRC32 and size of the entry's
+     * uncompressed data, used to look up the entry's v1 digest in the digest cache set via
+     * {@link #setDigestCache(ApkDigestCache)}. If the digest is cached, the entry's data need not
+     * be provided for digesting.
+     */
+    public InspectJarEntryRequest outputJarEntry(
+            String entryName, long crc32, long uncompressedSize) {
+        InspectJarEntryRequest request = outputJarEntry(entryName);
+        if (mDigestCache == null) {
+            return request;
+        }
+        GetJarEntryDataDigestRequest digestRequest = mOutputJarEntryDigestRequests.get(entryName);
+        if (digestRequest == null) {
+            // The entry is not covered by v1 signature.
+            return request;
+        }
+        byte[] digest =
+                mDigestCache.getJarEntryDigest(
+                        entryName, crc32, uncompressedSize, digestRequest.mJcaDigestAlgorithm);
+        if (digest == null) {
+            mOutputJarEntryDigestCacheKeys.put(entryName, new long[] {crc32, uncompressedSize});
+            return request;
+        }
+        mOutputJarEntryDigestRequests.remove(entryName);
+        mOutputJarEntryDigests.put(entryName, digest);
+        // Only the entry's digest request is satisfied from the cache. Any other request for the
+        // entry's data, such as for checking whether the APK is debuggable, remains.
+        return (request == digestRequest) ? null : mOutputAndroidManifestEntryDataRequest;
+    }
+
     @Override
     public InputJarEntryInstructions.OutputPolicy inputJarEntryRemoved(String entryName) {
         checkNotClosed();
@@ -772,6 +837,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             invalidateV1Signature();
             mOutputJarEntryDigests.remove(entryName);
             mOutputJarEntryDigestRequests.remove(entryName);
+            mOutputJarEntryDigestCacheKeys.remove(entryName);
             mOutputSignatureJarEntryDataRequests.remove(entryName);
             return;
         }
@@ -807,6 +873,11 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                         "Still waiting to inspect output APK's " + entryName);
             }
             mOutputJarEntryDigests.put(entryName, digestRequest.getDigest());
+            long[] cacheKey = mOutputJarEntryDigestCacheKeys.remove(entryName);
+            if ((mDigestCache != null) && (cacheKey != null)) {
+                mDigestCache.putJarEntryDigest(entryName, cacheKey[0], cacheKey[1],
+                        digestRequest.mJcaDigestAlgorithm, digestRequest.getDigest());
+            }
         }
         if (isEligibleForSourceStamp()) {
             MessageDigest messageDigest =
@@ -962,6 +1033,17 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         int padSizeBeforeApkSigningBlock = paddingPair.getSecond();
         DataSource eocd = ApkSigningBlockUtils.copyWithModifiedCDOffset(beforeCentralDir, zipEocd);
 
+        // Reuse the digests of chunks of the ZIP entries section which are unchanged since the
+        // last APK signed using the digest cache.
+        ApkDigestCache.ZipEntriesLayout zipEntriesLayout = null;
+        ReusableChunkDigests reusableChunkDigests = null;
+        if ((mDigestCache != null) && (mV2SigningEnabled || mV3SigningEnabled)) {
+            zipEntriesLayout = ApkDigestCache.ZipEntriesLayout.read(zipEntries, zipCentralDirectory);
+            reusableChunkDigests =
+                    mDigestCache.getReusableChunkDigests(
+                            zipEntriesLayout, beforeCentralDir.size());
+        }
+
         List<Pair<byte[], Integer>> signingSchemeBlocks = new ArrayList<>();
         ApkSigningBlockUtils.SigningSchemeBlockAndDigests v2SigningSchemeBlockAndDigests = null;
         ApkSigningBlockUtils.SigningSchemeBlockAndDigests v3SigningSchemeBlockAndDigests = null;
@@ -973,17 +1055,39 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             signingSchemeBlocks.addAll(mPreservedSignatureBlocks);
         }
 
+        // Compute the content digests used by APK Signature Scheme v2 and v3 in a single pass over
+        // the APK, rather than once per scheme.
+        List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs = null;
+        List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs = null;
+        Map<ContentDigestAlgorithm, byte[]> contentDigests = null;
+        if (mV2SigningEnabled || mV3SigningEnabled) {
+            List<ApkSigningBlockUtils.SignerConfig> signerConfigs = new ArrayList<>();
+            if (mV2SigningEnabled) {
+                v2SignerConfigs = createV2SignerConfigs(apkSigningBlockPaddingSupported);
+                signerConfigs.addAll(v2SignerConfigs);
+            }
+            if (mV3SigningEnabled) {
+                v3SignerConfigs = createV3SignerConfigs(apkSigningBlockPaddingSupported);
+                signerConfigs.addAll(v3SignerConfigs);
+            }
+            contentDigests =
+                    ApkSigningBlockUtils.computeContentDigests(
+                                    mExecutor,
+                                    reusableChunkDigests,
+                                    beforeCentralDir,
+                                    zipCentralDirectory,
+                                    eocd,
+                                    signerConfigs,
+                                    mTracer)
+                            .getSecond();
+        }
+
         // create APK Signature Scheme V2 Signature if requested
         if (mV2SigningEnabled) {
             invalidateV2Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs =
-                    createV2SignerConfigs(apkSigningBlockPaddingSupported);
             v2SigningSchemeBlockAndDigests =
                     V2SchemeSigner.generateApkSignatureSchemeV2Block(
-                            mExecutor,
-                            beforeCentralDir,
-                            zipCentralDirectory,
-                            eocd,
+                            contentDigests,
                             v2SignerConfigs,
                             mV3SigningEnabled,
                             mOtherSignersSignaturesPreserved ? mPreservedV2Signers : null);
@@ -991,17 +1095,14 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         }
         if (mV3SigningEnabled) {
             invalidateV3Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs =
-                    createV3SignerConfigs(apkSigningBlockPaddingSupported);
             v3SigningSchemeBlockAndDigests =
                     V3SchemeSigner.generateApkSignatureSchemeV3Block(
-                            mExecutor,
-                            beforeCentralDir,
-                            zipCentralDirectory,
-                            eocd,
-                            v3SignerConfigs);
+                            contentDigests, v3SignerConfigs);
             signingSchemeBlocks.add(v3SigningSchemeBlockAndDigests.signingSchemeBlock);
         }
+        if (reusableChunkDigests != null) {
+            mDigestCache.putChunkDigests(zipEntriesLayout, reusableChunkDigests);
+        }
         if (isEligibleForSourceStamp()) {
             ApkSigningBlockUtils.SignerConfig sourceStampSignerConfig =
                     createSourceStampSignerConfig();
@@ -1072,7 +1173,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         }
         try {
             ApkSigningBlockUtils.SignerConfig v4SignerConfig = createV4SignerConfig();
-            V4SchemeSigner.generateV4Signature(dataSource, v4SignerConfig, outputFile);
+            V4SchemeSigner.generateV4Signature(mExecutor, dataSource, v4SignerConfig, outputFile);
         } catch (InvalidKeyException | IOException | NoSuchAlgorithmException e) {
             if (ignoreFailures) {
                 return;
@@ -1090,7 +1191,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         try {
             ApkSigningBlockUtils.SignerConfig v4SignerConfig = createV4SignerConfig();
             Pair<V4Signature, byte[]> pair =
-                    V4SchemeSigner.generateV4Signature(dataSource, v4SignerConfig);
+                    V4SchemeSigner.generateV4Signature(mExecutor, dataSource, v4SignerConfig);
             pair.getFirst().writeTo(sigOutput);
             return pair.getSecond();
         } catch (InvalidKeyException | IOException | NoSuchAlgorithmException e) {
@@ -1127,6 +1228,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         mDebuggable = null;
         mOutputJarEntryDigestRequests.clear();
         mOutputJarEntryDigests.clear();
+        mOutputJarEntryDigestCacheKeys.clear();
         mEmittedSignatureJarEntryData.clear();
         mOutputSignatureJarEntryDataRequests.clear();
 
@@ -38,6 +38,8 @@ import com.android.apksig.internal.apk.v2.V2SchemeConstants;
 import com.android.apksig.internal.apk.v3.V3SchemeConstants;
 import com.android.apksig.internal.util.AndroidSdkVersion;
 import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
+import com.android.apksig.internal.util.X509CertificateUtils;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
 import com.android.apksig.internal.zip.ZipUtils;
@@ -164,15 +166,9 @@ public class SourceStampVerifier {
         try {
             ZipSections zipSections = ApkUtilsLite.findZipSections(apk);
             // Attempt to obtain the source stamp's certificate digest from the APK.
-            List<CentralDirectoryRecord> cdRecords =
-                    ZipUtils.parseZipCentralDirectory(apk, zipSections);
-            CentralDirectoryRecord sourceStampCdRecord = null;
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
-                if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(cdRecord.getName())) {
-                    sourceStampCdRecord = cdRecord;
-                    break;
-                }
-            }
+            CentralDirectoryIndex cdIndex = ZipUtils.indexZipCentralDirectory(apk, zipSections);
+            CentralDirectoryRecord sourceStampCdRecord =
+                    cdIndex.findRecord(SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME);
 
             // If the source stamp's certificate digest is not available within the APK then the
             // source stamp cannot be verified; check if a source stamp signing block is in the
@@ -252,7 +248,7 @@ public class SourceStampVerifier {
             if (mMinSdkVersion < AndroidSdkVersion.N
                     || signatureSchemeApkContentDigests.isEmpty()) {
                 Map<ContentDigestAlgorithm, byte[]> apkContentDigests =
-                        getApkContentDigestFromV1SigningScheme(cdRecords, apk, zipSections, result);
+                        getApkContentDigestFromV1SigningScheme(cdIndex, apk, zipSections, result);
                 signatureSchemeApkContentDigests.put(VERSION_JAR_SIGNATURE_SCHEME,
                         apkContentDigests);
             }
@@ -392,8 +388,7 @@ public class SourceStampVerifier {
             byte[] encodedCert = ApkSigningBlockUtilsLite.readLengthPrefixedByteArray(certificates);
             X509Certificate certificate;
             try {
-                certificate = (X509Certificate) certFactory.generateCertificate(
-                        new ByteArrayInputStream(encodedCert));
+                certificate = X509CertificateUtils.generateCertificate(encodedCert, certFactory);
             } catch (CertificateException e) {
                 signerInfo.addVerificationWarning(
                         isV2Signer ? ApkVerificationIssue.V2_SIG_MALFORMED_CERTIFICATE
@@ -425,7 +420,7 @@ public class SourceStampVerifier {
      * will be updated to include a warning, but the source stamp verification can still proceed.
      */
     private static Map<ContentDigestAlgorithm, byte[]> getApkContentDigestFromV1SigningScheme(
-            List<CentralDirectoryRecord> cdRecords,
+            CentralDirectoryIndex cdIndex,
             DataSource apk,
             ZipSections zipSections,
             Result result)
@@ -434,20 +429,17 @@ public class SourceStampVerifier {
         List<CentralDirectoryRecord> signatureBlockRecords = new ArrayList<>(1);
         Map<ContentDigestAlgorithm, byte[]> v1ContentDigest = new EnumMap<>(
                 ContentDigestAlgorithm.class);
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            String cdRecordName = cdRecord.getName();
-            if (cdRecordName == null) {
-                continue;
-            }
+        for (int i = 0; i < cdIndex.size(); i++) {
+            String cdRecordName = cdIndex.getName(i);
             if (manifestCdRecord == null && MANIFEST_ENTRY_NAME.equals(cdRecordName)) {
-                manifestCdRecord = cdRecord;
+                manifestCdRecord = cdIndex.getRecord(i);
                 continue;
             }
             if (cdRecordName.startsWith("META-INF/")
                     && (cdRecordName.endsWith(".RSA")
                         || cdRecordName.endsWith(".DSA")
                         || cdRecordName.endsWith(".EC"))) {
-                signatureBlockRecords.add(cdRecord);
+                signatureBlockRecords.add(cdIndex.getRecord(i));
             }
         }
         if (manifestCdRecord == null) {
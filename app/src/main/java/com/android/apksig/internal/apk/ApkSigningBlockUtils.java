@@ -24,7 +24,6 @@ import com.android.apksig.internal.asn1.Asn1EncodingException;
 import com.android.apksig.internal.asn1.Asn1OpaqueObject;
 import com.android.apksig.internal.asn1.Asn1SpecificDerEncoder;
 import com.android.apksig.internal.pkcs7.AlgorithmIdentifier;
-import com.android.apksig.internal.pkcs7.ContentInfo;
 import com.android.apksig.internal.pkcs7.EncapsulatedContentInfo;
 import com.android.apksig.internal.pkcs7.IssuerAndSerialNumber;
 import com.android.apksig.internal.pkcs7.Pkcs7Constants;
@@ -35,6 +34,7 @@ import com.android.apksig.internal.util.ByteBufferDataSource;
 import com.android.apksig.internal.util.ChainedDataSource;
 import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
 import com.android.apksig.internal.util.Pair;
+import com.android.apksig.internal.util.PhaseTracer;
 import com.android.apksig.internal.util.VerityTreeBuilder;
 import com.android.apksig.internal.util.X509CertificateUtils;
 import com.android.apksig.internal.zip.ZipUtils;
@@ -42,11 +42,15 @@ import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
+import com.android.apksig.util.MetricsRecorder;
+import com.android.apksig.util.MetricsRecorders;
 import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.TraceListener;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -72,7 +76,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.auth.x500.X500Principal;
 
-import pers.roger.placeholder.util.Supplier;
 
 import static com.android.apksig.internal.apk.ContentDigestAlgorithm.CHUNKED_SHA256;
 import static com.android.apksig.internal.apk.ContentDigestAlgorithm.CHUNKED_SHA512;
@@ -80,7 +83,7 @@ import static com.android.apksig.internal.apk.ContentDigestAlgorithm.VERITY_CHUN
 
 public class ApkSigningBlockUtils {
 
-    private static final long CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES = 1024 * 1024;
+    static final long CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES = 1024 * 1024;
     public static final int ANDROID_COMMON_PAGE_ALIGNMENT_BYTES = 4096;
     private static final byte[] APK_SIGNING_BLOCK_MAGIC =
           new byte[] {
@@ -127,6 +130,23 @@ public class ApkSigningBlockUtils {
             ByteBuffer eocd,
             Set<ContentDigestAlgorithm> contentDigestAlgorithms,
             Result result) throws IOException, NoSuchAlgorithmException {
+        verifyIntegrity(executor, null, beforeApkSigningBlock, centralDir, eocd,
+                contentDigestAlgorithms, result);
+    }
+
+    /**
+     * Same as {@link #verifyIntegrity(RunnablesExecutor, DataSource, DataSource, ByteBuffer, Set,
+     * Result)}, but obtains the digests of the APK from the provided {@code contentDigestsMemo},
+     * which may be {@code null}, such that they are computed only once for all signature schemes.
+     */
+    public static void verifyIntegrity(
+            RunnablesExecutor executor,
+            ContentDigestsMemo contentDigestsMemo,
+            DataSource beforeApkSigningBlock,
+            DataSource centralDir,
+            ByteBuffer eocd,
+            Set<ContentDigestAlgorithm> contentDigestAlgorithms,
+            Result result) throws IOException, NoSuchAlgorithmException {
         if (contentDigestAlgorithms.isEmpty()) {
             // This should never occur because this method is invoked once at least one signature
             // is verified, meaning at least one content digest is known.
@@ -147,13 +167,21 @@ public class ApkSigningBlockUtils {
         ZipUtils.setZipEocdCentralDirectoryOffset(modifiedEocd, beforeApkSigningBlock.size());
         Map<ContentDigestAlgorithm, byte[]> actualContentDigests;
         try {
+            DataSource modifiedEocdDataSource = new ByteBufferDataSource(modifiedEocd);
             actualContentDigests =
-                    computeContentDigests(
-                            executor,
-                            contentDigestAlgorithms,
-                            beforeApkSigningBlock,
-                            centralDir,
-                            new ByteBufferDataSource(modifiedEocd));
+                    (contentDigestsMemo != null)
+                            ? contentDigestsMemo.computeContentDigests(
+                                    executor,
+                                    contentDigestAlgorithms,
+                                    beforeApkSigningBlock,
+                                    centralDir,
+                                    modifiedEocdDataSource)
+                            : computeContentDigests(
+                                    executor,
+                                    contentDigestAlgorithms,
+                                    beforeApkSigningBlock,
+                                    centralDir,
+                                    modifiedEocdDataSource);
             // Special checks for the verity algorithm requirements.
             if (actualContentDigests.containsKey(VERITY_CHUNKED_SHA256)) {
                 if ((beforeApkSigningBlock.size() % ANDROID_COMMON_PAGE_ALIGNMENT_BYTES != 0)) {
@@ -253,6 +281,47 @@ public class ApkSigningBlockUtils {
             DataSource beforeCentralDir,
             DataSource centralDir,
             DataSource eocd) throws IOException, NoSuchAlgorithmException, DigestException {
+        return computeContentDigests(
+                executor, null, digestAlgorithms, beforeCentralDir, centralDir, eocd);
+    }
+
+    /**
+     * Same as {@link #computeContentDigests(RunnablesExecutor, Set, DataSource, DataSource,
+     * DataSource)}, but does not recompute the digests of the chunks of {@code beforeCentralDir}
+     * which are known to match in {@code reusableChunkDigests}, and records the digests of its
+     * other chunks there. {@code reusableChunkDigests} may be {@code null}.
+     */
+    public static Map<ContentDigestAlgorithm, byte[]> computeContentDigests(
+            RunnablesExecutor executor,
+            ReusableChunkDigests reusableChunkDigests,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource beforeCentralDir,
+            DataSource centralDir,
+            DataSource eocd) throws IOException, NoSuchAlgorithmException, DigestException {
+        return computeContentDigests(
+                executor,
+                reusableChunkDigests,
+                digestAlgorithms,
+                beforeCentralDir,
+                centralDir,
+                eocd,
+                PhaseTracer.NONE);
+    }
+
+    /**
+     * Same as {@link #computeContentDigests(RunnablesExecutor, ReusableChunkDigests, Set,
+     * DataSource, DataSource, DataSource)}, but reports the computation of the chunked digests
+     * and of the verity tree to {@code tracer}.
+     */
+    public static Map<ContentDigestAlgorithm, byte[]> computeContentDigests(
+            RunnablesExecutor executor,
+            ReusableChunkDigests reusableChunkDigests,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource beforeCentralDir,
+            DataSource centralDir,
+            DataSource eocd,
+            PhaseTracer tracer) throws IOException, NoSuchAlgorithmException, DigestException {
+        long contentsSize = beforeCentralDir.size() + centralDir.size() + eocd.size();
         Map<ContentDigestAlgorithm, byte[]> contentDigests = new HashMap<>();
         Set<ContentDigestAlgorithm> oneMbChunkBasedAlgorithm = new HashSet<>();
         for (ContentDigestAlgorithm digestAlgorithm : digestAlgorithms) {
@@ -261,14 +330,21 @@ public class ApkSigningBlockUtils {
                 oneMbChunkBasedAlgorithm.add(digestAlgorithm);
             }
         }
-        computeOneMbChunkContentDigests(
-                executor,
-                oneMbChunkBasedAlgorithm,
-                new DataSource[] { beforeCentralDir, centralDir, eocd },
-                contentDigests);
+        if (!oneMbChunkBasedAlgorithm.isEmpty()) {
+            long startNanos = tracer.start(TraceListener.Phase.CONTENT_DIGESTS);
+            computeOneMbChunkContentDigests(
+                    executor,
+                    reusableChunkDigests,
+                    oneMbChunkBasedAlgorithm,
+                    new DataSource[] { beforeCentralDir, centralDir, eocd },
+                    contentDigests);
+            tracer.finish(TraceListener.Phase.CONTENT_DIGESTS, startNanos, contentsSize, -1);
+        }
 
         if (digestAlgorithms.contains(VERITY_CHUNKED_SHA256)) {
-            computeApkVerityDigest(beforeCentralDir, centralDir, eocd, contentDigests);
+            long startNanos = tracer.start(TraceListener.Phase.VERITY_TREE);
+            computeApkVerityDigest(executor, beforeCentralDir, centralDir, eocd, contentDigests);
+            tracer.finish(TraceListener.Phase.VERITY_TREE, startNanos, contentsSize, -1);
         }
         return contentDigests;
     }
@@ -382,6 +458,22 @@ public class ApkSigningBlockUtils {
             DataSource[] contents,
             Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
             throws NoSuchAlgorithmException, DigestException {
+        computeOneMbChunkContentDigests(
+                executor, null, digestAlgorithms, contents, outputContentDigests);
+    }
+
+    /**
+     * Computes the content digests of {@code contents}, reusing the chunk digests of
+     * {@code contents[0]} which are known to match in {@code reusableChunkDigests} (if not
+     * {@code null}) and recording the computed ones there.
+     */
+    static void computeOneMbChunkContentDigests(
+            RunnablesExecutor executor,
+            ReusableChunkDigests reusableChunkDigests,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource[] contents,
+            Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
+            throws NoSuchAlgorithmException, DigestException {
         long chunkCountLong = 0;
         for (DataSource input : contents) {
             chunkCountLong +=
@@ -397,9 +489,48 @@ public class ApkSigningBlockUtils {
             chunkDigestsList.add(new ChunkDigests(algorithms, chunkCount));
         }
 
-        ChunkSupplier chunkSupplier = new ChunkSupplier(contents);
+        // Chunks of the first section whose digests are known for all requested algorithms are
+        // not digested again. The first section's chunks come first in the chunk index space.
+        if ((reusableChunkDigests != null)
+                && (reusableChunkDigests.getSectionSize() != contents[0].size())) {
+            reusableChunkDigests = null;
+        }
+        boolean[] skippedChunks = null;
+        if (reusableChunkDigests != null) {
+            skippedChunks = new boolean[chunkCount];
+            for (int i = 0; i < reusableChunkDigests.getChunkCount(); i++) {
+                boolean reusable = true;
+                for (ChunkDigests chunkDigests : chunkDigestsList) {
+                    if (!reusableChunkDigests.isMatching(chunkDigests.algorithm, i)) {
+                        reusable = false;
+                        break;
+                    }
+                }
+                if (reusable) {
+                    for (ChunkDigests chunkDigests : chunkDigestsList) {
+                        reusableChunkDigests.getDigest(chunkDigests.algorithm, i,
+                                chunkDigests.concatOfDigestsOfChunks, chunkDigests.getOffset(i));
+                    }
+                    skippedChunks[i] = true;
+                }
+            }
+        }
+
+        ChunkSupplier chunkSupplier = new ChunkSupplier(contents, skippedChunks);
         executor.execute(() -> new ChunkDigester(chunkSupplier, chunkDigestsList));
 
+        if (reusableChunkDigests != null) {
+            for (int i = 0; i < reusableChunkDigests.getChunkCount(); i++) {
+                if (skippedChunks[i]) {
+                    continue;
+                }
+                for (ChunkDigests chunkDigests : chunkDigestsList) {
+                    reusableChunkDigests.putDigest(chunkDigests.algorithm, i,
+                            chunkDigests.concatOfDigestsOfChunks, chunkDigests.getOffset(i));
+                }
+            }
+        }
+
         // Compute and write out final digest for each algorithm.
         for (ChunkDigests chunkDigests : chunkDigestsList) {
             MessageDigest messageDigest = chunkDigests.createMessageDigest();
@@ -435,7 +566,9 @@ public class ApkSigningBlockUtils {
     }
 
     /**
-     * A per-thread digest worker.
+     * A per-thread digest worker. Each chunk is fed from its data source straight into the
+     * worker's message digests, such that digesting does not allocate a buffer per chunk and, for
+     * in-memory and memory-mapped data sources, does not copy the chunk at all.
      */
     private static class ChunkDigester implements Runnable {
         private final ChunkSupplier dataSupplier;
@@ -462,136 +595,183 @@ public class ApkSigningBlockUtils {
             byte[] chunkContentPrefix = new byte[5];
             chunkContentPrefix[0] = (byte) 0xa5;
 
+            long digestedByteCount = 0;
             try {
-                for (ChunkSupplier.Chunk chunk = dataSupplier.get();
-                     chunk != null;
-                     chunk = dataSupplier.get()) {
-                    int size = chunk.size;
-                    if (size > CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES) {
-                        throw new RuntimeException("Chunk size greater than expected: " + size);
-                    }
-
-                    // First update with the chunk prefix.
-                    setUnsignedInt32LittleEndian(size, chunkContentPrefix, 1);
-                    mdSink.consume(chunkContentPrefix, 0, chunkContentPrefix.length);
-
-                    // Then update with the chunk data.
-                    mdSink.consume(chunk.data);
-
-                    // Now finalize chunk for all algorithms.
-                    for (int i = 0; i < chunkDigests.size(); i++) {
-                        ChunkDigests chunkDigest = chunkDigests.get(i);
-                        int actualDigestSize = messageDigests.get(i).digest(
-                                chunkDigest.concatOfDigestsOfChunks,
-                                chunkDigest.getOffset(chunk.chunkIndex),
-                                chunkDigest.digestOutputSize);
-                        if (actualDigestSize != chunkDigest.digestOutputSize) {
-                            throw new RuntimeException(
-                                    "Unexpected output size of " + chunkDigest.algorithm
-                                            + " digest: " + actualDigestSize);
+                for (int batchStart = dataSupplier.claimBatch();
+                     batchStart != -1;
+                     batchStart = dataSupplier.claimBatch()) {
+                    int batchEnd = dataSupplier.getBatchEnd(batchStart);
+                    for (int chunkIndex = batchStart; chunkIndex < batchEnd; chunkIndex++) {
+                        if (dataSupplier.isSkipped(chunkIndex)) {
+                            continue;
                         }
+                        digestedByteCount += digestChunk(chunkIndex, chunkContentPrefix);
                     }
                 }
             } catch (IOException | DigestException e) {
                 throw new RuntimeException(e);
             }
+
+            // Reported once per worker rather than once per chunk, to keep recording cheap
+            if (digestedByteCount > 0) {
+                MetricsRecorder metricsRecorder = MetricsRecorders.getDefault();
+                for (ChunkDigests chunkDigest : chunkDigests) {
+                    metricsRecorder.onContentDigested(
+                            chunkDigest.algorithm.name(), digestedByteCount);
+                }
+            }
+        }
+
+        /** Digests the specified chunk and returns its size. */
+        private int digestChunk(int chunkIndex, byte[] chunkContentPrefix)
+                throws IOException, DigestException {
+            int dataSourceIndex = dataSupplier.getDataSourceIndex(chunkIndex);
+            long offset = dataSupplier.getChunkOffset(dataSourceIndex, chunkIndex);
+            int size = dataSupplier.getChunkSize(dataSourceIndex, offset);
+
+            // First update with the chunk prefix.
+            setUnsignedInt32LittleEndian(size, chunkContentPrefix, 1);
+            mdSink.consume(chunkContentPrefix, 0, chunkContentPrefix.length);
+
+            // Then update with the chunk data.
+            try {
+                dataSupplier.dataSources[dataSourceIndex].feed(offset, size, mdSink);
+            } catch (IOException e) {
+                throw new IOException("Failed to read chunk #" + chunkIndex, e);
+            }
+
+            // Now finalize chunk for all algorithms.
+            for (int i = 0; i < chunkDigests.size(); i++) {
+                ChunkDigests chunkDigest = chunkDigests.get(i);
+                int actualDigestSize = messageDigests.get(i).digest(
+                        chunkDigest.concatOfDigestsOfChunks,
+                        chunkDigest.getOffset(chunkIndex),
+                        chunkDigest.digestOutputSize);
+                if (actualDigestSize != chunkDigest.digestOutputSize) {
+                    throw new RuntimeException(
+                            "Unexpected output size of " + chunkDigest.algorithm
+                                    + " digest: " + actualDigestSize);
+                }
+            }
+            return size;
         }
     }
 
     /**
-     * Thread-safe 1MB DataSource chunk supplier. When bounds are met in a
-     * supplied {@link DataSource}, the data from the next {@link DataSource}
-     * are NOT concatenated. Only the next call to get() will fetch from the
-     * next {@link DataSource} in the input {@link DataSource} array.
+     * Thread-safe supplier of the 1MB chunks of a sequence of {@link DataSource}s. When bounds are
+     * met in a supplied {@link DataSource}, the data from the next {@link DataSource} are NOT
+     * concatenated: the last chunk of each {@link DataSource} may be shorter than 1MB.
+     *
+     * <p>Chunks are identified by their index across all {@link DataSource}s and are handed out in
+     * batches of consecutive chunks, to reduce contention between workers on larger inputs.
      */
-    private static class ChunkSupplier implements Supplier<ChunkSupplier.Chunk> {
+    private static class ChunkSupplier {
+        /** Maximum number of chunks handed out to a worker at a time. */
+        private static final int MAX_BATCH_SIZE = 8;
+
+        /**
+         * Minimum number of batches into which the chunks are split, so that smaller inputs are
+         * still shared between all workers.
+         */
+        private static final int MIN_BATCH_COUNT = 64;
+
         private final DataSource[] dataSources;
-        private final int[] chunkCounts;
+        /** Index of the first chunk of each data source. */
+        private final int[] firstChunkIndices;
         private final int totalChunkCount;
+        private final int batchSize;
+        private final boolean[] skippedChunks;
         private final AtomicInteger nextIndex;
 
-        private ChunkSupplier(DataSource[] dataSources) {
+        /**
+         * Constructs a new supplier of the chunks of {@code dataSources}, except for the chunks
+         * whose indices are set in {@code skippedChunks}, which may be {@code null}.
+         */
+        private ChunkSupplier(DataSource[] dataSources, boolean[] skippedChunks) {
             this.dataSources = dataSources;
-            chunkCounts = new int[dataSources.length];
-            int totalChunkCount = 0;
+            this.skippedChunks = skippedChunks;
+            firstChunkIndices = new int[dataSources.length];
+            long totalChunkCount = 0;
             for (int i = 0; i < dataSources.length; i++) {
-                long chunkCount = getChunkCount(dataSources[i].size(),
+                firstChunkIndices[i] = (int) totalChunkCount;
+                totalChunkCount += getChunkCount(dataSources[i].size(),
                         CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
-                if (chunkCount > Integer.MAX_VALUE) {
+                if (totalChunkCount > Integer.MAX_VALUE) {
                     throw new RuntimeException(
                             String.format(
-                                    "Number of chunks in dataSource[%d] is greater than max int.",
+                                    "Number of chunks in dataSource[0..%d] is greater than max"
+                                            + " int.",
                                     i));
                 }
-                chunkCounts[i] = (int)chunkCount;
-                totalChunkCount = (int) (totalChunkCount + chunkCount);
             }
-            this.totalChunkCount = totalChunkCount;
+            this.totalChunkCount = (int) totalChunkCount;
+            batchSize = Math.max(1,
+                    Math.min(MAX_BATCH_SIZE, this.totalChunkCount / MIN_BATCH_COUNT));
             nextIndex = new AtomicInteger(0);
         }
 
         /**
-         * We map an integer index to the termination-adjusted dataSources 1MB chunks.
-         * Note that {@link Chunk}s could be less than 1MB, namely the last 1MB-aligned
-         * blocks in each input {@link DataSource} (unless the DataSource itself is
-         * 1MB-aligned).
+         * Claims the next batch of chunks and returns the index of its first chunk, or {@code -1}
+         * if there are no chunks left. The batch ends at {@link #getBatchEnd(int)}.
          */
-        @Override
-        public ChunkSupplier.Chunk get() {
-            int index = nextIndex.getAndIncrement();
+        private int claimBatch() {
+            int index = nextIndex.getAndAdd(batchSize);
             if (index < 0 || index >= totalChunkCount) {
-                return null;
+                // Prevent the index from wrapping around if workers keep claiming
+                nextIndex.set(totalChunkCount);
+                return -1;
             }
+            return index;
+        }
 
-            int dataSourceIndex = 0;
-            long dataSourceChunkOffset = index;
-            for (; dataSourceIndex < dataSources.length; dataSourceIndex++) {
-                if (dataSourceChunkOffset < chunkCounts[dataSourceIndex]) {
-                    break;
-                }
-                dataSourceChunkOffset -= chunkCounts[dataSourceIndex];
-            }
+        /** Returns the index after the last chunk of the batch starting at {@code batchStart}. */
+        private int getBatchEnd(int batchStart) {
+            return (int) Math.min((long) batchStart + batchSize, totalChunkCount);
+        }
 
-            long remainingSize = Math.min(
-                    dataSources[dataSourceIndex].size() -
-                            dataSourceChunkOffset * CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES,
-                    CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
+        private boolean isSkipped(int chunkIndex) {
+            return (skippedChunks != null) && skippedChunks[chunkIndex];
+        }
 
-            final int size = (int)remainingSize;
-            final ByteBuffer buffer = ByteBuffer.allocate(size);
-            try {
-                dataSources[dataSourceIndex].copyTo(
-                        dataSourceChunkOffset * CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES, size,
-                        buffer);
-            } catch (IOException e) {
-                throw new IllegalStateException("Failed to read chunk", e);
+        /** Returns the index of the data source containing the specified chunk. */
+        private int getDataSourceIndex(int chunkIndex) {
+            // Find the last data source starting at or before the chunk. Empty data sources start
+            // at the same index as the next data source and are thus skipped.
+            int low = 0;
+            int high = firstChunkIndices.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (firstChunkIndices[mid] <= chunkIndex) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
             }
-            buffer.rewind();
-
-            return new Chunk(index, buffer, size);
+            return low;
         }
 
-        static class Chunk {
-            private final int chunkIndex;
-            private final ByteBuffer data;
-            private final int size;
+        /** Returns the offset of the specified chunk within the specified data source. */
+        private long getChunkOffset(int dataSourceIndex, int chunkIndex) {
+            return (long) (chunkIndex - firstChunkIndices[dataSourceIndex])
+                    * CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES;
+        }
 
-            private Chunk(int chunkIndex, ByteBuffer data, int size) {
-                this.chunkIndex = chunkIndex;
-                this.data = data;
-                this.size = size;
-            }
+        /** Returns the size of the chunk at the specified offset of the specified data source. */
+        private int getChunkSize(int dataSourceIndex, long chunkOffset) {
+            return (int) Math.min(dataSources[dataSourceIndex].size() - chunkOffset,
+                    CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
         }
     }
 
     @SuppressWarnings("ByteBufferBackingArray")
-    private static void computeApkVerityDigest(DataSource beforeCentralDir, DataSource centralDir,
-            DataSource eocd, Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
+    private static void computeApkVerityDigest(RunnablesExecutor executor,
+            DataSource beforeCentralDir, DataSource centralDir, DataSource eocd,
+            Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
             throws IOException, NoSuchAlgorithmException {
         ByteBuffer encoded = createVerityDigestBuffer(true);
         // Use 0s as salt for now.  This also needs to be consistent in the fsverify header for
         // kernel to use.
-        try (VerityTreeBuilder builder = new VerityTreeBuilder(new byte[8])) {
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(new byte[8], executor)) {
             byte[] rootHash = builder.generateVerityTreeRootHash(beforeCentralDir, centralDir,
                     eocd);
             encoded.put(rootHash);
@@ -618,23 +798,40 @@ public class ApkSigningBlockUtils {
     public static class VerityTreeAndDigest {
         public final ContentDigestAlgorithm contentDigestAlgorithm;
         public final byte[] rootHash;
+        /** Verity tree, or {@code null} if the tree is not stored on the heap. */
         public final byte[] tree;
+        /** Verity tree, regardless of where it is stored. */
+        public final DataSource treeDataSource;
 
         VerityTreeAndDigest(ContentDigestAlgorithm contentDigestAlgorithm, byte[] rootHash,
                 byte[] tree) {
             this.contentDigestAlgorithm = contentDigestAlgorithm;
             this.rootHash = rootHash;
             this.tree = tree;
+            this.treeDataSource = DataSources.asDataSource(ByteBuffer.wrap(tree));
+        }
+
+        VerityTreeAndDigest(ContentDigestAlgorithm contentDigestAlgorithm, byte[] rootHash,
+                DataSource treeDataSource) {
+            this.contentDigestAlgorithm = contentDigestAlgorithm;
+            this.rootHash = rootHash;
+            this.tree = null;
+            this.treeDataSource = treeDataSource;
         }
     }
 
-    @SuppressWarnings("ByteBufferBackingArray")
     public static VerityTreeAndDigest computeChunkVerityTreeAndDigest(DataSource dataSource)
             throws IOException, NoSuchAlgorithmException {
+        return computeChunkVerityTreeAndDigest(RunnablesExecutor.MULTI_THREADED, dataSource);
+    }
+
+    @SuppressWarnings("ByteBufferBackingArray")
+    public static VerityTreeAndDigest computeChunkVerityTreeAndDigest(RunnablesExecutor executor,
+            DataSource dataSource) throws IOException, NoSuchAlgorithmException {
         ByteBuffer encoded = createVerityDigestBuffer(false);
         // Use 0s as salt for now.  This also needs to be consistent in the fsverify header for
         // kernel to use.
-        try (VerityTreeBuilder builder = new VerityTreeBuilder(null)) {
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(null, executor)) {
             ByteBuffer tree = builder.generateVerityTree(dataSource);
             byte[] rootHash = builder.getRootHashFromTree(tree);
             encoded.put(rootHash);
@@ -642,6 +839,25 @@ public class ApkSigningBlockUtils {
         }
     }
 
+    /**
+     * Same as {@link #computeChunkVerityTreeAndDigest(RunnablesExecutor, DataSource)}, but stores
+     * the verity tree in the provided file instead of on the heap. The returned
+     * {@link VerityTreeAndDigest#tree} is {@code null}; the tree is available via
+     * {@link VerityTreeAndDigest#treeDataSource}, which is backed by the file.
+     */
+    @SuppressWarnings("ByteBufferBackingArray")
+    public static VerityTreeAndDigest computeChunkVerityTreeAndDigest(RunnablesExecutor executor,
+            DataSource dataSource, FileChannel treeFile)
+            throws IOException, NoSuchAlgorithmException {
+        ByteBuffer encoded = createVerityDigestBuffer(false);
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(null, executor)) {
+            DataSource tree = builder.generateVerityTree(dataSource, treeFile);
+            byte[] rootHash = builder.getRootHashFromTree(tree);
+            encoded.put(rootHash);
+            return new VerityTreeAndDigest(VERITY_CHUNKED_SHA256, encoded.array(), tree);
+        }
+    }
+
     private static long getChunkCount(long inputSize, long chunkSize) {
         return (inputSize + chunkSize - 1) / chunkSize;
     }
@@ -957,6 +1173,49 @@ public class ApkSigningBlockUtils {
                     DataSource eocd,
                     List<SignerConfig> signerConfigs)
                             throws IOException, NoSuchAlgorithmException, SignatureException {
+        return computeContentDigests(
+                executor, null, beforeCentralDir, centralDir, eocd, signerConfigs);
+    }
+
+    /**
+     * Same as {@link #computeContentDigests(RunnablesExecutor, DataSource, DataSource, DataSource,
+     * List)}, but reuses and records chunk digests of {@code beforeCentralDir} in
+     * {@code reusableChunkDigests}, which may be {@code null}.
+     */
+    public static Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>>
+            computeContentDigests(
+                    RunnablesExecutor executor,
+                    ReusableChunkDigests reusableChunkDigests,
+                    DataSource beforeCentralDir,
+                    DataSource centralDir,
+                    DataSource eocd,
+                    List<SignerConfig> signerConfigs)
+                            throws IOException, NoSuchAlgorithmException, SignatureException {
+        return computeContentDigests(
+                executor,
+                reusableChunkDigests,
+                beforeCentralDir,
+                centralDir,
+                eocd,
+                signerConfigs,
+                PhaseTracer.NONE);
+    }
+
+    /**
+     * Same as {@link #computeContentDigests(RunnablesExecutor, ReusableChunkDigests, DataSource,
+     * DataSource, DataSource, List)}, but reports the computation of the chunked digests and of
+     * the verity tree to {@code tracer}.
+     */
+    public static Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>>
+            computeContentDigests(
+                    RunnablesExecutor executor,
+                    ReusableChunkDigests reusableChunkDigests,
+                    DataSource beforeCentralDir,
+                    DataSource centralDir,
+                    DataSource eocd,
+                    List<SignerConfig> signerConfigs,
+                    PhaseTracer tracer)
+                            throws IOException, NoSuchAlgorithmException, SignatureException {
         if (signerConfigs.isEmpty()) {
             throw new IllegalArgumentException(
                     "No signer configs provided. At least one is required");
@@ -976,10 +1235,12 @@ public class ApkSigningBlockUtils {
             contentDigests =
                     computeContentDigests(
                             executor,
+                            reusableChunkDigests,
                             contentDigestAlgorithms,
                             beforeCentralDir,
                             centralDir,
-                            eocd);
+                            eocd,
+                            tracer);
         } catch (IOException e) {
             throw new IOException("Failed to read APK being signed", e);
         } catch (DigestException e) {
@@ -990,6 +1251,36 @@ public class ApkSigningBlockUtils {
         return Pair.of(signerConfigs, contentDigests);
     }
 
+    /**
+     * Returns the subset of the provided {@code contentDigests} which is used by the provided
+     * signers. This is used when the content digests of several signature schemes are computed in
+     * a single pass over the APK.
+     *
+     * @throws IllegalArgumentException if {@code contentDigests} does not contain the digest of a
+     *         content digest algorithm used by the signers
+     */
+    public static Map<ContentDigestAlgorithm, byte[]> getContentDigestsOfSigners(
+            Map<ContentDigestAlgorithm, byte[]> contentDigests, List<SignerConfig> signerConfigs) {
+        if (signerConfigs.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "No signer configs provided. At least one is required");
+        }
+        Map<ContentDigestAlgorithm, byte[]> result = new HashMap<>(1);
+        for (SignerConfig signerConfig : signerConfigs) {
+            for (SignatureAlgorithm signatureAlgorithm : signerConfig.signatureAlgorithms) {
+                ContentDigestAlgorithm contentDigestAlgorithm =
+                        signatureAlgorithm.getContentDigestAlgorithm();
+                byte[] contentDigest = contentDigests.get(contentDigestAlgorithm);
+                if (contentDigest == null) {
+                    throw new IllegalArgumentException(
+                            contentDigestAlgorithm + " content digest not provided");
+                }
+                result.put(contentDigestAlgorithm, contentDigest);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the subset of signatures which are expected to be verified by at least one Android
      * platform version in the {@code [minSdkVersion, maxSdkVersion]} range. The returned result is
@@ -1154,10 +1445,8 @@ public class ApkSigningBlockUtils {
         // If data is not null, data will be embedded as is in the result -- an attached pcsk7
         signedData.encapContentInfo.content = data;
         signedData.signerInfos = Collections.singletonList(signerInfo);
-        ContentInfo contentInfo = new ContentInfo();
-        contentInfo.contentType = Pkcs7Constants.OID_SIGNED_DATA;
-        contentInfo.content = new Asn1OpaqueObject(Asn1SpecificDerEncoder.SignedDataEncoder(signedData));
-        return Asn1SpecificDerEncoder.ContentInfoEncoder(contentInfo);
+        return Asn1SpecificDerEncoder.ContentInfoEncoder(
+                Pkcs7Constants.OID_SIGNED_DATA, signedData);
     }
 
     /**
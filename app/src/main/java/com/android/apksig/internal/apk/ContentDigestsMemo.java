@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.apk;
+
+import com.android.apksig.internal.util.PhaseTracer;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content digests of an APK computed while verifying the APK, so that the APK's contents are
+ * digested at most once per content digest algorithm, even if the APK is signed using several
+ * signature schemes (e.g., APK Signature Scheme v2 and v3).
+ *
+ * <p>Digests are keyed by content digest algorithm and by the digested sections of the APK: the
+ * size of the contents before the APK Signing Block, the size of the ZIP Central Directory and the
+ * ZIP End of Central Directory record, which contains the offset of the Central Directory. If
+ * digests of different sections are requested, previously memoized digests are discarded.
+ *
+ * <p>Instances are meant to be used for the verification of a single APK.
+ */
+public class ContentDigestsMemo {
+    private final PhaseTracer mTracer;
+    private long mBeforeApkSigningBlockSize = -1;
+    private long mCentralDirSize = -1;
+    private ByteBuffer mEocd;
+    private final Map<ContentDigestAlgorithm, byte[]> mDigests =
+            new EnumMap<>(ContentDigestAlgorithm.class);
+
+    public ContentDigestsMemo() {
+        this(PhaseTracer.NONE);
+    }
+
+    /** Constructs a memo which reports the computation of digests to the provided tracer. */
+    public ContentDigestsMemo(PhaseTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Returns the digests of the provided sections of the APK, computed using the requested
+     * algorithms. Digests which have not been computed for these sections before are computed as
+     * specified by {@link ApkSigningBlockUtils#computeContentDigests(RunnablesExecutor, Set,
+     * DataSource, DataSource, DataSource)}.
+     */
+    public synchronized Map<ContentDigestAlgorithm, byte[]> computeContentDigests(
+            RunnablesExecutor executor,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource beforeApkSigningBlock,
+            DataSource centralDir,
+            DataSource eocd) throws IOException, NoSuchAlgorithmException, DigestException {
+        if (eocd.size() > Integer.MAX_VALUE) {
+            throw new IOException("ZIP End of Central Directory too large: " + eocd.size());
+        }
+        ByteBuffer eocdContents = eocd.getByteBuffer(0, (int) eocd.size());
+        if ((beforeApkSigningBlock.size() != mBeforeApkSigningBlockSize)
+                || (centralDir.size() != mCentralDirSize)
+                || (!eocdContents.equals(mEocd))) {
+            mDigests.clear();
+            mBeforeApkSigningBlockSize = beforeApkSigningBlock.size();
+            mCentralDirSize = centralDir.size();
+            mEocd = ByteBuffer.allocate(eocdContents.remaining());
+            mEocd.put(eocdContents.slice());
+            mEocd.flip();
+        }
+
+        Set<ContentDigestAlgorithm> missingDigestAlgorithms =
+                EnumSet.noneOf(ContentDigestAlgorithm.class);
+        for (ContentDigestAlgorithm digestAlgorithm : digestAlgorithms) {
+            if (!mDigests.containsKey(digestAlgorithm)) {
+                missingDigestAlgorithms.add(digestAlgorithm);
+            }
+        }
+        if (!missingDigestAlgorithms.isEmpty()) {
+            mDigests.putAll(
+                    ApkSigningBlockUtils.computeContentDigests(
+                            executor,
+                            null,
+                            missingDigestAlgorithms,
+                            beforeApkSigningBlock,
+                            centralDir,
+                            eocd,
+                            mTracer));
+        }
+
+        Map<ContentDigestAlgorithm, byte[]> result = new EnumMap<>(ContentDigestAlgorithm.class);
+        for (ContentDigestAlgorithm digestAlgorithm : digestAlgorithms) {
+            byte[] digest = mDigests.get(digestAlgorithm);
+            if (digest != null) {
+                result.put(digestAlgorithm, digest.clone());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.apk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Digests of the 1 MB chunks of the ZIP entries section of an APK, as used for the content digests
+ * of APK Signature Scheme v2 and v3, together with which of these digests are known to match the
+ * section's current data.
+ *
+ * <p>When provided to {@link ApkSigningBlockUtils#computeContentDigests}, digests known to match
+ * are used as is, and the digests of all other chunks of the section are computed and recorded
+ * here. After that, all digests of the computed algorithms match the section.
+ *
+ * <p>Instances are not thread-safe.
+ */
+public class ReusableChunkDigests {
+    private final long mSectionSize;
+    private final int mChunkCount;
+    private final Map<ContentDigestAlgorithm, byte[]> mDigests = new HashMap<>();
+    private final Map<ContentDigestAlgorithm, boolean[]> mMatching = new HashMap<>();
+
+    /**
+     * Constructs a new instance for a ZIP entries section of the provided size. Initially, no
+     * digests are known.
+     */
+    public ReusableChunkDigests(long sectionSize) {
+        long chunkCount = (sectionSize + ApkSigningBlockUtils.CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES
+                - 1) / ApkSigningBlockUtils.CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Section too long: " + chunkCount + " chunks");
+        }
+        mSectionSize = sectionSize;
+        mChunkCount = (int) chunkCount;
+    }
+
+    /** Returns the size (in bytes) of the ZIP entries section. */
+    public long getSectionSize() {
+        return mSectionSize;
+    }
+
+    /** Returns the number of chunks in the ZIP entries section. */
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * Returns the offset (in bytes) of the end of the specified chunk within the ZIP entries
+     * section.
+     */
+    public long getChunkEndOffset(int chunkIndex) {
+        return Math.min(mSectionSize,
+                (chunkIndex + 1L) * ApkSigningBlockUtils.CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
+    }
+
+    /**
+     * Returns {@code true} if the digest of the specified chunk, computed using the specified
+     * algorithm, is known to match the chunk.
+     */
+    public boolean isMatching(ContentDigestAlgorithm algorithm, int chunkIndex) {
+        boolean[] matching = mMatching.get(algorithm);
+        return (matching != null) && matching[chunkIndex];
+    }
+
+    /**
+     * Copies the digest of the specified chunk into {@code output}. The digest must be known to
+     * match the chunk.
+     */
+    public void getDigest(
+            ContentDigestAlgorithm algorithm, int chunkIndex, byte[] output, int outputOffset) {
+        if (!isMatching(algorithm, chunkIndex)) {
+            throw new IllegalStateException(
+                    "Digest of chunk #" + chunkIndex + " not available for " + algorithm);
+        }
+        int digestSize = algorithm.getChunkDigestOutputSizeBytes();
+        System.arraycopy(
+                mDigests.get(algorithm), chunkIndex * digestSize, output, outputOffset, digestSize);
+    }
+
+    /** Records the digest of the specified chunk, read from {@code digest}. */
+    public void putDigest(
+            ContentDigestAlgorithm algorithm, int chunkIndex, byte[] digest, int digestOffset) {
+        int digestSize = algorithm.getChunkDigestOutputSizeBytes();
+        byte[] digests = mDigests.get(algorithm);
+        if (digests == null) {
+            digests = new byte[mChunkCount * digestSize];
+            mDigests.put(algorithm, digests);
+            mMatching.put(algorithm, new boolean[mChunkCount]);
+        }
+        System.arraycopy(digest, digestOffset, digests, chunkIndex * digestSize, digestSize);
+        mMatching.get(algorithm)[chunkIndex] = true;
+    }
+
+    /**
+     * Records the digests, of all algorithms, of the specified chunk of {@code other} as the
+     * digests of the chunk with the same index of this section. The caller must have established
+     * that the two chunks contain the same data.
+     */
+    public void reuseDigests(ReusableChunkDigests other, int chunkIndex) {
+        for (Map.Entry<ContentDigestAlgorithm, byte[]> entry : other.mDigests.entrySet()) {
+            ContentDigestAlgorithm algorithm = entry.getKey();
+            if (other.isMatching(algorithm, chunkIndex)) {
+                putDigest(algorithm, chunkIndex, entry.getValue(),
+                        chunkIndex * algorithm.getChunkDigestOutputSizeBytes());
+            }
+        }
+    }
+}
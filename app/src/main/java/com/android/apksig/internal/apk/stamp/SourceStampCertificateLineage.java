@@ -23,7 +23,7 @@ import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.internal.apk.ApkSigningBlockUtilsLite;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
-import java.io.ByteArrayInputStream;
+import com.android.apksig.internal.util.X509CertificateUtils;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -127,8 +127,7 @@ public class SourceStampCertificateLineage {
                     throw new SecurityException("Signing algorithm ID mismatch for certificate #"
                             + nodeBytes + " when verifying SourceStampCertificateLineage object");
                 }
-                lastCert = (X509Certificate) certFactory.generateCertificate(
-                    new ByteArrayInputStream(encodedCert));
+                lastCert = X509CertificateUtils.generateCertificate(encodedCert, certFactory);
                 lastCert = new GuaranteedEncodedFormX509Certificate(lastCert, encodedCert);
                 if (certHistorySet.contains(lastCert)) {
                     throw new SecurityException("Encountered duplicate entries in "
@@ -43,6 +43,7 @@ import com.android.apksig.internal.zip.LocalFileRecord;
 import com.android.apksig.internal.zip.ZipUtils;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.IOException;
@@ -66,7 +67,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
+import java.util.zip.Inflater;
 
 import pers.roger.placeholder.util.Base64;
 
@@ -107,6 +110,32 @@ public abstract class V1SchemeVerifier {
             Set<Integer> foundApkSigSchemeIds,
             int minSdkVersion,
             int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        return verify(
+                RunnablesExecutor.SINGLE_THREADED,
+                apk,
+                apkSections,
+                supportedApkSigSchemeNames,
+                foundApkSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion);
+    }
+
+    /**
+     * Verifies the provided APK's JAR signatures and returns the result of verification. See
+     * {@link #verify(DataSource, ApkUtils.ZipSections, Map, Set, int, int)}.
+     *
+     * <p>The uncompressed data of JAR entries is digested using the provided {@code executor}. The
+     * entries are split into contiguous ranges, in the order of their Local File Header records,
+     * and each range is inflated and digested by a single worker.
+     */
+    public static Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundApkSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
         if (minSdkVersion > maxSdkVersion) {
             throw new IllegalArgumentException(
                     "minSdkVersion (" + minSdkVersion + ") > maxSdkVersion (" + maxSdkVersion
@@ -124,6 +153,7 @@ public abstract class V1SchemeVerifier {
 
         // Verify JAR signature(s).
         Signers.verify(
+                executor,
                 apk,
                 apkSections.getZipCentralDirectoryOffset(),
                 cdRecords,
@@ -209,6 +239,7 @@ public abstract class V1SchemeVerifier {
          * the {@link Result#verified} is {@code true}.
          */
         private static void verify(
+                RunnablesExecutor executor,
                 DataSource apk,
                 long cdStartOffset,
                 List<CentralDirectoryRecord> cdRecords,
@@ -361,6 +392,7 @@ public abstract class V1SchemeVerifier {
             // we've identified so far.
             Set<Signer> apkSigners =
                     verifyJarEntriesAgainstManifestAndSigners(
+                            executor,
                             apk,
                             cdStartOffset,
                             cdRecords,
@@ -1256,6 +1288,7 @@ public abstract class V1SchemeVerifier {
     }
 
     private static Set<Signer> verifyJarEntriesAgainstManifestAndSigners(
+            RunnablesExecutor executor,
             DataSource apk,
             long cdOffsetInApk,
             Collection<CentralDirectoryRecord> cdRecords,
@@ -1272,6 +1305,8 @@ public abstract class V1SchemeVerifier {
                 CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
         List<Signer> firstSignedEntrySigners = null;
         String firstSignedEntryName = null;
+        List<JarEntryDigestTask> digestTasks =
+                new ArrayList<>(cdRecordsSortedByLocalFileHeaderOffset.size());
         for (CentralDirectoryRecord cdRecord : cdRecordsSortedByLocalFileHeaderOffset) {
             String entryName = cdRecord.getName();
             if (!isJarEntryDigestNeededInManifest(entryName)) {
@@ -1316,36 +1351,40 @@ public abstract class V1SchemeVerifier {
                 continue;
             }
 
-            MessageDigest[] mds = new MessageDigest[expectedDigests.size()];
-            for (int i = 0; i < expectedDigests.size(); i++) {
-                mds[i] = getMessageDigest(expectedDigests.get(i).jcaDigestAlgorithm);
-            }
-
-            try {
-                LocalFileRecord.outputUncompressedData(
-                        apk,
-                        cdRecord,
-                        cdOffsetInApk,
-                        DataSinks.asDataSink(mds));
-            } catch (ZipFormatException e) {
-                throw new ApkFormatException("Malformed ZIP entry: " + entryName, e);
-            } catch (IOException e) {
-                throw new IOException("Failed to read entry: " + entryName, e);
-            }
+            digestTasks.add(
+                    new JarEntryDigestTask(cdRecord, expectedDigests, result.mErrors.size()));
+        }
 
-            for (int i = 0; i < expectedDigests.size(); i++) {
-                NamedDigest expectedDigest = expectedDigests.get(i);
-                byte[] actualDigest = mds[i].digest();
+        // Inflate and digest the entries, possibly in parallel, then compare the digests. Digest
+        // mismatch errors are inserted where they would have been reported had the entries been
+        // digested one by one in the loop above, so that errors are reported in the order of the
+        // entries. Tasks are visited from last to first to keep the recorded positions valid.
+        digestJarEntries(executor, apk, cdOffsetInApk, digestTasks);
+        for (int taskIndex = digestTasks.size() - 1; taskIndex >= 0; taskIndex--) {
+            JarEntryDigestTask digestTask = digestTasks.get(taskIndex);
+            List<IssueWithParams> digestErrors = null;
+            for (int i = 0; i < digestTask.expectedDigests.size(); i++) {
+                NamedDigest expectedDigest = digestTask.expectedDigests.get(i);
+                byte[] actualDigest = digestTask.actualDigests[i];
                 if (!Arrays.equals(expectedDigest.digest, actualDigest)) {
-                    result.addError(
-                            Issue.JAR_SIG_ZIP_ENTRY_DIGEST_DID_NOT_VERIFY,
-                            entryName,
-                            expectedDigest.jcaDigestAlgorithm,
-                            V1SchemeConstants.MANIFEST_ENTRY_NAME,
-                            Base64.getEncoder().encodeToString(actualDigest),
-                            Base64.getEncoder().encodeToString(expectedDigest.digest));
+                    if (digestErrors == null) {
+                        digestErrors = new ArrayList<>(1);
+                    }
+                    digestErrors.add(
+                            new IssueWithParams(
+                                    Issue.JAR_SIG_ZIP_ENTRY_DIGEST_DID_NOT_VERIFY,
+                                    new Object[] {
+                                            digestTask.cdRecord.getName(),
+                                            expectedDigest.jcaDigestAlgorithm,
+                                            V1SchemeConstants.MANIFEST_ENTRY_NAME,
+                                            Base64.getEncoder().encodeToString(actualDigest),
+                                            Base64.getEncoder().encodeToString(
+                                                    expectedDigest.digest)}));
                 }
             }
+            if (digestErrors != null) {
+                result.mErrors.addAll(digestTask.errorIndex, digestErrors);
+            }
         }
 
         if (firstSignedEntrySigners == null) {
@@ -1356,6 +1395,202 @@ public abstract class V1SchemeVerifier {
         }
     }
 
+    /**
+     * Computes the digests of uncompressed data of JAR entries described by the provided tasks and
+     * stores them in {@link JarEntryDigestTask#actualDigests}.
+     *
+     * <p>The tasks are split into contiguous ranges which are claimed by the runnables created for
+     * the {@code executor}. Each runnable uses its own {@link Inflater} and
+     * {@link MessageDigest} instances. If reading any of the entries fails, the failure of the
+     * first such entry (in the order of the tasks) is rethrown. To make that deterministic, a
+     * failure only stops the digesting of entries which come after the failed entry: ranges which
+     * start before it are still digested, so that an earlier failing entry is always reached.
+     */
+    private static void digestJarEntries(
+            RunnablesExecutor executor,
+            DataSource apk,
+            long cdOffsetInApk,
+            List<JarEntryDigestTask> digestTasks)
+            throws ApkFormatException, IOException, NoSuchAlgorithmException {
+        if (digestTasks.isEmpty()) {
+            return;
+        }
+        int rangeSize =
+                Math.max(
+                        MIN_JAR_ENTRIES_PER_DIGEST_RANGE,
+                        digestTasks.size() / (DIGEST_RANGES_PER_PROCESSOR
+                                * Runtime.getRuntime().availableProcessors()));
+        JarEntryDigestRanges ranges = new JarEntryDigestRanges(digestTasks, rangeSize);
+        executor.execute(() -> new JarEntryDigester(apk, cdOffsetInApk, ranges));
+
+        for (JarEntryDigestTask digestTask : digestTasks) {
+            Exception failure = digestTask.failure;
+            if (failure == null) {
+                continue;
+            }
+            String entryName = digestTask.cdRecord.getName();
+            if (failure instanceof ZipFormatException) {
+                throw new ApkFormatException("Malformed ZIP entry: " + entryName, failure);
+            } else if (failure instanceof IOException) {
+                throw new IOException("Failed to read entry: " + entryName, failure);
+            } else if (failure instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) failure;
+            } else {
+                throw (RuntimeException) failure;
+            }
+        }
+    }
+
+    /**
+     * Minimum number of JAR entries in a range of entries digested by a single worker.
+     */
+    private static final int MIN_JAR_ENTRIES_PER_DIGEST_RANGE = 16;
+
+    /**
+     * Number of ranges of JAR entries to split the entries into per available processor. Using
+     * more than one range per processor evens out the load when entries differ in size.
+     */
+    private static final int DIGEST_RANGES_PER_PROCESSOR = 4;
+
+    /**
+     * JAR entry whose uncompressed data is to be digested and the results of doing so.
+     */
+    private static class JarEntryDigestTask {
+        private final CentralDirectoryRecord cdRecord;
+        private final List<NamedDigest> expectedDigests;
+        private final byte[][] actualDigests;
+        /** Position in the list of errors at which digest mismatch errors are to be reported. */
+        private final int errorIndex;
+        private Exception failure;
+
+        private JarEntryDigestTask(
+                CentralDirectoryRecord cdRecord,
+                List<NamedDigest> expectedDigests,
+                int errorIndex) {
+            this.cdRecord = cdRecord;
+            this.expectedDigests = expectedDigests;
+            this.errorIndex = errorIndex;
+            actualDigests = new byte[expectedDigests.size()][];
+        }
+    }
+
+    /**
+     * Thread-safe supplier of contiguous ranges of {@link JarEntryDigestTask}s.
+     */
+    private static class JarEntryDigestRanges {
+        private final List<JarEntryDigestTask> tasks;
+        private final int rangeSize;
+        private final AtomicInteger nextRangeStart = new AtomicInteger(0);
+        private final AtomicInteger firstFailedIndex = new AtomicInteger(Integer.MAX_VALUE);
+
+        private JarEntryDigestRanges(List<JarEntryDigestTask> tasks, int rangeSize) {
+            this.tasks = tasks;
+            this.rangeSize = rangeSize;
+        }
+
+        /**
+         * Returns the start index of the next unclaimed range, or {@code -1} if there are no more
+         * ranges or if digesting of an entry preceding the next range has failed.
+         */
+        private int claimRange() {
+            int start = nextRangeStart.getAndAdd(rangeSize);
+            return ((start >= 0) && (start < tasks.size()) && (start < firstFailedIndex.get()))
+                    ? start : -1;
+        }
+
+        /**
+         * Returns {@code true} if the task at the provided index needs to be digested, that is, if
+         * no task preceding it has failed.
+         */
+        private boolean isNeeded(int index) {
+            return index < firstFailedIndex.get();
+        }
+
+        /**
+         * Records that digesting of the task at the provided index has failed.
+         */
+        private void setFailed(int index) {
+            int current = firstFailedIndex.get();
+            while ((index < current) && (!firstFailedIndex.compareAndSet(current, index))) {
+                current = firstFailedIndex.get();
+            }
+        }
+    }
+
+    /**
+     * A per-thread JAR entry digest worker.
+     */
+    private static class JarEntryDigester implements Runnable {
+        private final DataSource apk;
+        private final long cdOffsetInApk;
+        private final JarEntryDigestRanges ranges;
+        private final Map<String, MessageDigest> messageDigests = new HashMap<>(2);
+
+        private JarEntryDigester(
+                DataSource apk, long cdOffsetInApk, JarEntryDigestRanges ranges) {
+            this.apk = apk;
+            this.cdOffsetInApk = cdOffsetInApk;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public void run() {
+            Inflater inflater = new Inflater(true);
+            try {
+                for (int start = ranges.claimRange(); start != -1; start = ranges.claimRange()) {
+                    int end = Math.min(start + ranges.rangeSize, ranges.tasks.size());
+                    for (int i = start; (i < end) && (ranges.isNeeded(i)); i++) {
+                        JarEntryDigestTask task = ranges.tasks.get(i);
+                        try {
+                            digest(task, inflater);
+                        } catch (IOException | ZipFormatException | NoSuchAlgorithmException
+                                | RuntimeException e) {
+                            task.failure = e;
+                            ranges.setFailed(i);
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private void digest(JarEntryDigestTask task, Inflater inflater)
+                throws IOException, ZipFormatException, NoSuchAlgorithmException {
+            MessageDigest[] mds = new MessageDigest[task.expectedDigests.size()];
+            for (int i = 0; i < mds.length; i++) {
+                String jcaDigestAlgorithm = task.expectedDigests.get(i).jcaDigestAlgorithm;
+                MessageDigest md = messageDigests.get(jcaDigestAlgorithm);
+                if (md == null) {
+                    md = getMessageDigest(jcaDigestAlgorithm);
+                    messageDigests.put(jcaDigestAlgorithm, md);
+                }
+                // The same algorithm could be listed more than once for an entry. Each listing
+                // needs its own instance because all instances are fed the same data.
+                for (int j = 0; j < i; j++) {
+                    if (mds[j] == md) {
+                        md = getMessageDigest(jcaDigestAlgorithm);
+                        break;
+                    }
+                }
+                md.reset();
+                mds[i] = md;
+            }
+
+            LocalFileRecord.outputUncompressedData(
+                    apk,
+                    task.cdRecord,
+                    cdOffsetInApk,
+                    DataSinks.asDataSink(mds),
+                    inflater);
+
+            for (int i = 0; i < mds.length; i++) {
+                task.actualDigests[i] = mds[i].digest();
+            }
+        }
+    }
+
     private static List<String> getSignerNames(List<Signer> signers) {
         if (signers.isEmpty()) {
             return Collections.emptyList();
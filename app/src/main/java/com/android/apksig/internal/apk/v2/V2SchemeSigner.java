@@ -24,6 +24,7 @@ import static com.android.apksig.internal.apk.ApkSigningBlockUtils.encodePublicK
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils.SignerConfig;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ReusableChunkDigests;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.util.Pair;
 import com.android.apksig.util.DataSource;
@@ -165,9 +166,25 @@ public abstract class V2SchemeSigner {
                     List<byte[]> preservedV2SignerBlocks)
                     throws IOException, InvalidKeyException, NoSuchAlgorithmException,
                             SignatureException {
+        return generateApkSignatureSchemeV2Block(executor, null, beforeCentralDir, centralDir,
+                eocd, signerConfigs, v3SigningEnabled, preservedV2SignerBlocks);
+    }
+
+    public static ApkSigningBlockUtils.SigningSchemeBlockAndDigests
+            generateApkSignatureSchemeV2Block(
+                    RunnablesExecutor executor,
+                    ReusableChunkDigests reusableChunkDigests,
+                    DataSource beforeCentralDir,
+                    DataSource centralDir,
+                    DataSource eocd,
+                    List<SignerConfig> signerConfigs,
+                    boolean v3SigningEnabled,
+                    List<byte[]> preservedV2SignerBlocks)
+                    throws IOException, InvalidKeyException, NoSuchAlgorithmException,
+                            SignatureException {
         Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>> digestInfo =
-                ApkSigningBlockUtils.computeContentDigests(
-                        executor, beforeCentralDir, centralDir, eocd, signerConfigs);
+                ApkSigningBlockUtils.computeContentDigests(executor, reusableChunkDigests,
+                        beforeCentralDir, centralDir, eocd, signerConfigs);
         return new ApkSigningBlockUtils.SigningSchemeBlockAndDigests(
                 generateApkSignatureSchemeV2Block(
                         digestInfo.getFirst(), digestInfo.getSecond(), v3SigningEnabled,
@@ -175,6 +192,27 @@ public abstract class V2SchemeSigner {
                 digestInfo.getSecond());
     }
 
+    /**
+     * Generates the APK Signature Scheme v2 block using the provided {@code contentDigests} of
+     * the APK, which may also contain digests used by other signature schemes, instead of
+     * computing them.
+     */
+    public static ApkSigningBlockUtils.SigningSchemeBlockAndDigests
+            generateApkSignatureSchemeV2Block(
+                    Map<ContentDigestAlgorithm, byte[]> contentDigests,
+                    List<SignerConfig> signerConfigs,
+                    boolean v3SigningEnabled,
+                    List<byte[]> preservedV2SignerBlocks)
+                    throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Map<ContentDigestAlgorithm, byte[]> v2ContentDigests =
+                ApkSigningBlockUtils.getContentDigestsOfSigners(contentDigests, signerConfigs);
+        return new ApkSigningBlockUtils.SigningSchemeBlockAndDigests(
+                generateApkSignatureSchemeV2Block(
+                        signerConfigs, v2ContentDigests, v3SigningEnabled,
+                        preservedV2SignerBlocks),
+                v2ContentDigests);
+    }
+
     private static Pair<byte[], Integer> generateApkSignatureSchemeV2Block(
             List<SignerConfig> signerConfigs,
             Map<ContentDigestAlgorithm, byte[]> contentDigests,
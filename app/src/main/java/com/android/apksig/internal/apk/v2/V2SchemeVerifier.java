@@ -21,6 +21,7 @@ import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ContentDigestsMemo;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.SignatureInfo;
 import com.android.apksig.internal.util.ByteBufferUtils;
@@ -94,6 +95,26 @@ public abstract class V2SchemeVerifier {
             int maxSdkVersion)
             throws IOException, ApkFormatException, NoSuchAlgorithmException,
             ApkSigningBlockUtils.SignatureNotFoundException {
+        return verify(executor, null, apk, zipSections, supportedApkSigSchemeNames,
+                foundSigSchemeIds, minSdkVersion, maxSdkVersion);
+    }
+
+    /**
+     * Same as {@link #verify(RunnablesExecutor, DataSource, ApkUtils.ZipSections, Map, Set, int,
+     * int)}, but obtains the digests of the APK's contents from the provided
+     * {@code contentDigestsMemo}, which may be {@code null}.
+     */
+    public static ApkSigningBlockUtils.Result verify(
+            RunnablesExecutor executor,
+            ContentDigestsMemo contentDigestsMemo,
+            DataSource apk,
+            ApkUtils.ZipSections zipSections,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException,
+            ApkSigningBlockUtils.SignatureNotFoundException {
         ApkSigningBlockUtils.Result result = new ApkSigningBlockUtils.Result(
                 ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
         SignatureInfo signatureInfo =
@@ -108,6 +129,7 @@ public abstract class V2SchemeVerifier {
         ByteBuffer eocd = signatureInfo.eocd;
 
         verify(executor,
+                contentDigestsMemo,
                 beforeApkSigningBlock,
                 signatureInfo.signatureBlock,
                 centralDir,
@@ -131,6 +153,7 @@ public abstract class V2SchemeVerifier {
      */
     private static void verify(
             RunnablesExecutor executor,
+            ContentDigestsMemo contentDigestsMemo,
             DataSource beforeApkSigningBlock,
             ByteBuffer apkSignatureSchemeV2Block,
             DataSource centralDir,
@@ -153,8 +176,8 @@ public abstract class V2SchemeVerifier {
         if (result.containsErrors()) {
             return;
         }
-        ApkSigningBlockUtils.verifyIntegrity(
-                executor, beforeApkSigningBlock, centralDir, eocd, contentDigestsToVerify, result);
+        ApkSigningBlockUtils.verifyIntegrity(executor, contentDigestsMemo, beforeApkSigningBlock,
+                centralDir, eocd, contentDigestsToVerify, result);
         if (!result.containsErrors()) {
             result.verified = true;
         }
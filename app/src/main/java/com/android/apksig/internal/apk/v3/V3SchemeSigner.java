@@ -26,6 +26,7 @@ import com.android.apksig.SigningCertificateLineage;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils.SignerConfig;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ReusableChunkDigests;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.util.Pair;
 import com.android.apksig.util.DataSource;
@@ -138,14 +139,45 @@ public abstract class V3SchemeSigner {
                     List<SignerConfig> signerConfigs)
                     throws IOException, InvalidKeyException, NoSuchAlgorithmException,
                             SignatureException {
+        return generateApkSignatureSchemeV3Block(
+                executor, null, beforeCentralDir, centralDir, eocd, signerConfigs);
+    }
+
+    public static ApkSigningBlockUtils.SigningSchemeBlockAndDigests
+            generateApkSignatureSchemeV3Block(
+                    RunnablesExecutor executor,
+                    ReusableChunkDigests reusableChunkDigests,
+                    DataSource beforeCentralDir,
+                    DataSource centralDir,
+                    DataSource eocd,
+                    List<SignerConfig> signerConfigs)
+                    throws IOException, InvalidKeyException, NoSuchAlgorithmException,
+                            SignatureException {
         Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>> digestInfo =
-                ApkSigningBlockUtils.computeContentDigests(
-                        executor, beforeCentralDir, centralDir, eocd, signerConfigs);
+                ApkSigningBlockUtils.computeContentDigests(executor, reusableChunkDigests,
+                        beforeCentralDir, centralDir, eocd, signerConfigs);
         return new ApkSigningBlockUtils.SigningSchemeBlockAndDigests(
                 generateApkSignatureSchemeV3Block(digestInfo.getFirst(), digestInfo.getSecond()),
                 digestInfo.getSecond());
     }
 
+    /**
+     * Generates the APK Signature Scheme v3 block using the provided {@code contentDigests} of
+     * the APK, which may also contain digests used by other signature schemes, instead of
+     * computing them.
+     */
+    public static ApkSigningBlockUtils.SigningSchemeBlockAndDigests
+            generateApkSignatureSchemeV3Block(
+                    Map<ContentDigestAlgorithm, byte[]> contentDigests,
+                    List<SignerConfig> signerConfigs)
+                    throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Map<ContentDigestAlgorithm, byte[]> v3ContentDigests =
+                ApkSigningBlockUtils.getContentDigestsOfSigners(contentDigests, signerConfigs);
+        return new ApkSigningBlockUtils.SigningSchemeBlockAndDigests(
+                generateApkSignatureSchemeV3Block(signerConfigs, v3ContentDigests),
+                v3ContentDigests);
+    }
+
     public static byte[] generateV3SignerAttribute(
             SigningCertificateLineage signingCertificateLineage) {
         // FORMAT (little endian):
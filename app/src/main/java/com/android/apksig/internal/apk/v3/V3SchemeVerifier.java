@@ -23,6 +23,7 @@ import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils.SignatureNotFoundException;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ContentDigestsMemo;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.SignatureInfo;
 import com.android.apksig.internal.util.AndroidSdkVersion;
@@ -98,6 +99,22 @@ public abstract class V3SchemeVerifier {
             int minSdkVersion,
             int maxSdkVersion)
             throws IOException, NoSuchAlgorithmException, SignatureNotFoundException {
+        return verify(executor, null, apk, zipSections, minSdkVersion, maxSdkVersion);
+    }
+
+    /**
+     * Same as {@link #verify(RunnablesExecutor, DataSource, ApkUtils.ZipSections, int, int)}, but
+     * obtains the digests of the APK's contents from the provided {@code contentDigestsMemo},
+     * which may be {@code null}.
+     */
+    public static ApkSigningBlockUtils.Result verify(
+            RunnablesExecutor executor,
+            ContentDigestsMemo contentDigestsMemo,
+            DataSource apk,
+            ApkUtils.ZipSections zipSections,
+            int minSdkVersion,
+            int maxSdkVersion)
+            throws IOException, NoSuchAlgorithmException, SignatureNotFoundException {
         ApkSigningBlockUtils.Result result = new ApkSigningBlockUtils.Result(
                 ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3);
         SignatureInfo signatureInfo =
@@ -118,6 +135,7 @@ public abstract class V3SchemeVerifier {
         }
 
         verify(executor,
+                contentDigestsMemo,
                 beforeApkSigningBlock,
                 signatureInfo.signatureBlock,
                 centralDir,
@@ -139,6 +157,7 @@ public abstract class V3SchemeVerifier {
      */
     private static void verify(
             RunnablesExecutor executor,
+            ContentDigestsMemo contentDigestsMemo,
             DataSource beforeApkSigningBlock,
             ByteBuffer apkSignatureSchemeV3Block,
             DataSource centralDir,
@@ -153,8 +172,8 @@ public abstract class V3SchemeVerifier {
         if (result.containsErrors()) {
             return;
         }
-        ApkSigningBlockUtils.verifyIntegrity(
-                executor, beforeApkSigningBlock, centralDir, eocd, contentDigestsToVerify, result);
+        ApkSigningBlockUtils.verifyIntegrity(executor, contentDigestsMemo, beforeApkSigningBlock,
+                centralDir, eocd, contentDigestsToVerify, result);
 
         // make sure that the v3 signers cover the entire targeted sdk version ranges and that the
         // longest SigningCertificateHistory, if present, corresponds to the newest platform
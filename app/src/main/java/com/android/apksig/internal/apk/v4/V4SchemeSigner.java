@@ -31,12 +31,14 @@ import com.android.apksig.internal.apk.v3.V3SchemeSigner;
 import com.android.apksig.internal.apk.v3.V3SchemeVerifier;
 import com.android.apksig.internal.util.Pair;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -97,13 +99,40 @@ public abstract class V4SchemeSigner {
     public static void generateV4Signature(
         DataSource apkContent, SignerConfig signerConfig, File outputFile)
         throws IOException, InvalidKeyException, NoSuchAlgorithmException {
-      Pair<V4Signature, byte[]> pair = generateV4Signature(apkContent, signerConfig);
-      try (final OutputStream output = new FileOutputStream(outputFile)) {
-        pair.getFirst().writeTo(output);
-        V4Signature.writeBytes(output, pair.getSecond());
-      } catch (IOException e) {
-        outputFile.delete();
-        throw e;
+      generateV4Signature(RunnablesExecutor.MULTI_THREADED, apkContent, signerConfig, outputFile);
+    }
+
+    /**
+     * Compute hash tree using the provided {@code executor} and generate v4 signature for a given
+     * APK. Write the serialized data to output file.
+     *
+     * <p>The hash tree is kept in a temporary file rather than on the heap, and is streamed from
+     * there into the output file.
+     */
+    public static void generateV4Signature(RunnablesExecutor executor,
+        DataSource apkContent, SignerConfig signerConfig, File outputFile)
+        throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+      File treeFile = File.createTempFile("apksig", ".verity");
+      try {
+        ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo;
+        try (RandomAccessFile tree = new RandomAccessFile(treeFile, "rw")) {
+          verityContentDigestInfo = ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(
+                  executor, apkContent, tree.getChannel());
+        }
+        V4Signature signature =
+                generateV4Signature(apkContent, signerConfig, verityContentDigestInfo);
+        try (final OutputStream output = new FileOutputStream(outputFile)) {
+          signature.writeTo(output);
+          V4Signature.writeBytes(output, verityContentDigestInfo.treeDataSource);
+        } catch (IOException e) {
+          outputFile.delete();
+          throw e;
+        }
+      } finally {
+        if (!treeFile.delete()) {
+          // The file may still be mapped, which prevents deletion on some platforms.
+          treeFile.deleteOnExit();
+        }
       }
     }
 
@@ -112,6 +141,33 @@ public abstract class V4SchemeSigner {
             DataSource apkContent,
             SignerConfig signerConfig)
             throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        return generateV4Signature(RunnablesExecutor.MULTI_THREADED, apkContent, signerConfig);
+    }
+
+    /**
+     * Generate v4 signature and hash tree for a given APK, computing the hash tree using the
+     * provided {@code executor}.
+     */
+    public static Pair<V4Signature, byte[]> generateV4Signature(
+            RunnablesExecutor executor,
+            DataSource apkContent,
+            SignerConfig signerConfig)
+            throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        // Obtaining the merkle tree and the root hash in verity format.
+        ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo =
+                ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(executor, apkContent);
+
+        V4Signature signature =
+                generateV4Signature(apkContent, signerConfig, verityContentDigestInfo);
+        return Pair.of(signature, verityContentDigestInfo.tree);
+    }
+
+    /** Generate v4 signature for a given APK and its already computed hash tree. */
+    private static V4Signature generateV4Signature(
+            DataSource apkContent,
+            SignerConfig signerConfig,
+            ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo)
+            throws IOException, InvalidKeyException, NoSuchAlgorithmException {
         // Salt has to stay empty for fs-verity compatibility.
         final byte[] salt = null;
         // Not used by apksigner.
@@ -122,14 +178,9 @@ public abstract class V4SchemeSigner {
         // Obtaining first supported digest from v2/v3 blocks (SHA256 or SHA512).
         final byte[] apkDigest = getApkDigest(apkContent);
 
-        // Obtaining the merkle tree and the root hash in verity format.
-        ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo =
-                ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(apkContent);
-
         final ContentDigestAlgorithm verityContentDigestAlgorithm =
                 verityContentDigestInfo.contentDigestAlgorithm;
         final byte[] rootHash = verityContentDigestInfo.rootHash;
-        final byte[] tree = verityContentDigestInfo.tree;
 
         final Pair<Integer, Byte> hashingAlgorithmBlockSizePair = convertToV4HashingInfo(
                 verityContentDigestAlgorithm);
@@ -146,7 +197,7 @@ public abstract class V4SchemeSigner {
             throw new InvalidKeyException("Signer failed", e);
         }
 
-        return Pair.of(signature, tree);
+        return signature;
     }
 
     private static V4Signature generateSignature(
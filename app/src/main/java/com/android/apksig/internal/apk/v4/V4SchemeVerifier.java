@@ -24,6 +24,7 @@ import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
 import com.android.apksig.internal.util.X509CertificateUtils;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -67,6 +68,15 @@ public abstract class V4SchemeVerifier {
      */
     public static ApkSigningBlockUtils.Result verify(DataSource apk, File v4SignatureFile)
             throws IOException, NoSuchAlgorithmException {
+        return verify(RunnablesExecutor.MULTI_THREADED, apk, v4SignatureFile);
+    }
+
+    /**
+     * Same as {@link #verify(DataSource, File)}, but computes the verity tree of the APK using
+     * the provided {@code executor}.
+     */
+    public static ApkSigningBlockUtils.Result verify(RunnablesExecutor executor, DataSource apk,
+            File v4SignatureFile) throws IOException, NoSuchAlgorithmException {
         final V4Signature signature;
         final byte[] tree;
         try (InputStream input = new FileInputStream(v4SignatureFile)) {
@@ -104,7 +114,7 @@ public abstract class V4SchemeVerifier {
         }
 
         // Second, check if the root hash and the tree are correct.
-        verifyRootHashAndTree(apk, signerInfo, hashingInfo.rawRootHash, tree);
+        verifyRootHashAndTree(executor, apk, signerInfo, hashingInfo.rawRootHash, tree);
         if (!result.containsErrors()) {
             result.verified = true;
         }
@@ -211,11 +221,11 @@ public abstract class V4SchemeVerifier {
         return result;
     }
 
-    private static void verifyRootHashAndTree(DataSource apkContent,
+    private static void verifyRootHashAndTree(RunnablesExecutor executor, DataSource apkContent,
             ApkSigningBlockUtils.Result.SignerInfo signerInfo, byte[] expectedDigest,
             byte[] expectedTree) throws IOException, NoSuchAlgorithmException {
         ApkSigningBlockUtils.VerityTreeAndDigest actualContentDigestInfo =
-                ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(apkContent);
+                ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(executor, apkContent);
 
         ContentDigestAlgorithm algorithm = actualContentDigestInfo.contentDigestAlgorithm;
         final byte[] actualDigest = actualContentDigestInfo.rootHash;
@@ -16,6 +16,8 @@
 
 package com.android.apksig.internal.apk.v4;
 
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -214,6 +216,15 @@ public class V4Signature {
         stream.write(bytes);
     }
 
+    static void writeBytes(OutputStream stream, DataSource bytes) throws IOException {
+        long size = bytes.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too large: " + size + " bytes");
+        }
+        writeIntLE(stream, (int) size);
+        bytes.feed(0, size, DataSinks.asDataSink(stream));
+    }
+
     static void writeBytes(ByteBuffer buffer, byte[] bytes) {
         if (bytes == null) {
             buffer.putInt(0);
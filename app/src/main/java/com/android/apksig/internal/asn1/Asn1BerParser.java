@@ -23,6 +23,7 @@ import com.android.apksig.internal.asn1.ber.BerEncoding;
 import com.android.apksig.internal.asn1.ber.ByteBufferBerDataValueReader;
 import com.android.apksig.internal.util.ByteBufferUtils;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
@@ -30,6 +31,8 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Parser of ASN.1 BER-encoded structures.
@@ -40,6 +43,10 @@ import java.util.List;
 public final class Asn1BerParser {
     private Asn1BerParser() {}
 
+    /** Metadata of container classes, keyed by class. */
+    private static final Map<Class<?>, ContainerInfo> CONTAINER_INFOS =
+            new ConcurrentHashMap<>();
+
     /**
      * Returns the ASN.1 structure contained in the BER encoded input.
      *
@@ -116,10 +123,11 @@ public final class Asn1BerParser {
             throw new NullPointerException("containerClass == null");
         }
 
-        Asn1Type dataType = getContainerAsn1Type(containerClass);
+        ContainerInfo containerInfo = getContainerInfo(containerClass);
+        Asn1Type dataType = containerInfo.mType;
         switch (dataType) {
             case CHOICE:
-                return parseChoice(container, containerClass);
+                return parseChoice(container, containerClass, containerInfo);
 
             case SEQUENCE:
             {
@@ -134,10 +142,10 @@ public final class Asn1BerParser {
                                     + ", but read: " + BerEncoding.tagClassAndNumberToString(
                                     container.getTagClass(), container.getTagNumber()));
                 }
-                return parseSequence(container, containerClass);
+                return parseSequence(container, containerClass, containerInfo, false);
             }
             case UNENCODED_CONTAINER:
-                return parseSequence(container, containerClass, true);
+                return parseSequence(container, containerClass, containerInfo, true);
             default:
                 throw new Asn1DecodingException("Parsing container " + dataType + " not supported");
         }
@@ -145,39 +153,14 @@ public final class Asn1BerParser {
 
     private static <T> T parseChoice(BerDataValue dataValue, Class<T> containerClass)
             throws Asn1DecodingException {
-        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
-        if (fields.isEmpty()) {
-            throw new Asn1DecodingException(
-                    "No fields annotated with " + Asn1Field.class.getName()
-                            + " in CHOICE class " + containerClass.getName());
-        }
-
-        // Check that class + tagNumber don't clash between the choices
-        for (int i = 0; i < fields.size() - 1; i++) {
-            AnnotatedField f1 = fields.get(i);
-            int tagNumber1 = f1.getBerTagNumber();
-            int tagClass1 = f1.getBerTagClass();
-            for (int j = i + 1; j < fields.size(); j++) {
-                AnnotatedField f2 = fields.get(j);
-                int tagNumber2 = f2.getBerTagNumber();
-                int tagClass2 = f2.getBerTagClass();
-                if ((tagNumber1 == tagNumber2) && (tagClass1 == tagClass2)) {
-                    throw new Asn1DecodingException(
-                            "CHOICE fields are indistinguishable because they have the same tag"
-                                    + " class and number: " + containerClass.getName()
-                                    + "." + f1.getField().getName()
-                                    + " and ." + f2.getField().getName());
-                }
-            }
-        }
+        return parseChoice(dataValue, containerClass, getContainerInfo(containerClass));
+    }
 
-        // Instantiate the container object / result
-        T obj;
-        try {
-            obj = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | ReflectiveOperationException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
+    private static <T> T parseChoice(
+            BerDataValue dataValue, Class<T> containerClass, ContainerInfo containerInfo)
+            throws Asn1DecodingException {
+        List<AnnotatedField> fields = containerInfo.mFields;
+        T obj = containerInfo.newInstance(containerClass);
         // Set the matching field's value from the data value
         for (AnnotatedField field : fields) {
             try {
@@ -194,36 +177,14 @@ public final class Asn1BerParser {
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass)
             throws Asn1DecodingException {
-        return parseSequence(container, containerClass, false);
+        return parseSequence(container, containerClass, getContainerInfo(containerClass), false);
     }
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass,
-            boolean isUnencodedContainer) throws Asn1DecodingException {
-        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        // Check that there are no fields with the same index
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1DecodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
-        }
-
-        // Instantiate the container object / result
-        T t;
-        try {
-            t = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | ReflectiveOperationException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
+            ContainerInfo containerInfo, boolean isUnencodedContainer)
+            throws Asn1DecodingException {
+        List<AnnotatedField> fields = containerInfo.mFields;
+        T t = containerInfo.newInstance(containerClass);
 
         // Parse fields one by one. A complication is that there may be optional fields.
         int nextUnreadFieldIndex = 0;
@@ -309,6 +270,78 @@ public final class Asn1BerParser {
         return result;
     }
 
+    /**
+     * Returns the metadata of the provided container class. The metadata is obtained and validated
+     * using reflection the first time it is requested for a class and is cached afterwards.
+     */
+    private static ContainerInfo getContainerInfo(Class<?> containerClass)
+            throws Asn1DecodingException {
+        ContainerInfo result = CONTAINER_INFOS.get(containerClass);
+        if (result == null) {
+            result = createContainerInfo(containerClass);
+            CONTAINER_INFOS.putIfAbsent(containerClass, result);
+        }
+        return result;
+    }
+
+    private static ContainerInfo createContainerInfo(Class<?> containerClass)
+            throws Asn1DecodingException {
+        Asn1Type containerType = getContainerAsn1Type(containerClass);
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
+        if (containerType == Asn1Type.CHOICE) {
+            if (fields.isEmpty()) {
+                throw new Asn1DecodingException(
+                        "No fields annotated with " + Asn1Field.class.getName()
+                                + " in CHOICE class " + containerClass.getName());
+            }
+
+            // Check that class + tagNumber don't clash between the choices
+            for (int i = 0; i < fields.size() - 1; i++) {
+                AnnotatedField f1 = fields.get(i);
+                int tagNumber1 = f1.getBerTagNumber();
+                int tagClass1 = f1.getBerTagClass();
+                for (int j = i + 1; j < fields.size(); j++) {
+                    AnnotatedField f2 = fields.get(j);
+                    int tagNumber2 = f2.getBerTagNumber();
+                    int tagClass2 = f2.getBerTagClass();
+                    if ((tagNumber1 == tagNumber2) && (tagClass1 == tagClass2)) {
+                        throw new Asn1DecodingException(
+                                "CHOICE fields are indistinguishable because they have the same"
+                                        + " tag class and number: " + containerClass.getName()
+                                        + "." + f1.getField().getName()
+                                        + " and ." + f2.getField().getName());
+                    }
+                }
+            }
+        } else {
+            Collections.sort(
+                    fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+            // Check that there are no fields with the same index
+            if (fields.size() > 1) {
+                AnnotatedField lastField = null;
+                for (AnnotatedField field : fields) {
+                    if ((lastField != null)
+                            && (lastField.getAnnotation().index()
+                                    == field.getAnnotation().index())) {
+                        throw new Asn1DecodingException(
+                                "Fields have the same index: " + containerClass.getName()
+                                        + "." + lastField.getField().getName()
+                                        + " and ." + field.getField().getName());
+                    }
+                    lastField = field;
+                }
+            }
+        }
+
+        Constructor<?> constructor;
+        try {
+            constructor = containerClass.getConstructor();
+        } catch (ReflectiveOperationException | SecurityException e) {
+            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
+        }
+        return new ContainerInfo(containerType, fields, constructor);
+    }
+
     private static Asn1Type getContainerAsn1Type(Class<?> containerClass)
             throws Asn1DecodingException {
         Asn1Class containerAnnotation = containerClass.getDeclaredAnnotation(Asn1Class.class);
@@ -347,6 +380,33 @@ public final class Asn1BerParser {
         return Class.forName(elementClassName);
     }
 
+    /**
+     * Metadata of a class annotated with {@link Asn1Class}: the type of the container, its
+     * annotated fields (in declaration order for {@code CHOICE} and in index order otherwise) and
+     * its public no-arg constructor.
+     */
+    private static final class ContainerInfo {
+        private final Asn1Type mType;
+        private final List<AnnotatedField> mFields;
+        private final Constructor<?> mConstructor;
+
+        private ContainerInfo(
+                Asn1Type type, List<AnnotatedField> fields, Constructor<?> constructor) {
+            mType = type;
+            mFields = Collections.unmodifiableList(fields);
+            mConstructor = constructor;
+        }
+
+        private <T> T newInstance(Class<T> containerClass) throws Asn1DecodingException {
+            try {
+                return containerClass.cast(mConstructor.newInstance());
+            } catch (IllegalArgumentException | ReflectiveOperationException e) {
+                throw new Asn1DecodingException(
+                        "Failed to instantiate " + containerClass.getName(), e);
+            }
+        }
+    }
+
     private static final class AnnotatedField {
         private final Field mField;
         private final Asn1Field mAnnotation;
@@ -356,6 +416,7 @@ public final class Asn1BerParser {
         private final int mBerTagNumber;
         private final Asn1Tagging mTagging;
         private final boolean mOptional;
+        private volatile Class<?> mElementClass;
 
         public AnnotatedField(Field field, Asn1Field annotation) throws Asn1DecodingException {
             mField = field;
@@ -413,6 +474,19 @@ public final class Asn1BerParser {
             return mBerTagNumber;
         }
 
+        /**
+         * Returns the class of the elements of this {@code SET OF} or {@code SEQUENCE OF} field.
+         */
+        public Class<?> getElementClass()
+                throws Asn1DecodingException, ClassNotFoundException {
+            Class<?> result = mElementClass;
+            if (result == null) {
+                result = getElementType(mField);
+                mElementClass = result;
+            }
+            return result;
+        }
+
         public void setValueFrom(BerDataValue dataValue, Object obj) throws Asn1DecodingException {
             int readTagClass = dataValue.getTagClass();
             if (mBerTagNumber != -1) {
@@ -443,7 +517,7 @@ public final class Asn1BerParser {
                 }
             }
 
-            BerToJavaConverter.setFieldValue(obj, mField, mDataType, dataValue);
+            BerToJavaConverter.setFieldValue(obj, this, dataValue);
         }
     }
 
@@ -558,8 +632,10 @@ public final class Asn1BerParser {
         private BerToJavaConverter() {}
 
         public static void setFieldValue(
-                Object obj, Field field, Asn1Type type, BerDataValue dataValue)
+                Object obj, AnnotatedField annotatedField, BerDataValue dataValue)
                         throws Asn1DecodingException {
+            Field field = annotatedField.getField();
+            Asn1Type type = annotatedField.mDataType;
             try {
                 switch (type) {
                     case SET_OF:
@@ -567,7 +643,7 @@ public final class Asn1BerParser {
                         if (Asn1OpaqueObject.class.equals(field.getType())) {
                             field.set(obj, convert(type, dataValue, field.getType()));
                         } else {
-                            field.set(obj, parseSetOf(dataValue, getElementType(field)));
+                            field.set(obj, parseSetOf(dataValue, annotatedField.getElementClass()));
                         }
                         return;
                     default:
@@ -28,6 +28,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Encoder of ASN.1 structures into DER-encoded form.
@@ -38,6 +40,10 @@ import java.util.List;
 public final class Asn1DerEncoder {
     private Asn1DerEncoder() {}
 
+    /** Metadata of container classes, keyed by class. */
+    private static final Map<Class<?>, ContainerInfo> CONTAINER_INFOS =
+            new ConcurrentHashMap<>();
+
     /**
      * Returns the DER-encoded form of the provided ASN.1 structure.
      *
@@ -52,36 +58,85 @@ public final class Asn1DerEncoder {
      * @throws Asn1EncodingException if the input could not be encoded
      */
     public static byte[] encode(Object container) throws Asn1EncodingException {
-        Class<?> containerClass = container.getClass();
-        Asn1Class containerAnnotation = null;
-        containerAnnotation = containerClass.getDeclaredAnnotation(Asn1Class.class);
+        ContainerInfo containerInfo = getContainerInfo(container.getClass());
+        switch (containerInfo.mType) {
+            case CHOICE:
+                return toChoice(container, containerInfo.mFields);
+            case SEQUENCE:
+                return toSequence(container, containerInfo.mFields, false);
+            case UNENCODED_CONTAINER:
+                return toSequence(container, containerInfo.mFields, true);
+            default:
+                throw new Asn1EncodingException(
+                        "Unsupported container type: " + containerInfo.mType);
+        }
+    }
+
+    /**
+     * Returns the metadata of the provided container class. The metadata is obtained using
+     * reflection the first time it is requested for a class and is cached afterwards.
+     */
+    private static ContainerInfo getContainerInfo(Class<?> containerClass)
+            throws Asn1EncodingException {
+        ContainerInfo result = CONTAINER_INFOS.get(containerClass);
+        if (result == null) {
+            result = createContainerInfo(containerClass);
+            CONTAINER_INFOS.putIfAbsent(containerClass, result);
+        }
+        return result;
+    }
+
+    private static ContainerInfo createContainerInfo(Class<?> containerClass)
+            throws Asn1EncodingException {
+        Asn1Class containerAnnotation = containerClass.getDeclaredAnnotation(Asn1Class.class);
         if (containerAnnotation == null) {
             throw new Asn1EncodingException(
                     containerClass.getName() + " not annotated with " + Asn1Class.class.getName());
         }
 
         Asn1Type containerType = containerAnnotation.type();
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
         switch (containerType) {
             case CHOICE:
-                return toChoice(container);
+                if (fields.isEmpty()) {
+                    throw new Asn1EncodingException(
+                            "No fields annotated with " + Asn1Field.class.getName()
+                                    + " in CHOICE class " + containerClass.getName());
+                }
+                break;
             case SEQUENCE:
-                return toSequence(container);
             case UNENCODED_CONTAINER:
-                return toSequence(container, true);
+                Collections.sort(
+                        fields,
+                        (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+                if (fields.size() > 1) {
+                    AnnotatedField lastField = null;
+                    for (AnnotatedField field : fields) {
+                        if ((lastField != null)
+                                && (lastField.getAnnotation().index()
+                                        == field.getAnnotation().index())) {
+                            throw new Asn1EncodingException(
+                                    "Fields have the same index: " + containerClass.getName()
+                                            + "." + lastField.getField().getName()
+                                            + " and ." + field.getField().getName());
+                        }
+                        lastField = field;
+                    }
+                }
+                break;
             default:
                 throw new Asn1EncodingException("Unsupported container type: " + containerType);
         }
+        return new ContainerInfo(containerType, fields);
     }
 
     private static byte[] toChoice(Object container) throws Asn1EncodingException {
-        Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        if (fields.isEmpty()) {
-            throw new Asn1EncodingException(
-                    "No fields annotated with " + Asn1Field.class.getName()
-                            + " in CHOICE class " + containerClass.getName());
-        }
+        return toChoice(container, getContainerInfo(container.getClass()).mFields);
+    }
 
+    private static byte[] toChoice(Object container, List<AnnotatedField> fields)
+            throws Asn1EncodingException {
+        Class<?> containerClass = container.getClass();
         AnnotatedField resultField = null;
         for (AnnotatedField field : fields) {
             Object fieldValue = getMemberFieldValue(container, field.getField());
@@ -101,39 +156,23 @@ public final class Asn1DerEncoder {
                     "No non-null fields in CHOICE class " + containerClass.getName());
         }
 
-        return resultField.toDer();
+        return resultField.toDer(container);
     }
 
     private static byte[] toSequence(Object container) throws Asn1EncodingException {
-        return toSequence(container, false);
+        return toSequence(container, getContainerInfo(container.getClass()).mFields, false);
     }
 
-    private static byte[] toSequence(Object container, boolean omitTag)
+    private static byte[] toSequence(
+            Object container, List<AnnotatedField> fields, boolean omitTag)
             throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1EncodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
-        }
-
         List<byte[]> serializedFields = new ArrayList<>(fields.size());
         int contentLen = 0;
         for (AnnotatedField field : fields) {
             byte[] serializedField;
             try {
-                serializedField = field.toDer();
+                serializedField = field.toDer(container);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Failed to encode " + containerClass.getName()
@@ -211,9 +250,8 @@ public final class Asn1DerEncoder {
             }
     }
 
-    private static List<AnnotatedField> getAnnotatedFields(Object container)
+    private static List<AnnotatedField> getAnnotatedFields(Class<?> containerClass)
             throws Asn1EncodingException {
-        Class<?> containerClass = container.getClass();
         Field[] declaredFields = containerClass.getDeclaredFields();
         List<AnnotatedField> result = new ArrayList<>(declaredFields.length);
         for (Field field : declaredFields) {
@@ -229,7 +267,7 @@ public final class Asn1DerEncoder {
 
             AnnotatedField annotatedField;
             try {
-                annotatedField = new AnnotatedField(container, field, annotation);
+                annotatedField = new AnnotatedField(field, annotation);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Invalid ASN.1 annotation on "
@@ -344,9 +382,22 @@ public final class Asn1DerEncoder {
         }
     }
 
+    /**
+     * Metadata of a class annotated with {@link Asn1Class}: the type of the container and its
+     * annotated fields, in declaration order for {@code CHOICE} and in index order otherwise.
+     */
+    private static final class ContainerInfo {
+        private final Asn1Type mType;
+        private final List<AnnotatedField> mFields;
+
+        private ContainerInfo(Asn1Type type, List<AnnotatedField> fields) {
+            mType = type;
+            mFields = Collections.unmodifiableList(fields);
+        }
+    }
+
     private static final class AnnotatedField {
         private final Field mField;
-        private final Object mObject;
         private final Asn1Field mAnnotation;
         private final Asn1Type mDataType;
         private final Asn1Type mElementDataType;
@@ -356,9 +407,7 @@ public final class Asn1DerEncoder {
         private final Asn1Tagging mTagging;
         private final boolean mOptional;
 
-        public AnnotatedField(Object obj, Field field, Asn1Field annotation)
-                throws Asn1EncodingException {
-            mObject = obj;
+        public AnnotatedField(Field field, Asn1Field annotation) throws Asn1EncodingException {
             mField = field;
             mAnnotation = annotation;
             mDataType = annotation.type();
@@ -403,8 +452,8 @@ public final class Asn1DerEncoder {
             return mAnnotation;
         }
 
-        public byte[] toDer() throws Asn1EncodingException {
-            Object fieldValue = getMemberFieldValue(mObject, mField);
+        public byte[] toDer(Object container) throws Asn1EncodingException {
+            Object fieldValue = getMemberFieldValue(container, mField);
             if (fieldValue == null) {
                 if (mOptional) {
                     return null;
@@ -29,6 +29,7 @@ import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -458,4 +459,261 @@ public final class Asn1SpecificDerEncoder {
                 BerEncoding.TAG_CLASS_UNIVERSAL, true, BerEncoding.TAG_NUMBER_SEQUENCE,
                 serializedFields.toArray(new byte[0][]));
     }
+
+    /**
+     * Returns the DER-encoded form of a {@code ContentInfo} of the provided type whose content is
+     * the provided {@code SignedData}.
+     *
+     * <p>The output is identical to encoding {@code signedData} with {@link #SignedDataEncoder},
+     * wrapping it into a {@link ContentInfo} and encoding that with {@link #ContentInfoEncoder}.
+     * However, the lengths of all nested elements are computed first and the whole structure is
+     * then written in one pass into a single array of the right size. Thus, large elements, such
+     * as certificates, signatures and embedded content, are copied only once rather than once per
+     * nesting level.
+     */
+    public static byte[] ContentInfoEncoder(String contentType, SignedData signedData)
+            throws Asn1EncodingException {
+        DerElement content =
+                DerElement.constructed(
+                        BerEncoding.TAG_CLASS_CONTEXT_SPECIFIC, 0, signedDataElement(signedData));
+        DerElement contentInfo = DerElement.sequence(oidElement(contentType), content);
+        ByteBuffer result = ByteBuffer.allocate(contentInfo.getEncodedLength());
+        contentInfo.writeTo(result);
+        return result.array();
+    }
+
+    private static DerElement signedDataElement(SignedData object)
+            throws Asn1EncodingException {
+        List<DerElement> fields = new ArrayList<>(6);
+        fields.add(integerElement(object.version));
+        fields.add(setOfElement(BerEncoding.TAG_CLASS_UNIVERSAL, BerEncoding.TAG_NUMBER_SET,
+                object.digestAlgorithms));
+        fields.add(encapsulatedContentInfoElement(object.encapContentInfo));
+        if (object.certificates != null) {
+            fields.add(setOfElement(BerEncoding.TAG_CLASS_CONTEXT_SPECIFIC, 0,
+                    object.certificates));
+        }
+        if (object.crls != null) {
+            fields.add(setOfElement(BerEncoding.TAG_CLASS_CONTEXT_SPECIFIC, 1, object.crls));
+        }
+        fields.add(setOfElement(BerEncoding.TAG_CLASS_UNIVERSAL, BerEncoding.TAG_NUMBER_SET,
+                object.signerInfos));
+        return DerElement.sequence(fields);
+    }
+
+    private static DerElement encapsulatedContentInfoElement(EncapsulatedContentInfo object)
+            throws Asn1EncodingException {
+        if (object.content == null) {
+            return DerElement.sequence(oidElement(object.contentType));
+        }
+        return DerElement.sequence(
+                oidElement(object.contentType),
+                DerElement.primitive(
+                        BerEncoding.TAG_CLASS_UNIVERSAL,
+                        BerEncoding.TAG_NUMBER_OCTET_STRING,
+                        object.content.slice()));
+    }
+
+    private static DerElement algorithmIdentifierElement(AlgorithmIdentifier object)
+            throws Asn1EncodingException {
+        if (object.parameters == null) {
+            return DerElement.sequence(oidElement(object.algorithm));
+        }
+        return DerElement.sequence(
+                oidElement(object.algorithm), DerElement.encoded(object.parameters.getEncoded()));
+    }
+
+    private static DerElement signerInfoElement(SignerInfo object) throws Asn1EncodingException {
+        List<DerElement> fields = new ArrayList<>(7);
+        fields.add(integerElement(object.version));
+        fields.add(DerElement.encoded(ByteBuffer.wrap(toChoice(object.sid))));
+        fields.add(algorithmIdentifierElement(object.digestAlgorithm));
+        if (object.signedAttrs != null) {
+            // Small and rarely present: encoded the same way as by SignerInfoEncoder
+            byte[] encoded = toSetOf((Collection<?>) object.signedAttrs);
+            encoded[0] = BerEncoding.setTagNumber(encoded[0], 0);
+            encoded[0] = BerEncoding.setTagClass(encoded[0], BerEncoding.TAG_CLASS_UNIVERSAL);
+            fields.add(DerElement.encoded(ByteBuffer.wrap(encoded)));
+        }
+        fields.add(algorithmIdentifierElement(object.signatureAlgorithm));
+        fields.add(
+                DerElement.primitive(
+                        BerEncoding.TAG_CLASS_UNIVERSAL,
+                        BerEncoding.TAG_NUMBER_OCTET_STRING,
+                        object.signature.slice()));
+        if (object.unsignedAttrs != null) {
+            byte[] encoded = toSetOf((Collection<?>) object.unsignedAttrs);
+            encoded[0] = BerEncoding.setTagNumber(encoded[0], 1);
+            encoded[0] = BerEncoding.setTagClass(encoded[0], BerEncoding.TAG_CLASS_UNIVERSAL);
+            fields.add(DerElement.encoded(ByteBuffer.wrap(encoded)));
+        }
+        return DerElement.sequence(fields);
+    }
+
+    /**
+     * Returns the element of a {@code SET OF} the provided values, tagged with the provided tag
+     * class and number. Values are encoded the same way as by {@link #toSetOf(Collection)}.
+     */
+    private static DerElement setOfElement(
+            int tagClass, int tagNumber, Collection<?> values) throws Asn1EncodingException {
+        List<DerElement> elements = new ArrayList<>(values.size());
+        for (Object value : values) {
+            elements.add(anyElement(value));
+        }
+        if (elements.size() > 1) {
+            // DER requires the elements of a SET OF to be sorted by their encoded form
+            List<byte[]> encodedElements = new ArrayList<>(elements.size());
+            for (DerElement element : elements) {
+                ByteBuffer encoded = ByteBuffer.allocate(element.getEncodedLength());
+                element.writeTo(encoded);
+                encodedElements.add(encoded.array());
+            }
+            Collections.sort(encodedElements, ByteArrayLexicographicComparator.INSTANCE);
+            elements.clear();
+            for (byte[] encoded : encodedElements) {
+                elements.add(DerElement.encoded(ByteBuffer.wrap(encoded)));
+            }
+        }
+        return DerElement.constructed(tagClass, tagNumber, elements);
+    }
+
+    private static DerElement anyElement(Object value) throws Asn1EncodingException {
+        if (value instanceof Asn1OpaqueObject) {
+            return DerElement.encoded(((Asn1OpaqueObject) value).getEncoded());
+        }
+        if (value instanceof AlgorithmIdentifier) {
+            return algorithmIdentifierElement((AlgorithmIdentifier) value);
+        }
+        return signerInfoElement((SignerInfo) value);
+    }
+
+    private static DerElement integerElement(int value) {
+        return DerElement.primitive(
+                BerEncoding.TAG_CLASS_UNIVERSAL,
+                BerEncoding.TAG_NUMBER_INTEGER,
+                ByteBuffer.wrap(BigInteger.valueOf(value).toByteArray()));
+    }
+
+    private static DerElement oidElement(String oid) throws Asn1EncodingException {
+        return DerElement.encoded(ByteBuffer.wrap(toOid(oid)));
+    }
+
+    /**
+     * Element of a DER-encoded structure whose length is known before it is written. An element
+     * is either already encoded, primitive (contents provided as is) or constructed from other
+     * elements.
+     */
+    private static final class DerElement {
+        private final byte mFirstIdentifierByte;
+        private final ByteBuffer mEncodedOrContents;
+        private final List<DerElement> mChildren;
+        private final int mContentsLength;
+        private final int mEncodedLength;
+
+        private DerElement(
+                byte firstIdentifierByte,
+                ByteBuffer encodedOrContents,
+                List<DerElement> children,
+                int contentsLength,
+                int encodedLength) {
+            mFirstIdentifierByte = firstIdentifierByte;
+            mEncodedOrContents = encodedOrContents;
+            mChildren = children;
+            mContentsLength = contentsLength;
+            mEncodedLength = encodedLength;
+        }
+
+        /** Returns an element whose full encoded form (tag, length and contents) is provided. */
+        static DerElement encoded(ByteBuffer encoded) {
+            return new DerElement((byte) 0, encoded, null, -1, encoded.remaining());
+        }
+
+        static DerElement primitive(int tagClass, int tagNumber, ByteBuffer contents) {
+            int contentsLength = contents.remaining();
+            return new DerElement(
+                    getFirstIdentifierByte(tagClass, false, tagNumber),
+                    contents,
+                    null,
+                    contentsLength,
+                    getEncodedLength(contentsLength));
+        }
+
+        static DerElement constructed(int tagClass, int tagNumber, DerElement... children) {
+            return constructed(tagClass, tagNumber, Arrays.asList(children));
+        }
+
+        static DerElement constructed(int tagClass, int tagNumber, List<DerElement> children) {
+            int contentsLength = 0;
+            for (DerElement child : children) {
+                contentsLength += child.mEncodedLength;
+            }
+            return new DerElement(
+                    getFirstIdentifierByte(tagClass, true, tagNumber),
+                    null,
+                    children,
+                    contentsLength,
+                    getEncodedLength(contentsLength));
+        }
+
+        static DerElement sequence(DerElement... children) {
+            return sequence(Arrays.asList(children));
+        }
+
+        static DerElement sequence(List<DerElement> children) {
+            return constructed(
+                    BerEncoding.TAG_CLASS_UNIVERSAL, BerEncoding.TAG_NUMBER_SEQUENCE, children);
+        }
+
+        int getEncodedLength() {
+            return mEncodedLength;
+        }
+
+        void writeTo(ByteBuffer out) {
+            if (mContentsLength == -1) {
+                out.put(mEncodedOrContents.slice());
+                return;
+            }
+            out.put(mFirstIdentifierByte);
+            if (mContentsLength < 0x80) {
+                out.put((byte) mContentsLength);
+            } else {
+                int lengthBytes = getEncodedLength(mContentsLength) - mContentsLength - 2;
+                out.put((byte) (0x80 | lengthBytes));
+                for (int shift = (lengthBytes - 1) * 8; shift >= 0; shift -= 8) {
+                    out.put((byte) (mContentsLength >>> shift));
+                }
+            }
+            if (mChildren != null) {
+                for (DerElement child : mChildren) {
+                    child.writeTo(out);
+                }
+            } else {
+                out.put(mEncodedOrContents.slice());
+            }
+        }
+
+        private static byte getFirstIdentifierByte(
+                int tagClass, boolean constructed, int tagNumber) {
+            if (tagNumber >= 0x1f) {
+                throw new IllegalArgumentException(
+                        "High tag numbers not supported: " + tagNumber);
+            }
+            return (byte) ((tagClass << 6) | (constructed ? 1 << 5 : 0) | tagNumber);
+        }
+
+        /** Returns the length of the tag, length and contents of an element. */
+        private static int getEncodedLength(int contentsLength) {
+            if (contentsLength < 0x80) {
+                return 2 + contentsLength;
+            } else if (contentsLength <= 0xff) {
+                return 3 + contentsLength;
+            } else if (contentsLength <= 0xffff) {
+                return 4 + contentsLength;
+            } else if (contentsLength <= 0xffffff) {
+                return 5 + contentsLength;
+            } else {
+                return 6 + contentsLength;
+            }
+        }
+    }
 }
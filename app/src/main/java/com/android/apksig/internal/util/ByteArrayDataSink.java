@@ -29,8 +29,6 @@ import java.util.Arrays;
  */
 public class ByteArrayDataSink implements ReadableDataSink {
 
-    private static final int MAX_READ_CHUNK_SIZE = 65536;
-
     private byte[] mArray;
     private int mSize;
 
@@ -79,14 +77,10 @@ public class ByteArrayDataSink implements ReadableDataSink {
             return;
         }
 
-        ensureAvailable(buf.remaining());
-        byte[] tmp = new byte[Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE)];
-        while (buf.hasRemaining()) {
-            int chunkSize = Math.min(buf.remaining(), tmp.length);
-            buf.get(tmp, 0, chunkSize);
-            System.arraycopy(tmp, 0, mArray, mSize, chunkSize);
-            mSize += chunkSize;
-        }
+        int size = buf.remaining();
+        ensureAvailable(size);
+        buf.get(mArray, mSize, size);
+        mSize += size;
     }
 
     private void ensureAvailable(int minAvailable) throws IOException {
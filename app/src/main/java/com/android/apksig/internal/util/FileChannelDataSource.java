@@ -16,8 +16,11 @@
 
 package com.android.apksig.internal.util;
 
+import com.android.apksig.util.BufferPool;
+import com.android.apksig.util.BufferPools;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.MetricsRecorders;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.BufferOverflowException;
@@ -98,29 +101,41 @@ public class FileChannelDataSource implements DataSource {
         }
 
         long chunkOffsetInFile = mOffset + offset;
+        if (sink instanceof RandomAccessFileDataSink) {
+            // Copy file to file without going through a buffer in this process
+            ((RandomAccessFileDataSink) sink).consume(mChannel, chunkOffsetInFile, size);
+            MetricsRecorders.getDefault().onFileRead(size);
+            return;
+        }
         long remaining = size;
-        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(remaining, MAX_READ_CHUNK_SIZE));
-
-        while (remaining > 0) {
-            int chunkSize = (int) Math.min(remaining, buf.capacity());
-            int chunkRemaining = chunkSize;
-            buf.limit(chunkSize);
-            synchronized (mChannel) {
-                mChannel.position(chunkOffsetInFile);
-                while (chunkRemaining > 0) {
-                    int read = mChannel.read(buf);
-                    if (read < 0) {
-                        throw new IOException("Unexpected EOF encountered");
+        int bufSize = (int) Math.min(remaining, MAX_READ_CHUNK_SIZE);
+        BufferPool bufferPool = BufferPools.getDefault();
+        ByteBuffer buf = bufferPool.acquire(bufSize, true);
+        try {
+            while (remaining > 0) {
+                int chunkSize = (int) Math.min(remaining, bufSize);
+                int chunkRemaining = chunkSize;
+                buf.clear();
+                buf.limit(chunkSize);
+                synchronized (mChannel) {
+                    mChannel.position(chunkOffsetInFile);
+                    while (chunkRemaining > 0) {
+                        int read = mChannel.read(buf);
+                        if (read < 0) {
+                            throw new IOException("Unexpected EOF encountered");
+                        }
+                        chunkRemaining -= read;
                     }
-                    chunkRemaining -= read;
                 }
+                buf.flip();
+                sink.consume(buf);
+                chunkOffsetInFile += chunkSize;
+                remaining -= chunkSize;
             }
-            buf.flip();
-            sink.consume(buf);
-            buf.clear();
-            chunkOffsetInFile += chunkSize;
-            remaining -= chunkSize;
+        } finally {
+            bufferPool.release(buf);
         }
+        MetricsRecorders.getDefault().onFileRead(size);
     }
 
     @Override
@@ -153,6 +168,7 @@ public class FileChannelDataSource implements DataSource {
         } finally {
             dest.limit(prevLimit);
         }
+        MetricsRecorders.getDefault().onFileRead(size);
     }
 
     @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.util;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DataSource} backed by memory-mapped regions of a {@link FileChannel}.
+ *
+ * <p>The file is mapped in regions of up to {@link #REGION_SIZE} bytes because a single
+ * {@link MappedByteBuffer} cannot exceed 2 GB. {@link #feed(long, long, DataSink) feed},
+ * {@link #slice(long, long) slice} and {@link #getByteBuffer(long, int) getByteBuffer} do not copy
+ * the data, except for {@code getByteBuffer} chunks which span two regions.
+ *
+ * <p>The size of the data source is fixed when the file is mapped. Changes to the contents of the
+ * file within that size are visible in the data source.
+ */
+public class MemoryMappedFileDataSource implements DataSource {
+
+    /** Maximum size (in bytes) of a single mapped region of the file. */
+    static final long REGION_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] mRegions;
+    private final long mRegionSize;
+    private final long mOffset;
+    private final long mSize;
+
+    private MemoryMappedFileDataSource(
+            MappedByteBuffer[] regions, long regionSize, long offset, long size) {
+        mRegions = regions;
+        mRegionSize = regionSize;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    /**
+     * Returns a new {@code MemoryMappedFileDataSource} based on the data contained in the whole
+     * file, mapped using the provided {@code mode}.
+     */
+    public static MemoryMappedFileDataSource map(FileChannel channel, FileChannel.MapMode mode)
+            throws IOException {
+        return map(channel, mode, REGION_SIZE);
+    }
+
+    /**
+     * Returns a new {@code MemoryMappedFileDataSource} based on the data contained in the whole
+     * file, mapped using the provided {@code mode} in regions of up to {@code regionSize} bytes.
+     * Smaller regions are used by tests to exercise chunks which span regions.
+     */
+    static MemoryMappedFileDataSource map(
+            FileChannel channel, FileChannel.MapMode mode, long regionSize) throws IOException {
+        if ((regionSize <= 0) || (regionSize > REGION_SIZE)) {
+            throw new IllegalArgumentException("regionSize: " + regionSize);
+        }
+        long size = channel.size();
+        int regionCount = (int) ((size + regionSize - 1) / regionSize);
+        MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            long regionOffset = i * regionSize;
+            regions[i] = channel.map(mode, regionOffset, Math.min(regionSize, size - regionOffset));
+        }
+        return new MemoryMappedFileDataSource(regions, regionSize, 0, size);
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public MemoryMappedFileDataSource slice(long offset, long size) {
+        checkChunkValid(offset, size);
+        if ((offset == 0) && (size == mSize)) {
+            return this;
+        }
+        return new MemoryMappedFileDataSource(mRegions, mRegionSize, mOffset + offset, size);
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkChunkValid(offset, size);
+        long offsetInFile = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            int regionIndex = (int) (offsetInFile / mRegionSize);
+            int offsetInRegion = (int) (offsetInFile % mRegionSize);
+            int chunkSize = (int) Math.min(remaining, mRegionSize - offsetInRegion);
+            sink.consume(view(regionIndex, offsetInRegion, chunkSize));
+            offsetInFile += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkChunkValid(offset, size);
+        if (size > dest.remaining()) {
+            throw new BufferOverflowException();
+        }
+        feed(offset, size, new ByteBufferSink(dest));
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        long offsetInFile = mOffset + offset;
+        int regionIndex = (int) (offsetInFile / mRegionSize);
+        int offsetInRegion = (int) (offsetInFile % mRegionSize);
+        if (offsetInRegion + (long) size <= mRegionSize) {
+            return view(regionIndex, offsetInRegion, size);
+        }
+        // The chunk spans two regions and thus cannot be represented as a view of either.
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Returns a read-only view of the specified chunk of the specified region. The view's position
+     * is {@code 0}, and its limit and capacity is {@code size}.
+     */
+    private ByteBuffer view(int regionIndex, int offsetInRegion, int size) {
+        // Duplicate so that concurrent callers do not modify each other's position and limit.
+        ByteBuffer region = mRegions[regionIndex].duplicate();
+        region.limit(offsetInRegion + size);
+        region.position(offsetInRegion);
+        return region.slice().asReadOnlyBuffer();
+    }
+
+    private void checkChunkValid(long offset, long size) {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        if (offset > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") > source size (" + mSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size + ") > source size (" + mSize + ")");
+        }
+    }
+}
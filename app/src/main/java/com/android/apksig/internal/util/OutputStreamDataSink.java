@@ -16,6 +16,8 @@
 
 package com.android.apksig.internal.util;
 
+import com.android.apksig.util.BufferPool;
+import com.android.apksig.util.BufferPools;
 import com.android.apksig.util.DataSink;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -66,11 +68,19 @@ public class OutputStreamDataSink implements DataSink {
                     buf.remaining());
             buf.position(buf.limit());
         } else {
-            byte[] tmp = new byte[Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE)];
-            while (buf.hasRemaining()) {
-                int chunkSize = Math.min(buf.remaining(), tmp.length);
-                buf.get(tmp, 0, chunkSize);
-                mOut.write(tmp, 0, chunkSize);
+            int tmpSize = Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE);
+            BufferPool bufferPool = BufferPools.getDefault();
+            ByteBuffer tmpBuf = bufferPool.acquire(tmpSize, false);
+            try {
+                byte[] tmp = tmpBuf.array();
+                int tmpOffset = tmpBuf.arrayOffset();
+                while (buf.hasRemaining()) {
+                    int chunkSize = Math.min(buf.remaining(), tmpSize);
+                    buf.get(tmp, tmpOffset, chunkSize);
+                    mOut.write(tmp, tmpOffset, chunkSize);
+                }
+            } finally {
+                bufferPool.release(tmpBuf);
             }
         }
     }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.util;
+
+import com.android.apksig.util.TraceListener;
+
+/**
+ * Reports the phases of signing or verifying an APK to an optional {@link TraceListener}. Without
+ * a listener, phases are not timed.
+ */
+public class PhaseTracer {
+    /** Tracer which does not report phases. */
+    public static final PhaseTracer NONE = new PhaseTracer(null);
+
+    private final TraceListener mListener;
+
+    /** Constructs a tracer reporting to the provided listener, which may be {@code null}. */
+    public PhaseTracer(TraceListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Reports that the provided phase started and returns its start time, to be passed to
+     * {@link #finish(TraceListener.Phase, long, long, int)}.
+     */
+    public long start(TraceListener.Phase phase) {
+        if (mListener == null) {
+            return 0;
+        }
+        mListener.onPhaseStarted(phase);
+        return System.nanoTime();
+    }
+
+    /** Reports that the provided phase, started at {@code startNanos}, finished. */
+    public void finish(TraceListener.Phase phase, long startNanos, long byteCount, int entryCount) {
+        if (mListener == null) {
+            return;
+        }
+        mListener.onPhaseFinished(phase, System.nanoTime() - startNanos, byteCount, entryCount);
+    }
+}
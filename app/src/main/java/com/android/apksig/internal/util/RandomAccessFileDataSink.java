@@ -101,4 +101,30 @@ public class RandomAccessFileDataSink implements DataSink {
             mPosition += length;
         }
     }
+
+    /**
+     * Outputs the specified region of the provided file channel, letting the platform transfer
+     * the data between the two files directly rather than via buffers in this process where
+     * possible.
+     */
+    public void consume(FileChannel src, long srcOffset, long size) throws IOException {
+        if (size == 0) {
+            return;
+        }
+
+        synchronized (mFile) {
+            mFileChannel.position(mPosition);
+            long offset = srcOffset;
+            long remaining = size;
+            while (remaining > 0) {
+                long transferred = src.transferTo(offset, remaining, mFileChannel);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected EOF encountered");
+                }
+                offset += transferred;
+                remaining -= transferred;
+            }
+            mPosition += size;
+        }
+    }
 }
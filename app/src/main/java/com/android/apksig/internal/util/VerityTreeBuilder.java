@@ -17,22 +17,19 @@
 package com.android.apksig.internal.util;
 
 import com.android.apksig.internal.zip.ZipUtils;
-import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.ThreadPoolExecutor;
-
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * VerityTreeBuilder is used to generate the root hash of verity tree built from the input file.
@@ -46,16 +43,16 @@ public class VerityTreeBuilder implements AutoCloseable {
      */
     private final static int CHUNK_SIZE = 4096;
     /**
-     * Maximum parallelism while calculating digests.
+     * Parallelism assumed when splitting each level of the tree into batches of chunks.
      */
     private final static int DIGEST_PARALLELISM = Math.min(32,
             Runtime.getRuntime().availableProcessors());
     /**
-     * Queue size.
+     * Batches per worker when splitting each level of the tree, for load balancing.
      */
-    private final static int MAX_OUTSTANDING_CHUNKS = 4;
+    private final static int BATCHES_PER_WORKER = 4;
     /**
-     * Typical prefetch size.
+     * Maximum chunks read and digested as a single batch.
      */
     private final static int MAX_PREFETCH_CHUNKS = 1024;
     /**
@@ -75,20 +72,29 @@ public class VerityTreeBuilder implements AutoCloseable {
 
     private final MessageDigest mMd;
 
-    private final ExecutorService mExecutor =
-            new ThreadPoolExecutor(DIGEST_PARALLELISM, DIGEST_PARALLELISM,
-                    0L, MILLISECONDS,
-                    new ArrayBlockingQueue<>(MAX_OUTSTANDING_CHUNKS),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
+    private final RunnablesExecutor mExecutor;
 
     public VerityTreeBuilder(byte[] salt) throws NoSuchAlgorithmException {
+        this(salt, RunnablesExecutor.MULTI_THREADED);
+    }
+
+    /**
+     * Constructs a new builder which digests the chunks of each level of the tree using the
+     * provided {@code executor}.
+     */
+    public VerityTreeBuilder(byte[] salt, RunnablesExecutor executor)
+            throws NoSuchAlgorithmException {
+        if (executor == null) {
+            throw new NullPointerException("executor == null");
+        }
         mSalt = salt;
         mMd = getNewMessageDigest();
+        mExecutor = executor;
     }
 
     @Override
     public void close() {
-        mExecutor.shutdownNow();
+        // The executor is owned by the caller.
     }
 
     /**
@@ -137,41 +143,56 @@ public class VerityTreeBuilder implements AutoCloseable {
      *
      * The returned root hash is calculated from the last level of 4 KB chunk, similarly with salt.
      *
-     * The tree is currently stored only in memory and is never written out.  Nevertheless, it is
-     * the actual verity tree format on disk, and is supposed to be re-generated on device.
+     * The tree is stored only in memory and is never written out.  Nevertheless, it is the actual
+     * verity tree format on disk, and is supposed to be re-generated on device.  See
+     * {@link #generateVerityTree(DataSource, FileChannel)} for keeping the tree off the heap.
      */
     public ByteBuffer generateVerityTree(DataSource fileSource) throws IOException {
-        int digestSize = mMd.getDigestLength();
-
         // Calculate the summed area table of level size. In other word, this is the offset
         // table of each level, plus the next non-existing level.
-        int[] levelOffset = calculateLevelOffset(fileSource.size(), digestSize);
+        int[] levelOffset = calculateLevelOffset(fileSource.size(), mMd.getDigestLength());
 
         ByteBuffer verityBuffer = ByteBuffer.allocate(levelOffset[levelOffset.length - 1]);
+        generateVerityTree(fileSource, levelOffset, verityBuffer);
+        return verityBuffer;
+    }
 
-        // Generate the hash tree bottom-up.
+    /**
+     * Same as {@link #generateVerityTree(DataSource)}, but stores the tree in the provided file
+     * rather than on the heap, and returns the tree as a {@link DataSource} backed by the file.
+     *
+     * <p>Any existing contents of the file are discarded. The file is memory-mapped while the tree
+     * is built, so that the digests of chunks can be written at their fixed offsets in parallel.
+     * The returned data source remains valid after {@code treeFile} is closed.
+     */
+    public DataSource generateVerityTree(DataSource fileSource, FileChannel treeFile)
+            throws IOException {
+        int[] levelOffset = calculateLevelOffset(fileSource.size(), mMd.getDigestLength());
+        int treeSize = levelOffset[levelOffset.length - 1];
+
+        // Truncating first ensures that the padding of each level, which is never written, reads
+        // back as 0s.
+        treeFile.truncate(0);
+        ByteBuffer verityBuffer = treeFile.map(FileChannel.MapMode.READ_WRITE, 0, treeSize);
+        generateVerityTree(fileSource, levelOffset, verityBuffer);
+        return DataSources.asDataSource(verityBuffer);
+    }
+
+    private void generateVerityTree(DataSource fileSource, int[] levelOffset,
+            ByteBuffer verityBuffer) throws IOException {
+        // Generate the hash tree bottom-up. Each level is digested from the level below it, and
+        // the digest of each chunk is written at its fixed offset within the level. The trailing
+        // part of the last chunk of each level stays zero-filled, as required.
         for (int i = levelOffset.length - 2; i >= 0; i--) {
-            DataSink middleBufferSink = new ByteBufferSink(
-                    slice(verityBuffer, levelOffset[i], levelOffset[i + 1]));
-            DataSource src;
+            ByteBuffer output = slice(verityBuffer, levelOffset[i], levelOffset[i + 1]);
             if (i == levelOffset.length - 2) {
-                src = fileSource;
-                digestDataByChunks(src, middleBufferSink);
+                digestDataByChunks(fileSource, null, output);
             } else {
-                src = DataSources.asDataSource(slice(verityBuffer.asReadOnlyBuffer(),
-                        levelOffset[i + 1], levelOffset[i + 2]));
-                digestDataByChunks(src, middleBufferSink);
-            }
-
-            // If the output is not full chunk, pad with 0s.
-            long totalOutput = divideRoundup(src.size(), CHUNK_SIZE) * digestSize;
-            int incomplete = (int) (totalOutput % CHUNK_SIZE);
-            if (incomplete > 0) {
-                byte[] padding = new byte[CHUNK_SIZE - incomplete];
-                middleBufferSink.consume(padding, 0, padding.length);
+                ByteBuffer input = slice(verityBuffer.asReadOnlyBuffer(),
+                        levelOffset[i + 1], levelOffset[i + 2]);
+                digestDataByChunks(null, input, output);
             }
         }
-        return verityBuffer;
     }
 
     /**
@@ -182,6 +203,14 @@ public class VerityTreeBuilder implements AutoCloseable {
         return saltedDigest(firstPage);
     }
 
+    /**
+     * Returns the digested root hash from the top level (only page) of a verity tree provided as a
+     * {@link DataSource}.
+     */
+    public byte[] getRootHashFromTree(DataSource verityTree) throws IOException {
+        return saltedDigest(verityTree.getByteBuffer(0, CHUNK_SIZE));
+    }
+
     /**
      * Returns an array of summed area table of level size in the verity tree.  In other words, the
      * returned array is offset of each level in the verity tree file format, plus an additional
@@ -212,60 +241,77 @@ public class VerityTreeBuilder implements AutoCloseable {
     }
 
     /**
-     * Digest data source by chunks then feeds them to the sink one by one.  If the last unit is
-     * less than the chunk size and padding is desired, feed with extra padding 0 to fill up the
-     * chunk before digesting.
+     * Digests the data by chunks, and writes the digest of each chunk at the corresponding offset
+     * in {@code output}. If the last chunk is less than the chunk size, it is padded with 0s
+     * before digesting.
+     *
+     * <p>Exactly one of {@code dataSource} and {@code inMemoryData} is provided. Chunks of the
+     * former are read into a buffer of each worker, while chunks of the latter, which must be a
+     * multiple of the chunk size, are digested in place.
+     *
+     * <p>The chunks are split into contiguous batches which are claimed and digested by the
+     * runnables of the executor. As each chunk's digest has a fixed place in the output, no
+     * ordering between the batches is needed.
      */
-    private void digestDataByChunks(DataSource dataSource, DataSink dataSink) throws IOException {
-        final long size = dataSource.size();
+    private void digestDataByChunks(DataSource dataSource, ByteBuffer inMemoryData,
+            ByteBuffer output) throws IOException {
+        final long size = (dataSource != null) ? dataSource.size() : inMemoryData.capacity();
         final int chunks = (int) divideRoundup(size, CHUNK_SIZE);
-
-        /** Single IO operation size, in chunks. */
-        final int ioSizeChunks = MAX_PREFETCH_CHUNKS;
-
-        final byte[][] hashes = new byte[chunks][];
-
-        Phaser tasks = new Phaser(1);
-
-        // Reading the input file as fast as we can.
-        final long maxReadSize = ioSizeChunks * CHUNK_SIZE;
-
-        long readOffset = 0;
-        int startChunkIndex = 0;
-        while (readOffset < size) {
-            final long readLimit = Math.min(readOffset + maxReadSize, size);
-            final int readSize = (int) (readLimit - readOffset);
-            final int bufferSizeChunks = (int) divideRoundup(readSize, CHUNK_SIZE);
-
-            // Overllocating to zero-pad last chunk.
-            // With 4MiB block size, 32 threads and 4 queue size we might allocate up to 144MiB.
-            final ByteBuffer buffer = ByteBuffer.allocate(bufferSizeChunks * CHUNK_SIZE);
-            dataSource.copyTo(readOffset, readSize, buffer);
-            buffer.rewind();
-
-            final int readChunkIndex = startChunkIndex;
-            Runnable task = () -> {
-                final MessageDigest md = cloneMessageDigest();
-                for (int offset = 0, finish = buffer.capacity(), chunkIndex = readChunkIndex;
-                        offset < finish; offset += CHUNK_SIZE, ++chunkIndex) {
-                    ByteBuffer chunk = slice(buffer, offset, offset + CHUNK_SIZE);
-                    hashes[chunkIndex] = saltedDigest(md, chunk);
-                }
-                tasks.arriveAndDeregister();
-            };
-            tasks.register();
-            mExecutor.execute(task);
-
-            startChunkIndex += bufferSizeChunks;
-            readOffset += readSize;
+        if (chunks == 0) {
+            return;
         }
+        final int batchChunks = (int) Math.min(MAX_PREFETCH_CHUNKS,
+                Math.max(MIN_CHUNKS_PER_WORKER,
+                        divideRoundup(chunks, DIGEST_PARALLELISM * BATCHES_PER_WORKER)));
+        final int batches = (int) divideRoundup(chunks, batchChunks);
+        final AtomicInteger nextBatch = new AtomicInteger();
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        mExecutor.execute(() -> () -> {
+            MessageDigest md = cloneMessageDigest();
+            int digestSize = md.getDigestLength();
+            ByteBuffer out = output.duplicate();
+            ByteBuffer readBuffer = null;
+            int batch;
+            while ((failure.get() == null) && ((batch = nextBatch.getAndIncrement()) < batches)) {
+                int firstChunk = batch * batchChunks;
+                long batchOffset = (long) firstChunk * CHUNK_SIZE;
+                int batchSize = (int) Math.min(size - batchOffset, (long) batchChunks * CHUNK_SIZE);
+                int batchSizeChunks = (int) divideRoundup(batchSize, CHUNK_SIZE);
+
+                ByteBuffer data;
+                if (inMemoryData != null) {
+                    data = slice(inMemoryData, (int) batchOffset, (int) batchOffset + batchSize);
+                } else {
+                    if (readBuffer == null) {
+                        readBuffer = ByteBuffer.allocate(batchChunks * CHUNK_SIZE);
+                    }
+                    readBuffer.clear();
+                    try {
+                        dataSource.copyTo(batchOffset, batchSize, readBuffer);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                        return;
+                    }
+                    // Zero-pad the last chunk.
+                    int paddedSize = batchSizeChunks * CHUNK_SIZE;
+                    while (readBuffer.position() < paddedSize) {
+                        readBuffer.put((byte) 0);
+                    }
+                    data = slice(readBuffer, 0, paddedSize);
+                }
 
-        // Waiting for the tasks to complete.
-        tasks.arriveAndAwaitAdvance();
+                out.position(firstChunk * digestSize);
+                for (int offset = 0, finish = batchSizeChunks * CHUNK_SIZE; offset < finish;
+                        offset += CHUNK_SIZE) {
+                    out.put(saltedDigest(md, slice(data, offset, offset + CHUNK_SIZE)));
+                }
+            }
+        });
 
-        // Streaming hashes back.
-        for (byte[] hash : hashes) {
-            dataSink.consume(hash, 0, hash.length);
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
         }
     }
 
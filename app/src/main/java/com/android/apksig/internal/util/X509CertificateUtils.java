@@ -21,6 +21,7 @@ import com.android.apksig.internal.asn1.Asn1DecodingException;
 import com.android.apksig.internal.asn1.Asn1DerEncoder;
 import com.android.apksig.internal.asn1.Asn1EncodingException;
 import com.android.apksig.internal.x509.Certificate;
+import com.android.apksig.util.X509CertificateCache;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -99,6 +100,22 @@ public class X509CertificateUtils {
      */
     public static X509Certificate generateCertificate(byte[] encodedForm,
             CertificateFactory certFactory) throws CertificateException {
+        X509CertificateCache cache = X509CertificateCache.getDefault();
+        if (cache != null) {
+            return cache.getCertificate(encodedForm, certFactory);
+        }
+        return decodeCertificate(encodedForm, certFactory);
+    }
+
+    /**
+     * Generates an {@code X509Certificate} from the encoded form using the provided
+     * {@code CertificateFactory}, bypassing the {@link X509CertificateCache#getDefault() default
+     * cache}.
+     *
+     * @throws CertificateException if the encodedForm cannot be decoded to a valid certificate.
+     */
+    public static X509Certificate decodeCertificate(byte[] encodedForm,
+            CertificateFactory certFactory) throws CertificateException {
         X509Certificate certificate;
         try {
             certificate = (X509Certificate) certFactory.generateCertificate(
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.zip;
+
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.zip.ZipFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact index of the records of a ZIP Central Directory (CD), supporting constant-time lookup
+ * of records by entry name.
+ *
+ * <p>Unlike a list of {@link CentralDirectoryRecord} instances, the index does not create an
+ * object per record. The offsets and sizes of the records are stored in primitive arrays, names
+ * are kept as raw bytes in the Central Directory buffer shared by all records, and names are
+ * looked up using an open-addressing hash table of record indices. Names are decoded into
+ * {@code String}s and {@code CentralDirectoryRecord} instances are created only when requested.
+ *
+ * <p>Names are compared as the {@code String}s they decode to. Names which are not valid UTF-8
+ * are thus indexed by the UTF-8 encoding of their decoded form, in which malformed bytes are
+ * replaced with U+FFFD. For example, {@code a\xFF} and {@code a\xFE} are the same name.
+ *
+ * <p>Records are indexed in the order in which they are stored in the Central Directory. If
+ * several records have the same name, lookups return the first of them.
+ */
+public class CentralDirectoryIndex {
+    private static final int RECORD_SIGNATURE = 0x02014b50;
+    private static final int HEADER_SIZE_BYTES = 46;
+
+    private static final int CRC32_OFFSET = 16;
+    private static final int COMPRESSED_SIZE_OFFSET = 20;
+    private static final int UNCOMPRESSED_SIZE_OFFSET = 24;
+    private static final int NAME_LENGTH_OFFSET = 28;
+    private static final int EXTRA_LENGTH_OFFSET = 30;
+    private static final int COMMENT_LENGTH_OFFSET = 32;
+    private static final int LOCAL_FILE_HEADER_OFFSET_OFFSET = 42;
+    private static final int NAME_OFFSET = HEADER_SIZE_BYTES;
+
+    private final ByteBuffer mCd;
+    private final int mRecordCount;
+    private final int mSizeBytes;
+    private final int[] mRecordOffsets;
+    private final int[] mRecordSizes;
+    private final int[] mNameSizes;
+    private final long[] mLocalFileHeaderOffsets;
+    private final long[] mCompressedSizes;
+    private final long[] mUncompressedSizes;
+
+    /**
+     * Open-addressing hash table of record indices plus one, keyed by name. {@code 0} denotes an
+     * empty slot. The length of the table is a power of two.
+     */
+    private final int[] mNameTable;
+    private final int mFirstDuplicateNameIndex;
+
+    /**
+     * UTF-8 encoding of the decoded name of each record whose name is not valid UTF-8, or
+     * {@code null} if the names of all records are valid UTF-8.
+     */
+    private byte[][] mReencodedNames;
+
+    private CentralDirectoryIndex(ByteBuffer cd, int expectedRecordCount, long cdOffset)
+            throws ApkFormatException {
+        mCd = cd;
+        mRecordOffsets = new int[expectedRecordCount];
+        mRecordSizes = new int[expectedRecordCount];
+        mNameSizes = new int[expectedRecordCount];
+        mLocalFileHeaderOffsets = new long[expectedRecordCount];
+        mCompressedSizes = new long[expectedRecordCount];
+        mUncompressedSizes = new long[expectedRecordCount];
+        int tableSize = Integer.highestOneBit(Math.max(1, expectedRecordCount) * 2 - 1) << 1;
+        mNameTable = new int[tableSize];
+
+        int firstDuplicateNameIndex = -1;
+        int offset = 0;
+        for (int i = 0; i < expectedRecordCount; i++) {
+            try {
+                readRecordHeader(i, offset);
+            } catch (ZipFormatException e) {
+                throw new ApkFormatException(
+                        "Malformed ZIP Central Directory record #" + (i + 1)
+                                + " at file offset " + (cdOffset + offset),
+                        e);
+            }
+            reencodeNameIfNotUtf8(i);
+            if ((!addToNameTable(i)) && (firstDuplicateNameIndex == -1)) {
+                firstDuplicateNameIndex = i;
+            }
+            offset += mRecordSizes[i];
+        }
+        mRecordCount = expectedRecordCount;
+        mSizeBytes = offset;
+        mFirstDuplicateNameIndex = firstDuplicateNameIndex;
+    }
+
+    /**
+     * Returns the index of the specified number of records at the start of the provided Central
+     * Directory. The buffer must not be modified while the index is in use.
+     *
+     * @param cd Central Directory contents, from position to limit
+     * @param expectedRecordCount number of records in the Central Directory
+     * @param cdOffset offset of the Central Directory in the file, used in error messages only
+     *
+     * @throws ApkFormatException if a record is malformed
+     */
+    public static CentralDirectoryIndex read(
+            ByteBuffer cd, int expectedRecordCount, long cdOffset) throws ApkFormatException {
+        ByteBuffer cdSlice = cd.slice();
+        cdSlice.order(ByteOrder.LITTLE_ENDIAN);
+        return new CentralDirectoryIndex(cdSlice, expectedRecordCount, cdOffset);
+    }
+
+    private void readRecordHeader(int index, int offset) throws ZipFormatException {
+        int remaining = mCd.limit() - offset;
+        if (remaining < HEADER_SIZE_BYTES) {
+            throw new ZipFormatException(
+                    "Input too short. Need at least: " + HEADER_SIZE_BYTES
+                            + " bytes, available: " + remaining + " bytes",
+                    new BufferUnderflowException());
+        }
+        int recordSignature = mCd.getInt(offset);
+        if (recordSignature != RECORD_SIGNATURE) {
+            throw new ZipFormatException(
+                    "Not a Central Directory record. Signature: 0x"
+                            + Long.toHexString(recordSignature & 0xffffffffL));
+        }
+        int nameSize = ZipUtils.getUnsignedInt16(mCd, offset + NAME_LENGTH_OFFSET);
+        int recordSize =
+                HEADER_SIZE_BYTES
+                        + nameSize
+                        + ZipUtils.getUnsignedInt16(mCd, offset + EXTRA_LENGTH_OFFSET)
+                        + ZipUtils.getUnsignedInt16(mCd, offset + COMMENT_LENGTH_OFFSET);
+        if (recordSize > remaining) {
+            throw new ZipFormatException(
+                    "Input too short. Need: " + recordSize + " bytes, available: "
+                            + remaining + " bytes",
+                    new BufferUnderflowException());
+        }
+        mRecordOffsets[index] = offset;
+        mRecordSizes[index] = recordSize;
+        mNameSizes[index] = nameSize;
+        mLocalFileHeaderOffsets[index] =
+                ZipUtils.getUnsignedInt32(mCd, offset + LOCAL_FILE_HEADER_OFFSET_OFFSET);
+        mCompressedSizes[index] = ZipUtils.getUnsignedInt32(mCd, offset + COMPRESSED_SIZE_OFFSET);
+        mUncompressedSizes[index] =
+                ZipUtils.getUnsignedInt32(mCd, offset + UNCOMPRESSED_SIZE_OFFSET);
+    }
+
+    /**
+     * Records the UTF-8 encoding of the decoded name of the specified record if the name is not
+     * valid UTF-8, i.e., if decoding and encoding the name does not yield the same bytes.
+     */
+    private void reencodeNameIfNotUtf8(int index) {
+        int nameOffset = mRecordOffsets[index] + NAME_OFFSET;
+        int nameSize = mNameSizes[index];
+        boolean ascii = true;
+        for (int i = 0; i < nameSize; i++) {
+            if (mCd.get(nameOffset + i) < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            return;
+        }
+        byte[] reencoded = getName(index).getBytes(StandardCharsets.UTF_8);
+        if ((reencoded.length == nameSize)
+                && (regionMatches(mCd, nameOffset, ByteBuffer.wrap(reencoded), 0, nameSize))) {
+            return;
+        }
+        if (mReencodedNames == null) {
+            mReencodedNames = new byte[mRecordOffsets.length][];
+        }
+        mReencodedNames[index] = reencoded;
+    }
+
+    /** Returns the buffer containing the name of the specified record, as compared by lookups. */
+    private ByteBuffer getNameBuffer(int index) {
+        return ((mReencodedNames != null) && (mReencodedNames[index] != null))
+                ? ByteBuffer.wrap(mReencodedNames[index])
+                : mCd;
+    }
+
+    private int getNameOffset(int index) {
+        return ((mReencodedNames != null) && (mReencodedNames[index] != null))
+                ? 0
+                : mRecordOffsets[index] + NAME_OFFSET;
+    }
+
+    private int getNameSize(int index) {
+        return ((mReencodedNames != null) && (mReencodedNames[index] != null))
+                ? mReencodedNames[index].length
+                : mNameSizes[index];
+    }
+
+    /**
+     * Adds the specified record to the name table. Returns {@code false} if the table already
+     * contains a record with the same name, in which case the table is not modified.
+     */
+    private boolean addToNameTable(int index) {
+        ByteBuffer nameBuf = getNameBuffer(index);
+        int nameOffset = getNameOffset(index);
+        int nameSize = getNameSize(index);
+        int mask = mNameTable.length - 1;
+        int slot = hash(nameBuf, nameOffset, nameSize) & mask;
+        while (mNameTable[slot] != 0) {
+            int other = mNameTable[slot] - 1;
+            if ((getNameSize(other) == nameSize)
+                    && (regionMatches(getNameBuffer(other), getNameOffset(other), nameBuf,
+                            nameOffset, nameSize))) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        mNameTable[slot] = index + 1;
+        return true;
+    }
+
+    /** Returns the number of records in the index. */
+    public int size() {
+        return mRecordCount;
+    }
+
+    /** Returns the number of bytes of the Central Directory occupied by the indexed records. */
+    public int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /**
+     * Returns the index of the first record whose name is the same as that of an earlier record,
+     * or {@code -1} if all names are unique.
+     */
+    public int getFirstDuplicateNameIndex() {
+        return mFirstDuplicateNameIndex;
+    }
+
+    /**
+     * Returns the index of the first record with the provided name, or {@code -1} if there is no
+     * such record.
+     */
+    public int indexOf(String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer nameBuf = ByteBuffer.wrap(nameBytes);
+        int mask = mNameTable.length - 1;
+        int slot = hash(nameBuf, 0, nameBytes.length) & mask;
+        while (mNameTable[slot] != 0) {
+            int index = mNameTable[slot] - 1;
+            if ((getNameSize(index) == nameBytes.length)
+                    && (regionMatches(getNameBuffer(index), getNameOffset(index), nameBuf, 0,
+                            nameBytes.length))) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first record with the provided name, or {@code null} if there is no such
+     * record.
+     */
+    public CentralDirectoryRecord findRecord(String name) {
+        int index = indexOf(name);
+        return (index != -1) ? getRecord(index) : null;
+    }
+
+    /** Returns the name of the specified record. */
+    public String getName(int index) {
+        return CentralDirectoryRecord.getName(
+                mCd, mRecordOffsets[index] + NAME_OFFSET, mNameSizes[index]);
+    }
+
+    public long getLocalFileHeaderOffset(int index) {
+        return mLocalFileHeaderOffsets[index];
+    }
+
+    public long getCompressedSize(int index) {
+        return mCompressedSizes[index];
+    }
+
+    public long getUncompressedSize(int index) {
+        return mUncompressedSizes[index];
+    }
+
+    /** Returns the specified record. A new instance is created on every invocation. */
+    public CentralDirectoryRecord getRecord(int index) {
+        ByteBuffer record = mCd.duplicate();
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        record.limit(mRecordOffsets[index] + mRecordSizes[index]);
+        record.position(mRecordOffsets[index]);
+        try {
+            return CentralDirectoryRecord.getRecord(record);
+        } catch (ZipFormatException e) {
+            // Not expected: the record was validated when it was indexed
+            throw new RuntimeException("Failed to read Central Directory record #" + (index + 1),
+                    e);
+        }
+    }
+
+    /** Returns all records, in the order in which they are stored in the Central Directory. */
+    public List<CentralDirectoryRecord> getRecords() {
+        List<CentralDirectoryRecord> result = new ArrayList<>(mRecordCount);
+        for (int i = 0; i < mRecordCount; i++) {
+            result.add(getRecord(i));
+        }
+        return result;
+    }
+
+    private static boolean regionMatches(
+            ByteBuffer buf, int offset, ByteBuffer other, int otherOffset, int size) {
+        for (int i = 0; i < size; i++) {
+            if (buf.get(offset + i) != other.get(otherOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buf, int offset, int size) {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + buf.get(offset + i);
+        }
+        // Spread the high bits to the low bits used to select a slot
+        return result ^ (result >>> 16);
+    }
+}
@@ -17,8 +17,10 @@
 package com.android.apksig.internal.zip;
 
 import com.android.apksig.internal.util.ByteBufferSink;
+import com.android.apksig.util.BufferPools;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.MetricsRecorders;
 import com.android.apksig.zip.ZipFormatException;
 import java.io.Closeable;
 import java.io.IOException;
@@ -377,10 +379,23 @@ public class LocalFileRecord {
     public void outputUncompressedData(
             DataSource lfhSection,
             DataSink sink) throws IOException, ZipFormatException {
+        outputUncompressedData(lfhSection, sink, null);
+    }
+
+    /**
+     * Sends uncompressed data of this record into the the provided data sink, inflating it with
+     * the provided {@code inflater} if the data is compressed. The {@code inflater} must be a raw
+     * (no-wrap) inflater. It is reset, but not ended, once done, so that it can be reused for
+     * other records. If {@code inflater} is {@code null}, a new inflater is used.
+     */
+    public void outputUncompressedData(
+            DataSource lfhSection,
+            DataSink sink,
+            Inflater inflater) throws IOException, ZipFormatException {
         long dataStartOffsetInArchive = mStartOffsetInArchive + mDataStartOffset;
         try {
             if (mDataCompressed) {
-                try (InflateSinkAdapter inflateAdapter = new InflateSinkAdapter(sink)) {
+                try (InflateSinkAdapter inflateAdapter = new InflateSinkAdapter(sink, inflater)) {
                     lfhSection.feed(dataStartOffsetInArchive, mDataSize, inflateAdapter);
                     long actualUncompressedSize = inflateAdapter.getOutputByteCount();
                     if (actualUncompressedSize != mUncompressedDataSize) {
@@ -419,6 +434,20 @@ public class LocalFileRecord {
             CentralDirectoryRecord cdRecord,
             long cdStartOffsetInArchive,
             DataSink sink) throws ZipFormatException, IOException {
+        outputUncompressedData(source, cdRecord, cdStartOffsetInArchive, sink, null);
+    }
+
+    /**
+     * Sends uncompressed data pointed to by the provided ZIP Central Directory (CD) record into the
+     * provided data sink, reusing the provided raw {@code inflater} (if not {@code null}) to
+     * inflate compressed data. See {@link #outputUncompressedData(DataSource, DataSink, Inflater)}.
+     */
+    public static void outputUncompressedData(
+            DataSource source,
+            CentralDirectoryRecord cdRecord,
+            long cdStartOffsetInArchive,
+            DataSink sink,
+            Inflater inflater) throws ZipFormatException, IOException {
         // IMPLEMENTATION NOTE: This method attempts to mimic the behavior of Android platform
         // exhibited when reading an APK for the purposes of verifying its signatures.
         // When verifying an APK, Android doesn't care reading the extra field or the Data
@@ -431,7 +460,7 @@ public class LocalFileRecord {
                         false, // don't care about the extra field
                         false // don't read the Data Descriptor
                         );
-        lfhRecord.outputUncompressedData(source, sink);
+        lfhRecord.outputUncompressedData(source, sink, inflater);
     }
 
     /**
@@ -462,15 +491,18 @@ public class LocalFileRecord {
      */
     private static class InflateSinkAdapter implements DataSink, Closeable {
         private final DataSink mDelegate;
+        private final boolean mOwnsInflater;
 
-        private Inflater mInflater = new Inflater(true);
-        private byte[] mOutputBuffer;
-        private byte[] mInputBuffer;
+        private Inflater mInflater;
+        private ByteBuffer mOutputBuffer;
+        private ByteBuffer mInputBuffer;
         private long mOutputByteCount;
         private boolean mClosed;
 
-        private InflateSinkAdapter(DataSink delegate) {
+        private InflateSinkAdapter(DataSink delegate, Inflater inflater) {
             mDelegate = delegate;
+            mOwnsInflater = (inflater == null);
+            mInflater = (inflater != null) ? inflater : new Inflater(true);
         }
 
         @Override
@@ -478,19 +510,21 @@ public class LocalFileRecord {
             checkNotClosed();
             mInflater.setInput(buf, offset, length);
             if (mOutputBuffer == null) {
-                mOutputBuffer = new byte[65536];
+                mOutputBuffer = BufferPools.getDefault().acquire(65536, false);
             }
+            byte[] output = mOutputBuffer.array();
+            int outputOffset = mOutputBuffer.arrayOffset();
             while (!mInflater.finished()) {
                 int outputChunkSize;
                 try {
-                    outputChunkSize = mInflater.inflate(mOutputBuffer);
+                    outputChunkSize = mInflater.inflate(output, outputOffset, 65536);
                 } catch (DataFormatException e) {
                     throw new IOException("Failed to inflate data", e);
                 }
                 if (outputChunkSize == 0) {
                     return;
                 }
-                mDelegate.consume(mOutputBuffer, 0, outputChunkSize);
+                mDelegate.consume(output, outputOffset, outputChunkSize);
                 mOutputByteCount += outputChunkSize;
             }
         }
@@ -503,12 +537,14 @@ public class LocalFileRecord {
                 buf.position(buf.limit());
             } else {
                 if (mInputBuffer == null) {
-                    mInputBuffer = new byte[65536];
+                    mInputBuffer = BufferPools.getDefault().acquire(65536, false);
                 }
+                byte[] input = mInputBuffer.array();
+                int inputOffset = mInputBuffer.arrayOffset();
                 while (buf.hasRemaining()) {
-                    int chunkSize = Math.min(buf.remaining(), mInputBuffer.length);
-                    buf.get(mInputBuffer, 0, chunkSize);
-                    consume(mInputBuffer, 0, chunkSize);
+                    int chunkSize = Math.min(buf.remaining(), 65536);
+                    buf.get(input, inputOffset, chunkSize);
+                    consume(input, inputOffset, chunkSize);
                 }
             }
         }
@@ -519,11 +555,24 @@ public class LocalFileRecord {
 
         @Override
         public void close() throws IOException {
+            if (!mClosed) {
+                MetricsRecorders.getDefault().onDataInflated(mOutputByteCount);
+            }
             mClosed = true;
-            mInputBuffer = null;
-            mOutputBuffer = null;
+            if (mInputBuffer != null) {
+                BufferPools.getDefault().release(mInputBuffer);
+                mInputBuffer = null;
+            }
+            if (mOutputBuffer != null) {
+                BufferPools.getDefault().release(mOutputBuffer);
+                mOutputBuffer = null;
+            }
             if (mInflater != null) {
-                mInflater.end();
+                if (mOwnsInflater) {
+                    mInflater.end();
+                } else {
+                    mInflater.reset();
+                }
                 mInflater = null;
             }
         }
@@ -19,6 +19,7 @@ package com.android.apksig.internal.zip;
 import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.internal.util.Pair;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 import com.android.apksig.zip.ZipSections;
 
@@ -28,6 +29,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
@@ -55,6 +57,12 @@ public abstract class ZipUtils {
 
     private static final int UINT16_MAX_VALUE = 0xffff;
 
+    private static final int DEFLATE_LEVEL = 9;
+    private static final int DEFLATE_BLOCK_SIZE_BYTES = 128 * 1024;
+    private static final int DEFLATE_DICTIONARY_SIZE_BYTES = 32 * 1024;
+    private static final int PARALLEL_DEFLATE_MIN_INPUT_SIZE_BYTES = 2 * DEFLATE_BLOCK_SIZE_BYTES;
+    private static final long CRC32_POLYNOMIAL = 0xedb88320L;
+
     /**
      * Sets the offset of the start of the ZIP Central Directory in the archive.
      *
@@ -307,6 +315,27 @@ public abstract class ZipUtils {
         return cdRecords;
     }
 
+    /**
+     * Returns the index of the ZIP Central Directory of the provided APK. Unlike
+     * {@link #parseZipCentralDirectory(DataSource, ZipSections)}, this does not create an object
+     * per entry, which makes it the cheaper option when only a few entries are looked up by name.
+     * Directory entries are indexed too, but cannot be found by names other than theirs, which
+     * end with {@code /}.
+     */
+    public static CentralDirectoryIndex indexZipCentralDirectory(
+            DataSource apk,
+            ZipSections apkSections)
+            throws IOException, ApkFormatException {
+        long cdSizeBytes = apkSections.getZipCentralDirectorySizeBytes();
+        if (cdSizeBytes > Integer.MAX_VALUE) {
+            throw new ApkFormatException("ZIP Central Directory too large: " + cdSizeBytes);
+        }
+        long cdOffset = apkSections.getZipCentralDirectoryOffset();
+        ByteBuffer cd = apk.getByteBuffer(cdOffset, (int) cdSizeBytes);
+        return CentralDirectoryIndex.read(
+                cd, apkSections.getZipCentralDirectoryRecordCount(), cdOffset);
+    }
+
     static void setUnsignedInt16(ByteBuffer buffer, int offset, int value) {
         if ((value < 0) || (value > 0xffff)) {
             throw new IllegalArgumentException("uint16 value of out range: " + value);
@@ -360,7 +389,7 @@ public abstract class ZipUtils {
         crc32.update(inputBuf, inputOffset, inputLength);
         long crc32Value = crc32.getValue();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater(9, true);
+        Deflater deflater = new Deflater(DEFLATE_LEVEL, true);
         deflater.setInput(inputBuf, inputOffset, inputLength);
         deflater.finish();
         byte[] buf = new byte[65536];
@@ -371,6 +400,177 @@ public abstract class ZipUtils {
         return new DeflateResult(inputLength, crc32Value, out.toByteArray());
     }
 
+    /**
+     * Deflates the provided input, splitting it into blocks which are compressed in parallel
+     * using the provided executor.
+     *
+     * <p>Each block is compressed by its own {@code Deflater}, primed with the last 32 KB of the
+     * preceding block as the dictionary, and all blocks but the last end with a sync flush. The
+     * compressed blocks are thus simply concatenated to form a single valid deflate stream. The
+     * CRC32 of each block is computed alongside its compression, and the CRC32 of the whole input
+     * is obtained by combining those of the blocks.
+     *
+     * <p>The output does not depend on the number of threads used. Inputs too small to benefit
+     * from parallelism are compressed as by {@link #deflate(ByteBuffer)}.
+     */
+    public static DeflateResult deflate(ByteBuffer input, RunnablesExecutor executor) {
+        int inputLength = input.remaining();
+        if (inputLength < PARALLEL_DEFLATE_MIN_INPUT_SIZE_BYTES) {
+            return deflate(input);
+        }
+        byte[] inputBuf;
+        int inputOffset;
+        if (input.hasArray()) {
+            inputBuf = input.array();
+            inputOffset = input.arrayOffset() + input.position();
+            input.position(input.limit());
+        } else {
+            inputBuf = new byte[inputLength];
+            inputOffset = 0;
+            input.get(inputBuf);
+        }
+
+        int blockCount =
+                (int) (((long) inputLength + DEFLATE_BLOCK_SIZE_BYTES - 1)
+                        / DEFLATE_BLOCK_SIZE_BYTES);
+        byte[][] blockOutputs = new byte[blockCount][];
+        long[] blockCrc32s = new long[blockCount];
+        AtomicInteger nextBlockIndex = new AtomicInteger();
+        executor.execute(() -> () -> {
+            CRC32 crc32 = new CRC32();
+            byte[] buf = new byte[65536];
+            int blockIndex;
+            while ((blockIndex = nextBlockIndex.getAndIncrement()) < blockCount) {
+                int blockStart = blockIndex * DEFLATE_BLOCK_SIZE_BYTES;
+                int blockLength = Math.min(DEFLATE_BLOCK_SIZE_BYTES, inputLength - blockStart);
+                crc32.reset();
+                crc32.update(inputBuf, inputOffset + blockStart, blockLength);
+                blockCrc32s[blockIndex] = crc32.getValue();
+                blockOutputs[blockIndex] =
+                        deflateBlock(
+                                inputBuf,
+                                inputOffset,
+                                blockStart,
+                                blockLength,
+                                blockIndex == blockCount - 1,
+                                buf);
+            }
+        });
+
+        long crc32Value = blockCrc32s[0];
+        int outputLength = blockOutputs[0].length;
+        for (int i = 1; i < blockCount; i++) {
+            int blockLength =
+                    Math.min(DEFLATE_BLOCK_SIZE_BYTES, inputLength - i * DEFLATE_BLOCK_SIZE_BYTES);
+            crc32Value = crc32Combine(crc32Value, blockCrc32s[i], blockLength);
+            outputLength += blockOutputs[i].length;
+        }
+        byte[] output = new byte[outputLength];
+        int outputOffset = 0;
+        for (byte[] blockOutput : blockOutputs) {
+            System.arraycopy(blockOutput, 0, output, outputOffset, blockOutput.length);
+            outputOffset += blockOutput.length;
+        }
+        return new DeflateResult(inputLength, crc32Value, output);
+    }
+
+    /**
+     * Deflates the specified block of the input. The block is terminated with a sync flush unless
+     * it is the last one, in which case the deflate stream is finished.
+     */
+    private static byte[] deflateBlock(
+            byte[] inputBuf,
+            int inputOffset,
+            int blockStart,
+            int blockLength,
+            boolean last,
+            byte[] buf) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(blockLength / 2);
+        Deflater deflater = new Deflater(DEFLATE_LEVEL, true);
+        try {
+            if (blockStart > 0) {
+                int dictionaryLength = Math.min(DEFLATE_DICTIONARY_SIZE_BYTES, blockStart);
+                deflater.setDictionary(
+                        inputBuf, inputOffset + blockStart - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(inputBuf, inputOffset + blockStart, blockLength);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int chunkSize = deflater.deflate(buf);
+                    out.write(buf, 0, chunkSize);
+                }
+            } else {
+                // A sync flush is complete once it no longer fills the output buffer
+                int chunkSize;
+                do {
+                    chunkSize = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, chunkSize);
+                } while (chunkSize == buf.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the CRC32 of the concatenation of two byte sequences, given the CRC32 of each and
+     * the length of the second one. This is the algorithm of zlib's {@code crc32_combine}.
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        // Operator for one zero bit in odd, then for two and four zero bits in even and odd
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = CRC32_POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Apply length2 zero bytes to crc1, the first squaring yielding the operator for one zero
+        // byte
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
     public static class DeflateResult {
         public final int inputSizeBytes;
         public final long inputCrc32;
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of temporary buffers used when reading and transforming data, such as when a file-backed
+ * {@link DataSource} feeds its data into a {@link DataSink} or when a ZIP entry is inflated.
+ *
+ * <p>Implementations must be thread-safe. The pool used by this library can be changed via
+ * {@link BufferPools#setDefault(BufferPool)}.
+ */
+public interface BufferPool {
+    /** Pool which allocates a new buffer for every request and discards released buffers. */
+    static final BufferPool UNPOOLED = new BufferPool() {
+        @Override
+        public ByteBuffer acquire(int size, boolean direct) {
+            return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {}
+    };
+
+    /**
+     * Returns a buffer whose position is {@code 0} and whose limit is {@code size}. The buffer's
+     * capacity may be larger than {@code size}. Its contents are undefined.
+     *
+     * @param size number of bytes the buffer must be able to hold
+     * @param direct whether the buffer must be direct, or must be backed by an accessible array
+     */
+    ByteBuffer acquire(int size, boolean direct);
+
+    /**
+     * Returns the provided buffer, previously obtained from {@link #acquire(int, boolean)}, to the
+     * pool. The caller must not use the buffer after this method is invoked.
+     */
+    void release(ByteBuffer buffer);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+/**
+ * Utility methods for working with {@link BufferPool} abstraction.
+ */
+public abstract class BufferPools {
+    private BufferPools() {}
+
+    private static volatile BufferPool sDefault = new ThreadLocalBufferPool();
+
+    /**
+     * Returns the {@link BufferPool} from which this library obtains its temporary I/O buffers. By
+     * default, this is a {@link ThreadLocalBufferPool}.
+     */
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Sets the {@link BufferPool} from which this library obtains its temporary I/O buffers. Use
+     * {@link BufferPool#UNPOOLED} to disable pooling.
+     */
+    public static void setDefault(BufferPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool == null");
+        }
+        sDefault = pool;
+    }
+}
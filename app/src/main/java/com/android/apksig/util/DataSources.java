@@ -18,6 +18,8 @@ package com.android.apksig.util;
 
 import com.android.apksig.internal.util.ByteBufferDataSource;
 import com.android.apksig.internal.util.FileChannelDataSource;
+import com.android.apksig.internal.util.MemoryMappedFileDataSource;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -77,4 +79,33 @@ public abstract class DataSources {
         }
         return new FileChannelDataSource(channel, offset, size);
     }
+
+    /**
+     * Returns a {@link DataSource} backed by the provided {@link FileChannel} mapped into memory
+     * using the provided {@code mode}.
+     *
+     * <p>Unlike {@link #asDataSource(FileChannel)}, the returned data source reads the file's data
+     * directly from the mapped memory: {@link DataSource#feed(long, long, DataSink) feed},
+     * {@link DataSource#slice(long, long) slice} and
+     * {@link DataSource#getByteBuffer(long, int) getByteBuffer} return views of the mapping rather
+     * than copies. This is best suited for large files which are read in full, such as when
+     * digesting an APK.
+     *
+     * <p>The size of the data source is that of the file at the time of this call. Changes to the
+     * contents of the file within that size will be visible in the data source. The mapping
+     * remains valid after the channel is closed and is released once the data source is no longer
+     * referenced.
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    public static DataSource asDataSource(FileChannel channel, FileChannel.MapMode mode)
+            throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel == null");
+        }
+        if (mode == null) {
+            throw new NullPointerException("mode == null");
+        }
+        return MemoryMappedFileDataSource.map(channel, mode);
+    }
 }
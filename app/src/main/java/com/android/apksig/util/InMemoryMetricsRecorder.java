@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MetricsRecorder} which accumulates metrics in memory, in counters which can be read at
+ * any time, e.g., to be exported periodically to a monitoring system.
+ *
+ * <p>Counters are updated without locking and are meant to be read while recording is in
+ * progress. Counters read one after the other are not guaranteed to be consistent with each other.
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+    private final ConcurrentMap<String, AtomicLong> mDigestedByteCounts =
+            new ConcurrentHashMap<>();
+    private final AtomicLong mInflatedByteCount = new AtomicLong();
+    private final AtomicLong mFileReadByteCount = new AtomicLong();
+    private final AtomicLong mStartedRunnableCount = new AtomicLong();
+    private final AtomicLong mQueueWaitNanos = new AtomicLong();
+
+    @Override
+    public void onContentDigested(String digestAlgorithm, long byteCount) {
+        AtomicLong counter = mDigestedByteCounts.get(digestAlgorithm);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = mDigestedByteCounts.putIfAbsent(digestAlgorithm, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(byteCount);
+    }
+
+    @Override
+    public void onDataInflated(long byteCount) {
+        mInflatedByteCount.addAndGet(byteCount);
+    }
+
+    @Override
+    public void onFileRead(long byteCount) {
+        mFileReadByteCount.addAndGet(byteCount);
+    }
+
+    @Override
+    public void onRunnableStarted(long queueWaitNanos) {
+        mStartedRunnableCount.incrementAndGet();
+        mQueueWaitNanos.addAndGet(queueWaitNanos);
+    }
+
+    /**
+     * Returns the number of bytes of APK contents digested so far, keyed by content digest
+     * algorithm.
+     */
+    public Map<String, Long> getDigestedByteCounts() {
+        Map<String, Long> result = new HashMap<>(mDigestedByteCounts.size());
+        for (Map.Entry<String, AtomicLong> entry : mDigestedByteCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /** Returns the number of bytes of ZIP entry data inflated so far. */
+    public long getInflatedByteCount() {
+        return mInflatedByteCount.get();
+    }
+
+    /** Returns the number of bytes read from file-backed data sources so far. */
+    public long getFileReadByteCount() {
+        return mFileReadByteCount.get();
+    }
+
+    /** Returns the number of runnables which started running on a thread pool so far. */
+    public long getStartedRunnableCount() {
+        return mStartedRunnableCount.get();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, which the runnables counted by
+     * {@link #getStartedRunnableCount()} waited in their thread pool's queue.
+     */
+    public long getQueueWaitNanos() {
+        return mQueueWaitNanos.get();
+    }
+
+    /** Resets all counters to zero. */
+    public void reset() {
+        mDigestedByteCounts.clear();
+        mInflatedByteCount.set(0);
+        mFileReadByteCount.set(0);
+        mStartedRunnableCount.set(0);
+        mQueueWaitNanos.set(0);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+/**
+ * Recorder of throughput metrics of the digest, inflate and I/O paths of this library, e.g., to
+ * tell hosts on which signing is I/O-bound from hosts on which it is CPU-bound.
+ *
+ * <p>Implementations must be thread-safe and cheap enough to be invoked on the hot path of signing
+ * and verification. The recorder used by this library can be changed via
+ * {@link MetricsRecorders#setDefault(MetricsRecorder)}.
+ */
+public interface MetricsRecorder {
+    /** Recorder which discards all metrics. */
+    static final MetricsRecorder NO_OP = new MetricsRecorder() {
+        @Override
+        public void onContentDigested(String digestAlgorithm, long byteCount) {}
+
+        @Override
+        public void onDataInflated(long byteCount) {}
+
+        @Override
+        public void onFileRead(long byteCount) {}
+
+        @Override
+        public void onRunnableStarted(long queueWaitNanos) {}
+    };
+
+    /**
+     * Invoked when a chunk of an APK's contents has been digested for APK Signature Scheme v2 or
+     * v3, e.g., by {@code CHUNKED_SHA256}. Chunks digested using several algorithms at once are
+     * reported once per algorithm.
+     */
+    void onContentDigested(String digestAlgorithm, long byteCount);
+
+    /** Invoked when the data of a compressed ZIP entry has been inflated. */
+    void onDataInflated(long byteCount);
+
+    /** Invoked when data has been read from a file-backed {@link DataSource}. */
+    void onFileRead(long byteCount);
+
+    /**
+     * Invoked when a runnable handed to a thread pool by a {@link RunnablesExecutor} starts
+     * running, with the time it waited in the pool's queue.
+     */
+    void onRunnableStarted(long queueWaitNanos);
+}
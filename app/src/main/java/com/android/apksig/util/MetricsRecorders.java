@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+/**
+ * Utility methods for working with {@link MetricsRecorder} abstraction.
+ */
+public abstract class MetricsRecorders {
+    private MetricsRecorders() {}
+
+    private static volatile MetricsRecorder sDefault = MetricsRecorder.NO_OP;
+
+    /**
+     * Returns the {@link MetricsRecorder} to which this library reports its metrics. By default,
+     * this is {@link MetricsRecorder#NO_OP}.
+     */
+    public static MetricsRecorder getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Sets the {@link MetricsRecorder} to which this library reports its metrics, e.g., an
+     * {@link InMemoryMetricsRecorder}. Use {@link MetricsRecorder#NO_OP} to stop recording.
+     */
+    public static void setDefault(MetricsRecorder recorder) {
+        if (recorder == null) {
+            throw new NullPointerException("recorder == null");
+        }
+        sDefault = recorder;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RunnablesExecutor} which runs the provided runnables on a long-lived thread pool.
+ *
+ * <p>Unlike {@link RunnablesExecutor#MULTI_THREADED}, which creates and tears down a thread pool
+ * on every invocation, instances of this class keep their threads around between invocations and
+ * can be shared between any number of {@link com.android.apksig.ApkSigner} and
+ * {@link com.android.apksig.ApkVerifier} instances, including concurrently.
+ *
+ * <p>The calling thread always runs one of the runnables itself. Runnables which have not been
+ * picked up by the pool by the time the calling thread's runnable completes are not run. This
+ * relies on the runnables created by a {@link RunnablesProvider} sharing their work, such that any
+ * single runnable drains all of the work which remains, and means that calling {@link #execute}
+ * from a thread of the pool itself never deadlocks.
+ *
+ * <p>Instances which created their own pool shut it down when {@link #close() closed}. Pools
+ * provided by the caller are never shut down by this class.
+ */
+public class PooledRunnablesExecutor implements RunnablesExecutor, Closeable {
+    private static final int DEFAULT_PARALLELISM =
+            Math.min(32, Runtime.getRuntime().availableProcessors());
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService mExecutorService;
+    private final int mParallelism;
+    private final boolean mOwnsExecutorService;
+    private volatile boolean mClosed;
+
+    /**
+     * Constructs a new executor backed by its own pool with one thread per available processor
+     * (up to 32).
+     */
+    public PooledRunnablesExecutor() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructs a new executor backed by its own pool of up to {@code parallelism} threads. Idle
+     * threads are released after a minute and re-created on demand.
+     */
+    public PooledRunnablesExecutor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(parallelism, parallelism,
+                        KEEP_ALIVE_SECONDS, SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        new DaemonThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+        mExecutorService = pool;
+        mParallelism = parallelism;
+        mOwnsExecutorService = true;
+    }
+
+    /**
+     * Constructs a new executor which runs up to {@code parallelism} runnables at a time, one on
+     * the calling thread and the rest on the provided {@code executorService}. The
+     * {@code executorService} is owned by the caller and is not shut down by {@link #close()}.
+     */
+    public PooledRunnablesExecutor(ExecutorService executorService, int parallelism) {
+        if (executorService == null) {
+            throw new NullPointerException("executorService == null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mExecutorService = executorService;
+        mParallelism = parallelism;
+        mOwnsExecutorService = false;
+    }
+
+    /**
+     * Returns the maximum number of runnables run concurrently for a single {@link #execute} call.
+     */
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    @Override
+    public void execute(RunnablesProvider provider) {
+        if (mClosed) {
+            throw new IllegalStateException("Executor closed");
+        }
+
+        List<PoolTask> tasks = new ArrayList<>(mParallelism - 1);
+        Throwable failure = null;
+        try {
+            for (int i = 1; i < mParallelism; ++i) {
+                PoolTask task = new PoolTask(provider);
+                task.mFuture = mExecutorService.submit(task);
+                tasks.add(task);
+            }
+
+            provider.createRunnable().run();
+        } catch (Throwable t) {
+            failure = t;
+        }
+
+        // Tasks which already started may still be reading the caller's data, even if the
+        // caller's runnable failed. Wait for them so that the caller can release the data once
+        // this method returns or throws.
+        failure = finishTasks(tasks, failure);
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Prevents the provided tasks from running if they have not started yet and waits for the
+     * others to complete. Returns {@code failure} or, if it is {@code null}, the first failure of
+     * a task. Other failures of tasks are added to the returned failure as suppressed exceptions.
+     */
+    private static Throwable finishTasks(List<PoolTask> tasks, Throwable failure) {
+        // Future.cancel does not indicate whether a task has started running, hence tasks claim
+        // themselves before running, and are claimed here to prevent them from running.
+        for (PoolTask task : tasks) {
+            if (task.claim()) {
+                task.mFuture.cancel(false);
+                continue;
+            }
+            try {
+                waitFor(task.mFuture);
+            } catch (Throwable taskFailure) {
+                if (failure == null) {
+                    failure = taskFailure;
+                } else if (failure != taskFailure) {
+                    failure.addSuppressed(taskFailure);
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Shuts down the pool if it was created by this executor. Runnables already in progress are
+     * allowed to complete. Subsequent {@link #execute} calls fail.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        if (mOwnsExecutorService) {
+            mExecutorService.shutdown();
+        }
+    }
+
+    private static void waitFor(Future<?> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Runnable submitted to the pool, which runs only if not claimed by the caller first. */
+    private static class PoolTask implements Runnable {
+        private final RunnablesProvider mProvider;
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+        private final long mSubmittedNanos = System.nanoTime();
+        private Future<?> mFuture;
+
+        private PoolTask(RunnablesProvider provider) {
+            mProvider = provider;
+        }
+
+        /** Returns {@code true} if this task was claimed by this call. */
+        private boolean claim() {
+            return mClaimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (claim()) {
+                MetricsRecorders.getDefault().onRunnableStarted(
+                        System.nanoTime() - mSubmittedNanos);
+                mProvider.createRunnable().run();
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger sPoolNumber = new AtomicInteger(1);
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+        private final String mNamePrefix =
+                "apksig-pool-" + sPoolNumber.getAndIncrement() + "-thread-";
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, mNamePrefix + mThreadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
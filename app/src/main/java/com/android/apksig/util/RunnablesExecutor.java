@@ -22,6 +22,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
 public interface RunnablesExecutor {
     static final RunnablesExecutor SINGLE_THREADED = p -> p.createRunnable().run();
@@ -39,21 +40,44 @@ public interface RunnablesExecutor {
                             new ThreadPoolExecutor.CallerRunsPolicy());
 
             Phaser tasks = new Phaser(1);
+            // First failure of a runnable, rethrown on the calling thread
+            AtomicReference<Throwable> failure = new AtomicReference<>();
 
-            for (int i = 0; i < PARALLELISM; ++i) {
-                Runnable task = () -> {
-                    Runnable r = provider.createRunnable();
-                    r.run();
-                    tasks.arriveAndDeregister();
-                };
-                tasks.register();
-                mExecutor.execute(task);
-            }
+            try {
+                for (int i = 0; i < PARALLELISM; ++i) {
+                    long submittedNanos = System.nanoTime();
+                    Runnable task = () -> {
+                        try {
+                            MetricsRecorders.getDefault().onRunnableStarted(
+                                    System.nanoTime() - submittedNanos);
+                            Runnable r = provider.createRunnable();
+                            r.run();
+                        } catch (Throwable t) {
+                            if ((!failure.compareAndSet(null, t)) && (failure.get() != t)) {
+                                failure.get().addSuppressed(t);
+                            }
+                        } finally {
+                            tasks.arriveAndDeregister();
+                        }
+                    };
+                    tasks.register();
+                    mExecutor.execute(task);
+                }
 
-            // Waiting for the tasks to complete.
-            tasks.arriveAndAwaitAdvance();
+                // Waiting for the tasks to complete.
+                tasks.arriveAndAwaitAdvance();
+            } finally {
+                mExecutor.shutdownNow();
+            }
 
-            mExecutor.shutdownNow();
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                throw new RuntimeException(t);
+            }
         }
     };
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BufferPool} which keeps a small number of released buffers per thread.
+ *
+ * <p>Requested sizes are rounded up to a power of two between {@link #MIN_POOLED_CAPACITY} and
+ * {@link #MAX_POOLED_CAPACITY}, and each thread keeps up to
+ * {@link #MAX_CACHED_BUFFERS_PER_SIZE_CLASS} released buffers of each such capacity, separately
+ * for direct and heap buffers. Larger buffers are never pooled. Because buffers do not move
+ * between threads, acquiring and releasing buffers does not require synchronization.
+ */
+public class ThreadLocalBufferPool implements BufferPool {
+    /** Capacity (in bytes) of the smallest pooled buffers. */
+    public static final int MIN_POOLED_CAPACITY = 4096;
+
+    /** Capacity (in bytes) of the largest pooled buffers. */
+    public static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+    /** Maximum number of released buffers of each capacity kept by each thread. */
+    public static final int MAX_CACHED_BUFFERS_PER_SIZE_CLASS = 2;
+
+    private static final int MIN_POOLED_CAPACITY_SHIFT =
+            Integer.numberOfTrailingZeros(MIN_POOLED_CAPACITY);
+    private static final int SIZE_CLASS_COUNT =
+            Integer.numberOfTrailingZeros(MAX_POOLED_CAPACITY) - MIN_POOLED_CAPACITY_SHIFT + 1;
+
+    private final ThreadLocal<Cache> mCache = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass != -1) {
+            buffer = mCache.get().poll(direct, sizeClass);
+        }
+        if (buffer != null) {
+            mHitCount.incrementAndGet();
+            buffer.clear();
+        } else {
+            mMissCount.incrementAndGet();
+            int capacity = (sizeClass != -1) ? getCapacity(sizeClass) : size;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = getSizeClass(capacity);
+        if ((sizeClass == -1) || (getCapacity(sizeClass) != capacity)
+                || (!buffer.isDirect() && !buffer.hasArray())) {
+            // Not a buffer this pool hands out.
+            return;
+        }
+        mCache.get().offer(buffer.isDirect(), sizeClass, buffer);
+    }
+
+    /**
+     * Returns the number of {@link #acquire(int, boolean)} requests satisfied with a previously
+     * released buffer.
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Returns the number of {@link #acquire(int, boolean)} requests which required allocating a
+     * new buffer.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the index of the smallest pooled capacity not less than {@code size}, or {@code -1}
+     * if buffers of {@code size} bytes are not pooled.
+     */
+    private static int getSizeClass(int size) {
+        if (size > MAX_POOLED_CAPACITY) {
+            return -1;
+        }
+        if (size <= MIN_POOLED_CAPACITY) {
+            return 0;
+        }
+        int ceilingShift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return ceilingShift - MIN_POOLED_CAPACITY_SHIFT;
+    }
+
+    private static int getCapacity(int sizeClass) {
+        return 1 << (sizeClass + MIN_POOLED_CAPACITY_SHIFT);
+    }
+
+    /** Released buffers of a single thread. */
+    private static class Cache {
+        private final ByteBuffer[][][] mBuffers =
+                new ByteBuffer[2][SIZE_CLASS_COUNT][MAX_CACHED_BUFFERS_PER_SIZE_CLASS];
+        private final int[][] mCounts = new int[2][SIZE_CLASS_COUNT];
+
+        private ByteBuffer poll(boolean direct, int sizeClass) {
+            int kind = direct ? 1 : 0;
+            int count = mCounts[kind][sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            count--;
+            ByteBuffer buffer = mBuffers[kind][sizeClass][count];
+            mBuffers[kind][sizeClass][count] = null;
+            mCounts[kind][sizeClass] = count;
+            return buffer;
+        }
+
+        private void offer(boolean direct, int sizeClass, ByteBuffer buffer) {
+            int kind = direct ? 1 : 0;
+            int count = mCounts[kind][sizeClass];
+            if (count == MAX_CACHED_BUFFERS_PER_SIZE_CLASS) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (mBuffers[kind][sizeClass][i] == buffer) {
+                    // Already released.
+                    return;
+                }
+            }
+            mBuffers[kind][sizeClass][count] = buffer;
+            mCounts[kind][sizeClass] = count + 1;
+        }
+    }
+}
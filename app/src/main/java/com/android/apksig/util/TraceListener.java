@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+/**
+ * Listener notified of the phases of signing or verifying an APK, to find out where the time of a
+ * slow signing or verification is spent.
+ *
+ * <p>Phases are reported on the thread which signs or verifies the APK, even when their work is
+ * spread over the threads of a {@link RunnablesExecutor}. Phases may be nested: for example, the
+ * computation of the APK's content digests is part of the verification of its APK Signature
+ * Scheme v3 signature. A phase during which signing or verification fails is reported as started
+ * but not as finished.
+ *
+ * <p>Listeners are invoked on the hot path of signing and verification and should return quickly.
+ * A listener shared by several signers or verifiers may be invoked concurrently.
+ */
+public interface TraceListener {
+
+    /** Invoked when the provided phase starts. */
+    void onPhaseStarted(Phase phase);
+
+    /**
+     * Invoked when the provided phase, last reported as started on the same thread, finishes.
+     *
+     * @param durationNanos time elapsed since the phase started, in nanoseconds
+     * @param byteCount number of bytes processed by the phase, as documented for each
+     *     {@link Phase}, or {@code -1} if not applicable
+     * @param entryCount number of ZIP entries processed by the phase, as documented for each
+     *     {@link Phase}, or {@code -1} if not applicable
+     */
+    void onPhaseFinished(Phase phase, long durationNanos, long byteCount, int entryCount);
+
+    /**
+     * Phase of signing or verifying an APK.
+     */
+    enum Phase {
+        /**
+         * Locating the ZIP Central Directory and End of Central Directory record. The byte count
+         * is the size of the APK and the entry count is the number of Central Directory records.
+         */
+        FIND_ZIP_SECTIONS,
+
+        /**
+         * Reading and parsing the ZIP Central Directory. The byte count is the size of the Central
+         * Directory and the entry count is the number of its records.
+         */
+        PARSE_CENTRAL_DIRECTORY,
+
+        /**
+         * Signing only: copying the Local File Header and data of the input APK's entries to the
+         * output APK, including the inspection of the entries digested for the JAR signature. The
+         * byte count is the number of bytes output and the entry count is the number of entries
+         * output.
+         */
+        COPY_ENTRIES,
+
+        /**
+         * Generating or verifying JAR signatures. When signing, the entries of the input APK have
+         * been digested during {@link #COPY_ENTRIES}; the byte count is the uncompressed size of
+         * the generated signature entries and the entry count is their number. When verifying,
+         * this includes digesting the entries; the byte count is the uncompressed size of the
+         * APK's entries and the entry count is their number.
+         */
+        JAR_SIGNATURE,
+
+        /**
+         * Verification only: verifying the APK Signature Scheme v2 signature. The byte count is
+         * the size of the APK.
+         */
+        APK_SIGNATURE_SCHEME_V2,
+
+        /**
+         * Verification only: verifying the APK Signature Scheme v3 signature. The byte count is
+         * the size of the APK.
+         */
+        APK_SIGNATURE_SCHEME_V3,
+
+        /**
+         * Generating or verifying the APK Signature Scheme v4 signature, including the verity tree
+         * of the APK. The byte count is the size of the APK.
+         */
+        APK_SIGNATURE_SCHEME_V4,
+
+        /** Verification only: verifying the SourceStamp. */
+        SOURCE_STAMP,
+
+        /**
+         * Computing the chunked content digests of the APK used by APK Signature Scheme v2 and v3.
+         * The byte count is the size of the digested contents.
+         */
+        CONTENT_DIGESTS,
+
+        /**
+         * Computing the root hash of the verity tree of the APK's contents. The byte count is the
+         * size of the digested contents.
+         */
+        VERITY_TREE,
+
+        /**
+         * Signing only: generating the APK Signing Block containing the APK Signature Scheme v2
+         * and v3 signatures and the SourceStamp. The byte count is the size of the APK Signing
+         * Block.
+         */
+        SIGNATURE_GENERATION,
+
+        /**
+         * Signing only: outputting the APK Signing Block, ZIP Central Directory and End of Central
+         * Directory record. The byte count is the number of bytes output and the entry count is
+         * the number of Central Directory records.
+         */
+        OUTPUT,
+    }
+}
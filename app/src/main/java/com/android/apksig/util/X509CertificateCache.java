@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
+import com.android.apksig.internal.util.X509CertificateUtils;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of decoded X.509 certificates, keyed by the SHA-256 digest of their encoded form.
+ *
+ * <p>Decoding a certificate is one of the more expensive steps of verifying an APK signature, and
+ * the same few signing certificates are typically found in many APKs. Once a cache is installed
+ * using {@link #setDefault(X509CertificateCache)}, certificates of JAR signatures (v1), of APK
+ * Signature Scheme v2, v3 and v4 signatures, of signing certificate lineages and of source stamps
+ * are decoded at most once while they remain in the cache. This applies to
+ * {@link com.android.apksig.ApkVerifier}, {@link com.android.apksig.SourceStampVerifier} and
+ * {@link com.android.apksig.SigningCertificateLineage} alike.
+ *
+ * <p>Cached certificates are immutable {@link X509Certificate} instances shared by all their
+ * users. When the cache is full, the least recently used certificate is evicted. Instances of this
+ * class are thread-safe.
+ */
+public class X509CertificateCache {
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private static volatile X509CertificateCache sDefault;
+
+    private final Map<ByteBuffer, X509Certificate> mCertificates;
+
+    /** Constructs a new cache which holds up to 256 certificates. */
+    public X509CertificateCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /** Constructs a new cache which holds up to {@code maxSize} certificates. */
+    public X509CertificateCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        mCertificates = new LinkedHashMap<ByteBuffer, X509Certificate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, X509Certificate> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache used whenever certificates are decoded, or {@code null} if certificates
+     * are not cached, which is the default.
+     */
+    public static X509CertificateCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Sets the cache used whenever certificates are decoded. {@code null} disables caching.
+     */
+    public static void setDefault(X509CertificateCache cache) {
+        sDefault = cache;
+    }
+
+    /**
+     * Returns the certificate with the provided encoded form, decoding it using the provided
+     * {@code CertificateFactory} if it is not cached.
+     *
+     * @throws CertificateException if the encoded form cannot be decoded to a valid certificate.
+     *         Such encoded forms are not cached.
+     */
+    public X509Certificate getCertificate(byte[] encodedForm, CertificateFactory certFactory)
+            throws CertificateException {
+        ByteBuffer key = ByteBuffer.wrap(sha256(encodedForm));
+        X509Certificate certificate;
+        synchronized (mCertificates) {
+            certificate = mCertificates.get(key);
+        }
+        if (certificate != null) {
+            return certificate;
+        }
+
+        // Decode without holding the lock. Should another thread decode the same certificate
+        // concurrently, either result may be cached: the two are equivalent.
+        certificate = X509CertificateUtils.decodeCertificate(encodedForm, certFactory);
+        if (!(certificate instanceof GuaranteedEncodedFormX509Certificate)) {
+            certificate =
+                    new GuaranteedEncodedFormX509Certificate(certificate, certificate.getEncoded());
+        }
+        synchronized (mCertificates) {
+            mCertificates.put(key, certificate);
+        }
+        return certificate;
+    }
+
+    /** Returns the number of certificates currently cached. */
+    public int size() {
+        synchronized (mCertificates) {
+            return mCertificates.size();
+        }
+    }
+
+    /** Discards all cached certificates. */
+    public void clear() {
+        synchronized (mCertificates) {
+            mCertificates.clear();
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to obtain SHA-256 MessageDigest", e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.asn1;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.android.apksig.internal.oid.OidConstants;
+import com.android.apksig.internal.pkcs7.AlgorithmIdentifier;
+import com.android.apksig.internal.pkcs7.ContentInfo;
+import com.android.apksig.internal.pkcs7.EncapsulatedContentInfo;
+import com.android.apksig.internal.pkcs7.IssuerAndSerialNumber;
+import com.android.apksig.internal.pkcs7.Pkcs7Constants;
+import com.android.apksig.internal.pkcs7.SignedData;
+import com.android.apksig.internal.pkcs7.SignerIdentifier;
+import com.android.apksig.internal.pkcs7.SignerInfo;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class Asn1SpecificDerEncoderTest {
+    @Test
+    public void testContentInfoOfDetachedSignedData() throws Exception {
+        assertContentInfoEncodingsEqual(1, 1, 1, -1);
+    }
+
+    @Test
+    public void testContentInfoOfSignedDataWithShortContent() throws Exception {
+        assertContentInfoEncodingsEqual(2, 1, 1, 100);
+    }
+
+    @Test
+    public void testContentInfoOfSignedDataWithLongContent() throws Exception {
+        // Long enough for the lengths of all enclosing elements to take three bytes
+        assertContentInfoEncodingsEqual(3, 2, 1, 70000);
+    }
+
+    @Test
+    public void testContentInfoOfSignedDataWithSeveralElementsPerSet() throws Exception {
+        // Elements of SET OF values must be sorted by their encoded form
+        assertContentInfoEncodingsEqual(4, 5, 3, 0);
+    }
+
+    @Test
+    public void testContentInfoOfRandomSignedData() throws Exception {
+        Random random = new Random(5);
+        int[] maxContentLengths = {0, 200, 100000};
+        for (int i = 0; i < 50; i++) {
+            assertContentInfoEncodingsEqual(
+                    random.nextLong(),
+                    1 + random.nextInt(4),
+                    1 + random.nextInt(3),
+                    random.nextInt(maxContentLengths[i % maxContentLengths.length] + 1) - 1);
+        }
+    }
+
+    /**
+     * Asserts that the single-pass encoding of a {@code ContentInfo} of generated
+     * {@code SignedData} is identical to the encoding of the {@code SignedData} wrapped into a
+     * {@link ContentInfo}.
+     *
+     * @param contentLength length of the embedded content, or {@code -1} for no content
+     */
+    private static void assertContentInfoEncodingsEqual(
+            long seed, int certificateCount, int signerCount, int contentLength)
+            throws Asn1EncodingException {
+        ContentInfo contentInfo = new ContentInfo();
+        contentInfo.contentType = Pkcs7Constants.OID_SIGNED_DATA;
+        contentInfo.content =
+                new Asn1OpaqueObject(
+                        Asn1SpecificDerEncoder.SignedDataEncoder(
+                                createSignedData(
+                                        seed, certificateCount, signerCount, contentLength)));
+        byte[] expected = Asn1SpecificDerEncoder.ContentInfoEncoder(contentInfo);
+
+        byte[] actual =
+                Asn1SpecificDerEncoder.ContentInfoEncoder(
+                        Pkcs7Constants.OID_SIGNED_DATA,
+                        createSignedData(seed, certificateCount, signerCount, contentLength));
+        assertArrayEquals(expected, actual);
+    }
+
+    private static SignedData createSignedData(
+            long seed, int certificateCount, int signerCount, int contentLength) {
+        Random random = new Random(seed);
+        SignedData signedData = new SignedData();
+        signedData.version = 1;
+        signedData.digestAlgorithms = new ArrayList<>();
+        signedData.digestAlgorithms.add(
+                new AlgorithmIdentifier(OidConstants.OID_DIGEST_SHA256, null));
+        if (signerCount > 1) {
+            signedData.digestAlgorithms.add(
+                    new AlgorithmIdentifier(
+                            OidConstants.OID_DIGEST_SHA1,
+                            new Asn1OpaqueObject(new byte[] {0x05, 0x00})));
+        }
+        signedData.encapContentInfo = new EncapsulatedContentInfo(Pkcs7Constants.OID_DATA);
+        if (contentLength >= 0) {
+            signedData.encapContentInfo.content =
+                    ByteBuffer.wrap(randomBytes(random, contentLength));
+        }
+        signedData.certificates = new ArrayList<>(certificateCount);
+        for (int i = 0; i < certificateCount; i++) {
+            signedData.certificates.add(
+                    new Asn1OpaqueObject(derSequence(randomBytes(random, random.nextInt(2000)))));
+        }
+        List<SignerInfo> signerInfos = new ArrayList<>(signerCount);
+        for (int i = 0; i < signerCount; i++) {
+            SignerInfo signerInfo = new SignerInfo();
+            if ((i % 2) == 0) {
+                signerInfo.version = 1;
+                signerInfo.sid =
+                        new SignerIdentifier(
+                                new IssuerAndSerialNumber(
+                                        new Asn1OpaqueObject(
+                                                derSequence(
+                                                        randomBytes(
+                                                                random, random.nextInt(300)))),
+                                        new BigInteger(64, random)));
+            } else {
+                signerInfo.version = 3;
+                signerInfo.sid = new SignerIdentifier();
+                signerInfo.sid.subjectKeyIdentifier = ByteBuffer.wrap(randomBytes(random, 20));
+            }
+            signerInfo.digestAlgorithm =
+                    new AlgorithmIdentifier(OidConstants.OID_DIGEST_SHA256, null);
+            signerInfo.signatureAlgorithm =
+                    new AlgorithmIdentifier(
+                            OidConstants.OID_SIG_RSA,
+                            new Asn1OpaqueObject(new byte[] {0x05, 0x00}));
+            signerInfo.signature = ByteBuffer.wrap(randomBytes(random, 64 + random.nextInt(512)));
+            signerInfos.add(signerInfo);
+        }
+        signedData.signerInfos = signerInfos;
+        return signedData;
+    }
+
+    private static byte[] derSequence(byte[] contents) {
+        ByteBuffer result = ByteBuffer.allocate(contents.length + 6);
+        result.put((byte) 0x30);
+        if (contents.length < 0x80) {
+            result.put((byte) contents.length);
+        } else if (contents.length < 0x100) {
+            result.put((byte) 0x81).put((byte) contents.length);
+        } else {
+            result.put((byte) 0x82).putShort((short) contents.length);
+        }
+        result.put(contents);
+        byte[] encoded = new byte[result.position()];
+        result.flip();
+        result.get(encoded);
+        return encoded;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MemoryMappedFileDataSourceTest {
+    private static final int REGION_SIZE = 16;
+    private static final byte[] CONTENTS = new byte[REGION_SIZE * 3 + 5];
+    static {
+        for (int i = 0; i < CONTENTS.length; i++) {
+            CONTENTS[i] = (byte) i;
+        }
+    }
+
+    private File mFile;
+    private RandomAccessFile mRaf;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("MemoryMappedFileDataSourceTest", ".bin");
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(CONTENTS);
+        }
+        mRaf = new RandomAccessFile(mFile, "r");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mRaf.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void testAsDataSource() throws Exception {
+        DataSource dataSource =
+                DataSources.asDataSource(mRaf.getChannel(), FileChannel.MapMode.READ_ONLY);
+        assertEquals(CONTENTS.length, dataSource.size());
+        assertArrayEquals(CONTENTS, toByteArray(dataSource.getByteBuffer(0, CONTENTS.length)));
+        assertArrayEquals(Arrays.copyOfRange(CONTENTS, 7, 30), feed(dataSource.slice(7, 23)));
+    }
+
+    @Test
+    public void testAsDataSourceRejectsNull() throws Exception {
+        try {
+            DataSources.asDataSource((FileChannel) null, FileChannel.MapMode.READ_ONLY);
+            fail("null channel accepted");
+        } catch (NullPointerException expected) {}
+        try {
+            DataSources.asDataSource(mRaf.getChannel(), null);
+            fail("null mode accepted");
+        } catch (NullPointerException expected) {}
+    }
+
+    @Test
+    public void testGetByteBufferWithinRegion() throws Exception {
+        DataSource dataSource = map();
+        ByteBuffer buf = dataSource.getByteBuffer(REGION_SIZE + 2, REGION_SIZE - 2);
+        assertTrue(buf.isReadOnly());
+        assertArrayEquals(
+                Arrays.copyOfRange(CONTENTS, REGION_SIZE + 2, 2 * REGION_SIZE), toByteArray(buf));
+    }
+
+    @Test
+    public void testGetByteBufferAcrossRegionBoundary() throws Exception {
+        DataSource dataSource = map();
+        assertArrayEquals(
+                Arrays.copyOfRange(CONTENTS, REGION_SIZE - 3, REGION_SIZE + 4),
+                toByteArray(dataSource.getByteBuffer(REGION_SIZE - 3, 7)));
+        // Spans all regions
+        assertArrayEquals(CONTENTS, toByteArray(dataSource.getByteBuffer(0, CONTENTS.length)));
+        assertEquals(0, dataSource.getByteBuffer(CONTENTS.length, 0).remaining());
+    }
+
+    @Test
+    public void testFeedAcrossRegionBoundaries() throws Exception {
+        DataSource dataSource = map();
+        assertArrayEquals(CONTENTS, feed(dataSource));
+        assertArrayEquals(
+                Arrays.copyOfRange(CONTENTS, 5, 2 * REGION_SIZE + 9),
+                feed(dataSource.slice(5, 2 * REGION_SIZE + 4)));
+    }
+
+    @Test
+    public void testCopyToAcrossRegionBoundary() throws Exception {
+        DataSource dataSource = map();
+        ByteBuffer buf = ByteBuffer.allocate(20);
+        buf.put((byte) -1);
+        dataSource.copyTo(REGION_SIZE * 2 - 10, 19, buf);
+        assertEquals(20, buf.position());
+        byte[] expected = new byte[20];
+        expected[0] = -1;
+        System.arraycopy(CONTENTS, REGION_SIZE * 2 - 10, expected, 1, 19);
+        assertArrayEquals(expected, buf.array());
+    }
+
+    @Test
+    public void testSliceOfSliceAcrossRegionBoundary() throws Exception {
+        DataSource slice = map().slice(REGION_SIZE - 4, 2 * REGION_SIZE).slice(2, 10);
+        assertEquals(10, slice.size());
+        assertArrayEquals(
+                Arrays.copyOfRange(CONTENTS, REGION_SIZE - 2, REGION_SIZE + 8),
+                toByteArray(slice.getByteBuffer(0, 10)));
+    }
+
+    @Test
+    public void testOutOfBoundsChunkRejected() throws Exception {
+        DataSource dataSource = map();
+        try {
+            dataSource.getByteBuffer(CONTENTS.length - 1, 2);
+            fail("Chunk extending past the end accepted");
+        } catch (IndexOutOfBoundsException expected) {}
+        try {
+            dataSource.slice(-1, 1);
+            fail("Negative offset accepted");
+        } catch (IndexOutOfBoundsException expected) {}
+    }
+
+    private MemoryMappedFileDataSource map() throws IOException {
+        return MemoryMappedFileDataSource.map(
+                mRaf.getChannel(), FileChannel.MapMode.READ_ONLY, REGION_SIZE);
+    }
+
+    private static byte[] toByteArray(ByteBuffer buf) {
+        byte[] result = new byte[buf.remaining()];
+        buf.get(result);
+        return result;
+    }
+
+    private static byte[] feed(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dataSource.feed(0, dataSource.size(), DataSinks.asDataSink(out));
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.zip;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CentralDirectoryIndexTest {
+    @Test
+    public void testUniqueNames() throws Exception {
+        CentralDirectoryIndex index =
+                read(utf8("a"), utf8("b"), utf8("a/\u00e9"), new byte[] {'a', (byte) 0xff});
+        assertEquals(-1, index.getFirstDuplicateNameIndex());
+        assertEquals(0, index.indexOf("a"));
+        assertEquals(1, index.indexOf("b"));
+        assertEquals(2, index.indexOf("a/\u00e9"));
+        assertEquals(-1, index.indexOf("c"));
+    }
+
+    @Test
+    public void testDuplicateNames() throws Exception {
+        CentralDirectoryIndex index = read(utf8("a"), utf8("b"), utf8("a/\u00e9"), utf8("b"));
+        assertEquals(3, index.getFirstDuplicateNameIndex());
+        assertEquals(1, index.indexOf("b"));
+    }
+
+    @Test
+    public void testNamesWhichAreNotUtf8AndDecodeToSameString() throws Exception {
+        // Both names decode to "a\uFFFD"
+        CentralDirectoryIndex index =
+                read(utf8("b"), new byte[] {'a', (byte) 0xff}, new byte[] {'a', (byte) 0xfe});
+        assertEquals(2, index.getFirstDuplicateNameIndex());
+        assertEquals("a\ufffd", index.getName(2));
+        assertEquals(1, index.indexOf("a\ufffd"));
+    }
+
+    @Test
+    public void testNameWhichIsNotUtf8AndDecodesToValidName() throws Exception {
+        CentralDirectoryIndex index = read(utf8("a\ufffd"), new byte[] {'a', (byte) 0xff});
+        assertEquals(1, index.getFirstDuplicateNameIndex());
+    }
+
+    private static CentralDirectoryIndex read(byte[]... names) throws Exception {
+        ByteArrayOutputStream cd = new ByteArrayOutputStream();
+        for (byte[] name : names) {
+            ByteBuffer record = ByteBuffer.allocate(46 + name.length);
+            record.order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(0x02014b50);
+            record.position(28);
+            record.putShort((short) name.length);
+            record.position(46);
+            record.put(name);
+            cd.write(record.array());
+        }
+        return CentralDirectoryIndex.read(ByteBuffer.wrap(cd.toByteArray()), names.length, 0);
+    }
+
+    private static byte[] utf8(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.internal.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ZipUtilsTest {
+    private static final int[] INPUT_SIZES_BYTES = {
+        256 * 1024,
+        1024 * 1024 - 1,
+        1024 * 1024 + 1,
+        3 * 1024 * 1024 + 12345,
+        5 * 1024 * 1024,
+    };
+
+    @Test
+    public void testDeflateSingleThreaded() throws Exception {
+        for (int size : INPUT_SIZES_BYTES) {
+            assertDeflateRoundTrip(createInput(size), RunnablesExecutor.SINGLE_THREADED);
+        }
+    }
+
+    @Test
+    public void testDeflateMultiThreaded() throws Exception {
+        for (int size : INPUT_SIZES_BYTES) {
+            assertDeflateRoundTrip(createInput(size), RunnablesExecutor.MULTI_THREADED);
+        }
+    }
+
+    @Test
+    public void testDeflateOutputDoesNotDependOnExecutor() {
+        byte[] input = createInput(5 * 1024 * 1024);
+        ZipUtils.DeflateResult singleThreaded =
+                ZipUtils.deflate(ByteBuffer.wrap(input), RunnablesExecutor.SINGLE_THREADED);
+        ZipUtils.DeflateResult multiThreaded =
+                ZipUtils.deflate(ByteBuffer.wrap(input), RunnablesExecutor.MULTI_THREADED);
+        assertArrayEquals(singleThreaded.output, multiThreaded.output);
+        assertEquals(singleThreaded.inputCrc32, multiThreaded.inputCrc32);
+    }
+
+    @Test
+    public void testDeflateOfBufferWithoutArray() throws Exception {
+        byte[] input = createInput(3 * 1024 * 1024 + 12345);
+        ByteBuffer directInput = ByteBuffer.allocateDirect(input.length);
+        directInput.put(input);
+        directInput.flip();
+        ZipUtils.DeflateResult result =
+                ZipUtils.deflate(directInput, RunnablesExecutor.MULTI_THREADED);
+        assertEquals(0, directInput.remaining());
+        assertDeflateResult(input, result);
+    }
+
+    @Test
+    public void testDeflateOfSlicedBuffer() throws Exception {
+        byte[] input = createInput(3 * 1024 * 1024 + 12345);
+        ByteBuffer slicedInput = ByteBuffer.wrap(input, 100, input.length - 200).slice();
+        byte[] expectedInput = new byte[input.length - 200];
+        System.arraycopy(input, 100, expectedInput, 0, expectedInput.length);
+        assertDeflateResult(
+                expectedInput, ZipUtils.deflate(slicedInput, RunnablesExecutor.MULTI_THREADED));
+    }
+
+    @Test
+    public void testCrc32Combine() {
+        byte[] input = createInput(3 * 1024 * 1024 + 12345);
+        int[] splitOffsets = {0, 1, 4095, 1024 * 1024, input.length - 1, input.length};
+        for (int splitOffset : splitOffsets) {
+            int length2 = input.length - splitOffset;
+            assertEquals(
+                    "Split at " + splitOffset,
+                    crc32(input, 0, input.length),
+                    ZipUtils.crc32Combine(
+                            crc32(input, 0, splitOffset),
+                            crc32(input, splitOffset, length2),
+                            length2));
+        }
+    }
+
+    private static void assertDeflateRoundTrip(byte[] input, RunnablesExecutor executor)
+            throws DataFormatException {
+        assertDeflateResult(input, ZipUtils.deflate(ByteBuffer.wrap(input), executor));
+    }
+
+    private static void assertDeflateResult(byte[] input, ZipUtils.DeflateResult result)
+            throws DataFormatException {
+        assertEquals(input.length, result.inputSizeBytes);
+        assertEquals(crc32(input, 0, input.length), result.inputCrc32);
+        assertArrayEquals(input, inflate(result.output));
+    }
+
+    private static byte[] inflate(byte[] deflated) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[65536];
+            while (!inflater.finished()) {
+                int chunkSize = inflater.inflate(buf);
+                if ((chunkSize == 0) && (inflater.needsInput())) {
+                    throw new DataFormatException("Truncated deflate stream");
+                }
+                out.write(buf, 0, chunkSize);
+            }
+            assertEquals(0, inflater.getRemaining());
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long crc32(byte[] input, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(input, offset, length);
+        return crc32.getValue();
+    }
+
+    /**
+     * Returns input which is partly random and partly repetitive, so that deflate both emits
+     * stored blocks and uses back-references, including ones across parallel deflate blocks.
+     */
+    private static byte[] createInput(int size) {
+        Random random = new Random(size);
+        byte[] result = new byte[size];
+        byte[] phrase = new byte[1000];
+        random.nextBytes(phrase);
+        for (int offset = 0; offset < size; ) {
+            int length = Math.min(size - offset, 1 + random.nextInt(20000));
+            if (random.nextBoolean()) {
+                for (int i = 0; i < length; i++) {
+                    result[offset + i] = phrase[i % phrase.length];
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    result[offset + i] = (byte) random.nextInt();
+                }
+            }
+            offset += length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PooledRunnablesExecutorTest {
+    @Test
+    public void testFailureOfCallerRunnableWaitsForStartedTasks() throws Exception {
+        RuntimeException failure = new RuntimeException("Caller failed");
+        RuntimeException taskFailure = new RuntimeException("Task failed");
+        CountDownLatch taskStarted = new CountDownLatch(1);
+        AtomicBoolean taskFinished = new AtomicBoolean();
+        Thread caller = Thread.currentThread();
+        try (PooledRunnablesExecutor executor = new PooledRunnablesExecutor(2)) {
+            executor.execute(() -> () -> {
+                if (Thread.currentThread() == caller) {
+                    try {
+                        assertTrue(taskStarted.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    throw failure;
+                }
+                taskStarted.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                taskFinished.set(true);
+                throw taskFailure;
+            });
+            fail("Failure of caller's runnable not rethrown");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+            assertTrue(taskFinished.get());
+            assertArrayEquals(new Throwable[] {taskFailure}, e.getSuppressed());
+        }
+    }
+
+    @Test
+    public void testFailureOfTaskRethrownOnCaller() {
+        RuntimeException failure = new RuntimeException("Task failed");
+        CountDownLatch taskStarted = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        try (PooledRunnablesExecutor executor = new PooledRunnablesExecutor(2)) {
+            executor.execute(() -> () -> {
+                if (Thread.currentThread() == caller) {
+                    // Tasks which have not started when the caller's runnable returns do not run
+                    try {
+                        assertTrue(taskStarted.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return;
+                }
+                taskStarted.countDown();
+                throw failure;
+            });
+            fail("Failure of task not rethrown");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+    }
+}
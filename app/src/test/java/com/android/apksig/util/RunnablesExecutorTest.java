@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RunnablesExecutorTest {
+    @Test
+    public void testMultiThreadedRethrowsFailureOfRunnable() {
+        RuntimeException failure = new RuntimeException("Failed to read chunk");
+        AtomicInteger runnableCount = new AtomicInteger();
+        try {
+            RunnablesExecutor.MULTI_THREADED.execute(() -> () -> {
+                if (runnableCount.getAndIncrement() == 0) {
+                    throw failure;
+                }
+            });
+            fail("Failure of a runnable not rethrown");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testMultiThreadedWrapsCheckedFailureOfRunnable() throws Exception {
+        Exception failure = new Exception("Checked failure");
+        try {
+            RunnablesExecutor.MULTI_THREADED.execute(() -> () -> sneakyThrow(failure));
+            fail("Failure of a runnable not rethrown");
+        } catch (RuntimeException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testMultiThreadedRunsAllRunnables() {
+        int parallelism = Math.min(32, Runtime.getRuntime().availableProcessors());
+        AtomicInteger runnableCount = new AtomicInteger();
+        RunnablesExecutor.MULTI_THREADED.execute(() -> runnableCount::incrementAndGet);
+        assertEquals(parallelism, runnableCount.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+}
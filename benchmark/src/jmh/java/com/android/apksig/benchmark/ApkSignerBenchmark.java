@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link ApkSigner#sign()} of an unsigned APK with JAR signing (v1), APK Signature
+ * Scheme v2 and v3 and, optionally, APK Signature Scheme v4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ApkSignerBenchmark {
+    @Param({"1", "64", "512", "2048"})
+    public long apkSizeMb;
+
+    @Param({"single", "pooled"})
+    public String executorName;
+
+    @Param({"false", "true"})
+    public boolean v4SigningEnabled;
+
+    private File mUnsignedApkFile;
+    private File mOutputApkFile;
+    private File mOutputV4SignatureFile;
+    private RunnablesExecutor mExecutor;
+    private ApkSigner.SignerConfig mSignerConfig;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mExecutor = SyntheticApks.getExecutor(executorName);
+        mSignerConfig = SyntheticApks.getSignerConfig();
+        mUnsignedApkFile = SyntheticApks.createUnsignedApk(apkSizeMb * 1024 * 1024);
+        mOutputApkFile = File.createTempFile("apksig-benchmark", "-signed.apk");
+        mOutputV4SignatureFile = new File(mOutputApkFile.getPath() + ".idsig");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticApks.closeExecutor(mExecutor);
+        SyntheticApks.delete(mOutputV4SignatureFile);
+        SyntheticApks.delete(mOutputApkFile);
+        SyntheticApks.delete(mUnsignedApkFile);
+    }
+
+    @Benchmark
+    public void sign() throws Exception {
+        ApkSigner.Builder builder =
+                new ApkSigner.Builder(Collections.singletonList(mSignerConfig))
+                        .setInputApk(mUnsignedApkFile)
+                        .setOutputApk(mOutputApkFile)
+                        .setMinSdkVersion(SyntheticApks.MIN_SDK_VERSION)
+                        .setExecutor(mExecutor)
+                        .setV4SigningEnabled(v4SigningEnabled);
+        if (v4SigningEnabled) {
+            builder.setV4SignatureOutputFile(mOutputV4SignatureFile);
+        }
+        builder.build().sign();
+    }
+}
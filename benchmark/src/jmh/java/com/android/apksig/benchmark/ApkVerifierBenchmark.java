@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.ApkVerifier;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link ApkVerifier#verify()} of an APK signed with JAR signing (v1) and APK
+ * Signature Scheme v2 and v3.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ApkVerifierBenchmark {
+    @Param({"1", "64", "512", "2048"})
+    public long apkSizeMb;
+
+    @Param({"single", "pooled"})
+    public String executorName;
+
+    private File mUnsignedApkFile;
+    private File mApkFile;
+    private RunnablesExecutor mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mExecutor = SyntheticApks.getExecutor(executorName);
+        mUnsignedApkFile = SyntheticApks.createUnsignedApk(apkSizeMb * 1024 * 1024);
+        mApkFile = SyntheticApks.createSignedApk(mUnsignedApkFile, mExecutor);
+
+        ApkVerifier.Result result = verify();
+        if (!result.isVerified()) {
+            throw new IllegalStateException(
+                    "Synthetic APK failed to verify: " + result.getAllErrors());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticApks.closeExecutor(mExecutor);
+        SyntheticApks.delete(mApkFile);
+        SyntheticApks.delete(mUnsignedApkFile);
+    }
+
+    @Benchmark
+    public ApkVerifier.Result verify() throws Exception {
+        return new ApkVerifier.Builder(mApkFile)
+                .setExecutor(mExecutor)
+                .setMinCheckedPlatformVersion(SyntheticApks.MIN_SDK_VERSION)
+                .build()
+                .verify();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.internal.asn1.Asn1BerParser;
+import com.android.apksig.internal.pkcs7.ContentInfo;
+import com.android.apksig.internal.pkcs7.SignedData;
+import com.android.apksig.internal.x509.Certificate;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link Asn1BerParser#parse(ByteBuffer, Class)} of the PKCS #7 signature block of a
+ * JAR-signed APK and of the X.509 certificate it contains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Asn1BerParserBenchmark {
+    private byte[] mSignatureBlock;
+    private ByteBuffer mSignedData;
+    private byte[] mCertificate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File unsignedApk = SyntheticApks.createUnsignedApk(1024 * 1024);
+        File signedApk = null;
+        try {
+            signedApk =
+                    SyntheticApks.createSignedApk(
+                            unsignedApk, SyntheticApks.getExecutor("single"));
+            try (ZipFile zip = new ZipFile(signedApk)) {
+                ZipEntry entry = zip.getEntry("META-INF/RSA-2048.RSA");
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[4096];
+                    int chunkSize;
+                    while ((chunkSize = in.read(chunk)) != -1) {
+                        buf.write(chunk, 0, chunkSize);
+                    }
+                    mSignatureBlock = buf.toByteArray();
+                }
+            }
+        } finally {
+            SyntheticApks.delete(signedApk);
+            SyntheticApks.delete(unsignedApk);
+        }
+        mSignedData = parseContentInfo().content.getEncoded();
+        mCertificate = SyntheticApks.getSignerConfig().getCertificates().get(0).getEncoded();
+    }
+
+    @Benchmark
+    public ContentInfo parseContentInfo() throws Exception {
+        return Asn1BerParser.parse(ByteBuffer.wrap(mSignatureBlock), ContentInfo.class);
+    }
+
+    @Benchmark
+    public SignedData parseSignedData() throws Exception {
+        return Asn1BerParser.parse(mSignedData.slice(), SignedData.class);
+    }
+
+    @Benchmark
+    public Certificate parseCertificate() throws Exception {
+        return Asn1BerParser.parse(ByteBuffer.wrap(mCertificate), Certificate.class);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.ApkSigningBlockUtils;
+import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link ApkSigningBlockUtils#computeContentDigests}, which computes the content
+ * digests of APK Signature Scheme v2 and v3.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentDigestsBenchmark {
+    @Param({"1", "64", "512", "2048"})
+    public long apkSizeMb;
+
+    @Param({"CHUNKED_SHA256", "CHUNKED_SHA512"})
+    public ContentDigestAlgorithm digestAlgorithm;
+
+    @Param({"single", "pooled"})
+    public String executorName;
+
+    private File mApkFile;
+    private RandomAccessFile mApkRandomAccessFile;
+    private RunnablesExecutor mExecutor;
+    private DataSource mBeforeCentralDir;
+    private DataSource mCentralDir;
+    private DataSource mEocd;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mApkFile = SyntheticApks.createUnsignedApk(apkSizeMb * 1024 * 1024);
+        mApkRandomAccessFile = new RandomAccessFile(mApkFile, "r");
+        DataSource apk = DataSources.asDataSource(mApkRandomAccessFile);
+        ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(apk);
+        mBeforeCentralDir = apk.slice(0, zipSections.getZipCentralDirectoryOffset());
+        mCentralDir =
+                apk.slice(
+                        zipSections.getZipCentralDirectoryOffset(),
+                        zipSections.getZipCentralDirectorySizeBytes());
+        mEocd = DataSources.asDataSource(zipSections.getZipEndOfCentralDirectory());
+        mExecutor = SyntheticApks.getExecutor(executorName);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticApks.closeExecutor(mExecutor);
+        mApkRandomAccessFile.close();
+        SyntheticApks.delete(mApkFile);
+    }
+
+    @Benchmark
+    public Map<ContentDigestAlgorithm, byte[]> computeContentDigests() throws Exception {
+        return ApkSigningBlockUtils.computeContentDigests(
+                mExecutor,
+                EnumSet.of(digestAlgorithm),
+                mBeforeCentralDir,
+                mCentralDir,
+                mEocd);
+    }
+}
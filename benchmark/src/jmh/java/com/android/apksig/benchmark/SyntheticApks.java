@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.util.PooledRunnablesExecutor;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic APKs and signing configuration shared by the benchmarks.
+ */
+final class SyntheticApks {
+    private SyntheticApks() {}
+
+    /**
+     * minSdkVersion of the synthetic APKs. Low enough for the APKs to be signed with JAR signing
+     * (v1) in addition to APK Signature Scheme v2 and v3.
+     */
+    static final int MIN_SDK_VERSION = 21;
+
+    /** Size (in bytes) of the uncompressed data of each entry of a synthetic APK. */
+    private static final int ENTRY_SIZE = 64 * 1024;
+
+    /** Every this many entries is compressible and stored compressed. */
+    private static final int COMPRESSED_ENTRY_INTERVAL = 8;
+
+    /**
+     * Returns the executor identified by the provided name: {@code single} (the calling thread
+     * only), {@code multi} (a new thread pool per invocation) or {@code pooled} (a long-lived
+     * thread pool, which must be closed by the caller).
+     */
+    static RunnablesExecutor getExecutor(String name) {
+        switch (name) {
+            case "single":
+                return RunnablesExecutor.SINGLE_THREADED;
+            case "multi":
+                return RunnablesExecutor.MULTI_THREADED;
+            case "pooled":
+                return new PooledRunnablesExecutor();
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + name);
+        }
+    }
+
+    /** Closes the provided executor if it is a {@link PooledRunnablesExecutor}. */
+    static void closeExecutor(RunnablesExecutor executor) {
+        if (executor instanceof PooledRunnablesExecutor) {
+            ((PooledRunnablesExecutor) executor).close();
+        }
+    }
+
+    /**
+     * Creates an unsigned APK of roughly {@code sizeBytes} bytes. The APK consists of a minimal
+     * {@code AndroidManifest.xml} and of 64 KB entries of pseudo-random data, every eighth of
+     * which is compressible and thus compressed. The contents of the APK depend only on its size.
+     */
+    static File createUnsignedApk(long sizeBytes) throws IOException {
+        File apk = File.createTempFile("apksig-benchmark", ".apk");
+        apk.deleteOnExit();
+        Random random = new Random(sizeBytes);
+        byte[] data = new byte[ENTRY_SIZE];
+        CRC32 crc32 = new CRC32();
+        try (ZipOutputStream out =
+                new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(apk)))) {
+            out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            out.write(createAndroidManifest());
+            out.closeEntry();
+
+            long entryCount = Math.max(1, sizeBytes / ENTRY_SIZE);
+            for (long i = 0; i < entryCount; i++) {
+                ZipEntry entry = new ZipEntry("res/raw/entry" + i + ".bin");
+                if (i % COMPRESSED_ENTRY_INTERVAL == 0) {
+                    for (int j = 0; j < data.length; j++) {
+                        data[j] = (byte) random.nextInt(16);
+                    }
+                    entry.setMethod(ZipEntry.DEFLATED);
+                } else {
+                    random.nextBytes(data);
+                    crc32.reset();
+                    crc32.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc32.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return apk;
+    }
+
+    /**
+     * Signs the provided APK with APK Signature Scheme v1, v2 and v3 and returns the signed APK.
+     */
+    static File createSignedApk(File unsignedApk, RunnablesExecutor executor) throws Exception {
+        File apk = File.createTempFile("apksig-benchmark", "-signed.apk");
+        apk.deleteOnExit();
+        new ApkSigner.Builder(Collections.singletonList(getSignerConfig()))
+                .setInputApk(unsignedApk)
+                .setOutputApk(apk)
+                .setMinSdkVersion(MIN_SDK_VERSION)
+                .setV4SigningEnabled(false)
+                .setExecutor(executor)
+                .build()
+                .sign();
+        return apk;
+    }
+
+    /** Returns the configuration of the RSA 2048 signer used by the benchmarks. */
+    static ApkSigner.SignerConfig getSignerConfig() throws Exception {
+        PrivateKey privateKey =
+                KeyFactory.getInstance("RSA").generatePrivate(
+                        new PKCS8EncodedKeySpec(readResource("rsa-2048.pk8")));
+        X509Certificate certificate;
+        try (InputStream in = SyntheticApks.class.getResourceAsStream("rsa-2048.x509.pem")) {
+            certificate =
+                    (X509Certificate) CertificateFactory.getInstance("X.509")
+                            .generateCertificate(in);
+        }
+        return new ApkSigner.SignerConfig.Builder(
+                "rsa-2048", privateKey, Collections.singletonList(certificate))
+                .build();
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream in = SyntheticApks.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int chunkSize;
+            while ((chunkSize = in.read(buf)) != -1) {
+                result.write(buf, 0, chunkSize);
+            }
+            return result.toByteArray();
+        }
+    }
+
+    /**
+     * Returns a minimal binary {@code AndroidManifest.xml} consisting of an empty
+     * {@code manifest} element.
+     */
+    private static byte[] createAndroidManifest() {
+        byte[] name = "manifest".getBytes(StandardCharsets.UTF_8);
+        // String pool: header, one string offset and one UTF-8 string, padded to 4 bytes
+        int stringDataSize = (2 + name.length + 1 + 3) & ~3;
+        int stringPoolSize = 28 + 4 + stringDataSize;
+        int startElementSize = 36;
+        int endElementSize = 24;
+        ByteBuffer result =
+                ByteBuffer.allocate(8 + stringPoolSize + startElementSize + endElementSize);
+        result.order(ByteOrder.LITTLE_ENDIAN);
+
+        // XML chunk header
+        result.putShort((short) 0x0003).putShort((short) 8);
+        result.putInt(result.capacity());
+
+        // String pool
+        result.putShort((short) 0x0001).putShort((short) 28).putInt(stringPoolSize);
+        result.putInt(1); // string count
+        result.putInt(0); // style count
+        result.putInt(1 << 8); // UTF-8 flag
+        result.putInt(28 + 4); // strings start
+        result.putInt(0); // styles start
+        result.putInt(0); // offset of string 0
+        result.put((byte) name.length).put((byte) name.length).put(name).put((byte) 0);
+        result.position(8 + stringPoolSize);
+
+        // <manifest>
+        result.putShort((short) 0x0102).putShort((short) 16).putInt(startElementSize);
+        result.putInt(1); // line number
+        result.putInt(-1); // comment
+        result.putInt(-1); // namespace
+        result.putInt(0); // name
+        result.putShort((short) 20); // attribute start
+        result.putShort((short) 20); // attribute size
+        result.putShort((short) 0); // attribute count
+        result.putShort((short) 0); // id index
+        result.putShort((short) 0); // class index
+        result.putShort((short) 0); // style index
+
+        // </manifest>
+        result.putShort((short) 0x0103).putShort((short) 16).putInt(endElementSize);
+        result.putInt(1); // line number
+        result.putInt(-1); // comment
+        result.putInt(-1); // namespace
+        result.putInt(0); // name
+
+        return result.array();
+    }
+
+    /** Deletes the provided file, if any. */
+    static void delete(File file) {
+        if (file != null) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.ApkSigningBlockUtils;
+import com.android.apksig.internal.apk.v1.V1SchemeVerifier;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link V1SchemeVerifier#verify}, which verifies the JAR signature of an APK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class V1SchemeVerifierBenchmark {
+    @Param({"1", "64", "512", "2048"})
+    public long apkSizeMb;
+
+    @Param({"single", "pooled"})
+    public String executorName;
+
+    private File mUnsignedApkFile;
+    private File mApkFile;
+    private RandomAccessFile mApkRandomAccessFile;
+    private DataSource mApk;
+    private ApkUtils.ZipSections mZipSections;
+    private RunnablesExecutor mExecutor;
+    private final Map<Integer, String> mSupportedApkSigSchemeNames = new HashMap<>();
+    private final Set<Integer> mFoundApkSigSchemeIds = new HashSet<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mExecutor = SyntheticApks.getExecutor(executorName);
+        mUnsignedApkFile = SyntheticApks.createUnsignedApk(apkSizeMb * 1024 * 1024);
+        mApkFile = SyntheticApks.createSignedApk(mUnsignedApkFile, mExecutor);
+        mApkRandomAccessFile = new RandomAccessFile(mApkFile, "r");
+        mApk = DataSources.asDataSource(mApkRandomAccessFile);
+        mZipSections = ApkUtils.findZipSections(mApk);
+        // Same as ApkVerifier, for an APK signed with APK Signature Scheme v2 and v3
+        mSupportedApkSigSchemeNames.put(
+                ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2, "APK Signature Scheme v2");
+        mSupportedApkSigSchemeNames.put(
+                ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3, "APK Signature Scheme v3");
+        mFoundApkSigSchemeIds.addAll(mSupportedApkSigSchemeNames.keySet());
+
+        V1SchemeVerifier.Result result = verify();
+        if (!result.verified) {
+            throw new IllegalStateException("Synthetic APK failed to verify: " + result.getErrors());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticApks.closeExecutor(mExecutor);
+        mApkRandomAccessFile.close();
+        SyntheticApks.delete(mApkFile);
+        SyntheticApks.delete(mUnsignedApkFile);
+    }
+
+    @Benchmark
+    public V1SchemeVerifier.Result verify() throws Exception {
+        return V1SchemeVerifier.verify(
+                mExecutor,
+                mApk,
+                mZipSections,
+                mSupportedApkSigSchemeNames,
+                mFoundApkSigSchemeIds,
+                SyntheticApks.MIN_SDK_VERSION,
+                Integer.MAX_VALUE);
+    }
+}
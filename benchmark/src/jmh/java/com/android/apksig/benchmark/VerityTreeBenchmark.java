@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.benchmark;
+
+import com.android.apksig.internal.util.VerityTreeBuilder;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link VerityTreeBuilder#generateVerityTreeRootHash(DataSource)}, which computes the
+ * root hash of the verity tree of a whole APK, as done for APK Signature Scheme v4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VerityTreeBenchmark {
+    @Param({"1", "64", "512", "2048"})
+    public long apkSizeMb;
+
+    @Param({"single", "pooled"})
+    public String executorName;
+
+    private File mApkFile;
+    private RandomAccessFile mApkRandomAccessFile;
+    private DataSource mApk;
+    private RunnablesExecutor mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mApkFile = SyntheticApks.createUnsignedApk(apkSizeMb * 1024 * 1024);
+        mApkRandomAccessFile = new RandomAccessFile(mApkFile, "r");
+        mApk = DataSources.asDataSource(mApkRandomAccessFile);
+        mExecutor = SyntheticApks.getExecutor(executorName);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticApks.closeExecutor(mExecutor);
+        mApkRandomAccessFile.close();
+        SyntheticApks.delete(mApkFile);
+    }
+
+    @Benchmark
+    public byte[] generateVerityTreeRootHash() throws Exception {
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(null, mExecutor)) {
+            return builder.generateVerityTreeRootHash(mApk);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.cli;
+
+import com.android.apksig.ApkVerificationResultCache;
+import com.android.apksig.ApkVerifier;
+import com.android.apksig.util.PooledRunnablesExecutor;
+import com.android.apksig.util.TraceListener;
+import com.android.apksig.util.X509CertificateCache;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line tool which verifies the signatures of a batch of APKs, several APKs at a time.
+ *
+ * <p>APKs are named on the command line, found by walking directory trees named on the command
+ * line, or read from a file list. One JSON object per APK is written to standard output, on its
+ * own line, as soon as the APK is verified. APKs are thus reported in the order in which their
+ * verification completes. The process exits with status {@code 0} if all APKs verified,
+ * {@code 1} if some did not, and {@code 2} if the command line is invalid.
+ *
+ * <p>All APKs share one pool of worker threads for computing digests and one cache of decoded
+ * certificates.
+ *
+ * <p>The time spent verifying each APK is reported in its JSON object, in total and per phase of
+ * the verification (see {@link TraceListener.Phase}). APKs whose result is taken from the result
+ * cache report no phases. The phases are also recorded as JDK Flight Recorder events, named
+ * {@code com.android.apksig.Phase}, when the tool runs with a recording in progress.
+ */
+public class BatchVerifyTool {
+    private static final String USAGE =
+            "USAGE: apksig-verify [options] <apk or directory>...\n"
+                    + "\n"
+                    + "Verifies the signatures of the named APKs and of the APKs found in the\n"
+                    + "named directory trees, and prints one line of JSON per APK.\n"
+                    + "\n"
+                    + "OPTIONS\n"
+                    + "--jobs <n>             Number of APKs verified concurrently. Default: the\n"
+                    + "                       number of available processors.\n"
+                    + "--input-list <file>    File listing APKs, one path per line. - denotes\n"
+                    + "                       standard input.\n"
+                    + "--min-sdk-version <n>  Lowest API Level on which the signatures must\n"
+                    + "                       verify. Default: the APK's minSdkVersion.\n"
+                    + "--max-sdk-version <n>  Highest API Level on which the signatures must\n"
+                    + "                       verify. Default: the highest API Level.\n"
+                    + "--strongest-scheme-only  Only verify the strongest signature scheme\n"
+                    + "                       found, as a platform supporting it does. Weaker\n"
+                    + "                       schemes required by older API Levels are skipped,\n"
+                    + "                       and minCheckedSdkVersion reports the lowest API\n"
+                    + "                       Level to which the verdict applies.\n"
+                    + "--cert-cache-size <n>  Number of decoded certificates cached. Default:\n"
+                    + "                       256.\n"
+                    + "--result-cache <file>  File caching verification results across runs.\n"
+                    + "                       Results are keyed by the APK's size, modification\n"
+                    + "                       time, Central Directory and signatures. Only use\n"
+                    + "                       for APKs which are not modified in place.\n"
+                    + "--result-cache-size <n>  Number of verification results cached. Default:\n"
+                    + "                       10000.\n"
+                    + "-h, --help             Show this usage information.\n";
+
+    private static final String APK_FILE_EXTENSION = ".apk";
+
+    private static final int EXIT_ALL_VERIFIED = 0;
+    private static final int EXIT_NOT_ALL_VERIFIED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private BatchVerifyTool() {}
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /** Runs the tool with the provided arguments and returns the exit status. */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        String inputList = null;
+        Integer minSdkVersion = null;
+        Integer maxSdkVersion = null;
+        boolean strongestSchemeOnly = false;
+        int certCacheSize = 256;
+        String resultCacheFile = null;
+        int resultCacheSize = 10000;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-h".equals(arg) || "--help".equals(arg)) {
+                    out.print(USAGE);
+                    return EXIT_ALL_VERIFIED;
+                } else if ("--jobs".equals(arg)) {
+                    jobs = getPositiveIntValue(args, ++i, arg);
+                } else if ("--input-list".equals(arg)) {
+                    inputList = getValue(args, ++i, arg);
+                } else if ("--min-sdk-version".equals(arg)) {
+                    minSdkVersion = getPositiveIntValue(args, ++i, arg);
+                } else if ("--max-sdk-version".equals(arg)) {
+                    maxSdkVersion = getPositiveIntValue(args, ++i, arg);
+                } else if ("--strongest-scheme-only".equals(arg)) {
+                    strongestSchemeOnly = true;
+                } else if ("--cert-cache-size".equals(arg)) {
+                    certCacheSize = getPositiveIntValue(args, ++i, arg);
+                } else if ("--result-cache".equals(arg)) {
+                    resultCacheFile = getValue(args, ++i, arg);
+                } else if ("--result-cache-size".equals(arg)) {
+                    resultCacheSize = getPositiveIntValue(args, ++i, arg);
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unsupported option: " + arg);
+                } else {
+                    paths.add(arg);
+                }
+            }
+            if ((paths.isEmpty()) && (inputList == null)) {
+                throw new IllegalArgumentException("No APKs specified");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("ERROR: " + e.getMessage());
+            err.println();
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        List<File> apks;
+        try {
+            apks = findApks(paths, inputList);
+        } catch (IOException e) {
+            err.println("ERROR: Failed to list APKs: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        // Without a cache file, results are only reused for APKs listed more than once
+        ApkVerificationResultCache resultCache;
+        try {
+            resultCache =
+                    (resultCacheFile != null)
+                            ? ApkVerificationResultCache.load(
+                                    new File(resultCacheFile), resultCacheSize)
+                            : new ApkVerificationResultCache(resultCacheSize);
+        } catch (IOException e) {
+            err.println("ERROR: Failed to load result cache: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        X509CertificateCache previousCertCache = X509CertificateCache.getDefault();
+        X509CertificateCache.setDefault(new X509CertificateCache(certCacheSize));
+        AtomicInteger notVerifiedCount = new AtomicInteger();
+        ExecutorService apkExecutor = Executors.newFixedThreadPool(jobs);
+        try (PooledRunnablesExecutor digestExecutor = new PooledRunnablesExecutor()) {
+            for (File apk : apks) {
+                Integer apkMinSdkVersion = minSdkVersion;
+                Integer apkMaxSdkVersion = maxSdkVersion;
+                boolean apkStrongestSchemeOnly = strongestSchemeOnly;
+                apkExecutor.execute(() -> {
+                    String line =
+                            verify(apk, apkMinSdkVersion, apkMaxSdkVersion,
+                                    apkStrongestSchemeOnly, digestExecutor, resultCache,
+                                    notVerifiedCount);
+                    synchronized (out) {
+                        out.println(line);
+                        out.flush();
+                    }
+                });
+            }
+            apkExecutor.shutdown();
+            while (!apkExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting: every APK is reported
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("ERROR: Interrupted");
+            return EXIT_NOT_ALL_VERIFIED;
+        } finally {
+            apkExecutor.shutdownNow();
+            X509CertificateCache.setDefault(previousCertCache);
+        }
+        err.println(
+                "Result cache: " + resultCache.getHitCount() + " hits, "
+                        + resultCache.getMissCount() + " misses");
+        if (resultCacheFile != null) {
+            try {
+                resultCache.save(new File(resultCacheFile));
+            } catch (IOException e) {
+                err.println("ERROR: Failed to save result cache: " + e.getMessage());
+            }
+        }
+        return (notVerifiedCount.get() == 0) ? EXIT_ALL_VERIFIED : EXIT_NOT_ALL_VERIFIED;
+    }
+
+    private static String verify(
+            File apk,
+            Integer minSdkVersion,
+            Integer maxSdkVersion,
+            boolean strongestSchemeOnly,
+            PooledRunnablesExecutor digestExecutor,
+            ApkVerificationResultCache resultCache,
+            AtomicInteger notVerifiedCount) {
+        long startNanos = System.nanoTime();
+        PhaseTimingsTraceListener phaseTimings =
+                new PhaseTimingsTraceListener(new JfrTraceListener(apk.getPath()));
+        try {
+            ApkVerifier.Builder verifierBuilder =
+                    new ApkVerifier.Builder(apk)
+                            .setExecutor(digestExecutor)
+                            .setStrongestSchemeOnly(strongestSchemeOnly)
+                            .setTraceListener(phaseTimings);
+            if (minSdkVersion != null) {
+                verifierBuilder.setMinCheckedPlatformVersion(minSdkVersion);
+            }
+            if (maxSdkVersion != null) {
+                verifierBuilder.setMaxCheckedPlatformVersion(maxSdkVersion);
+            }
+            ApkVerificationResultCache.CachedResult result =
+                    resultCache.verify(verifierBuilder.build());
+            String line = toJson(apk, result, millisSince(startNanos), phaseTimings);
+            if (!result.isVerified()) {
+                notVerifiedCount.incrementAndGet();
+            }
+            return line;
+        } catch (Throwable e) {
+            // Includes failures to report the result, e.g., to decode a cached certificate: every
+            // APK is reported, and counts as not verified unless its result was reported
+            notVerifiedCount.incrementAndGet();
+            JsonObjectWriter json = new JsonObjectWriter();
+            json.name("apk").value(apk.getPath());
+            json.name("verdict").value("error");
+            json.name("error").value(e.toString());
+            writeTimings(json, millisSince(startNanos), phaseTimings);
+            return json.toString();
+        }
+    }
+
+    private static String toJson(
+            File apk,
+            ApkVerificationResultCache.CachedResult result,
+            double verifyMillis,
+            PhaseTimingsTraceListener phaseTimings) {
+        JsonObjectWriter json = new JsonObjectWriter();
+        json.name("apk").value(apk.getPath());
+        json.name("verdict").value(result.isVerified() ? "verified" : "not_verified");
+        json.name("minCheckedSdkVersion").value(result.getMinCheckedPlatformVersion());
+        json.name("schemes").beginObject();
+        json.name("v1").value(result.isVerifiedUsingV1Scheme());
+        json.name("v2").value(result.isVerifiedUsingV2Scheme());
+        json.name("v3").value(result.isVerifiedUsingV3Scheme());
+        json.name("v4").value(result.isVerifiedUsingV4Scheme());
+        json.endObject();
+        json.name("signerCertSha256").beginArray();
+        for (X509Certificate certificate : result.getSignerCertificates()) {
+            json.value(sha256Hex(certificate));
+        }
+        json.endArray();
+        json.name("errors").beginArray();
+        for (String error : result.getErrors()) {
+            json.value(error);
+        }
+        json.endArray();
+        writeTimings(json, verifyMillis, phaseTimings);
+        return json.toString();
+    }
+
+    /**
+     * Writes the total time spent verifying an APK and the time spent in each phase of the
+     * verification, keyed by the phase's name in lower camel case, e.g., {@code contentDigests}.
+     */
+    private static void writeTimings(
+            JsonObjectWriter json, double verifyMillis, PhaseTimingsTraceListener phaseTimings) {
+        json.name("timingsMs").beginObject();
+        json.name("verify").value(verifyMillis);
+        for (Map.Entry<TraceListener.Phase, Long> entry
+                : phaseTimings.getDurationsNanos().entrySet()) {
+            json.name(toLowerCamelCase(entry.getKey().name()))
+                    .value(toMillis(entry.getValue()));
+        }
+        json.endObject();
+    }
+
+    private static String toLowerCamelCase(String constantName) {
+        StringBuilder result = new StringBuilder(constantName.length());
+        for (String word : constantName.toLowerCase(Locale.US).split("_")) {
+            if (result.length() == 0) {
+                result.append(word);
+            } else if (!word.isEmpty()) {
+                result.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            }
+        }
+        return result.toString();
+    }
+
+    private static List<File> findApks(List<String> paths, String inputList) throws IOException {
+        List<File> apks = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                try (Stream<Path> tree = Files.walk(file.toPath())) {
+                    apks.addAll(
+                            tree.filter(Files::isRegularFile)
+                                    .filter(p -> p.toString().endsWith(APK_FILE_EXTENSION))
+                                    .sorted()
+                                    .map(Path::toFile)
+                                    .collect(Collectors.toList()));
+                }
+            } else {
+                apks.add(file);
+            }
+        }
+        if (inputList != null) {
+            try (BufferedReader reader =
+                    "-".equals(inputList)
+                            ? new BufferedReader(
+                                    new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                            : Files.newBufferedReader(Paths.get(inputList),
+                                    StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        apks.add(new File(line));
+                    }
+                }
+            }
+        }
+        return apks;
+    }
+
+    private static String getValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int getPositiveIntValue(String[] args, int index, String option) {
+        String value = getValue(args, index, option);
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+        if (result < 1) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+        return result;
+    }
+
+    private static double millisSince(long startNanos) {
+        return toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static double toMillis(long nanos) {
+        // Microsecond precision is plenty
+        return (nanos / 1000) / 1000.0;
+    }
+
+    private static String sha256Hex(X509Certificate certificate) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new RuntimeException("Failed to digest certificate", e);
+        }
+        StringBuilder result = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            result.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            result.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return result.toString();
+    }
+}
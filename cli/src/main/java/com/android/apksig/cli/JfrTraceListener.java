@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.cli;
+
+import com.android.apksig.util.TraceListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * {@link TraceListener} which records the phases of signing or verifying one APK as JDK Flight
+ * Recorder events. Events are only recorded while a recording is in progress, e.g., when the JVM
+ * is started with {@code -XX:StartFlightRecording}.
+ *
+ * <p>Instances are meant to be used for a single APK, signed or verified on a single thread.
+ */
+class JfrTraceListener implements TraceListener {
+    private final String mApk;
+    private final Deque<PhaseEvent> mStartedEvents = new ArrayDeque<>();
+
+    JfrTraceListener(String apk) {
+        mApk = apk;
+    }
+
+    @Override
+    public void onPhaseStarted(Phase phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.apk = mApk;
+        event.phase = phase.name();
+        event.begin();
+        mStartedEvents.push(event);
+    }
+
+    @Override
+    public void onPhaseFinished(Phase phase, long durationNanos, long byteCount, int entryCount) {
+        // Phases during which an earlier operation failed were never reported as finished
+        PhaseEvent event;
+        do {
+            event = mStartedEvents.poll();
+            if (event == null) {
+                return;
+            }
+        } while (!event.phase.equals(phase.name()));
+        event.end();
+        if (event.shouldCommit()) {
+            event.byteCount = byteCount;
+            event.entryCount = entryCount;
+            event.commit();
+        }
+    }
+
+    @Name("com.android.apksig.Phase")
+    @Label("APK Signing Phase")
+    @Category("apksig")
+    @Description("Phase of signing or verifying an APK")
+    static class PhaseEvent extends Event {
+        @Label("APK")
+        String apk;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Bytes Processed")
+        @Description("Number of bytes processed by the phase, or -1 if not applicable")
+        @DataAmount
+        long byteCount;
+
+        @Label("Entries Processed")
+        @Description("Number of ZIP entries processed by the phase, or -1 if not applicable")
+        int entryCount;
+    }
+}
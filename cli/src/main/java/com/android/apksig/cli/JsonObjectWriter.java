@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.cli;
+
+/**
+ * Minimal writer of a single-line JSON object. Members are written in the order in which they are
+ * added. Callers are responsible for pairing names with values and for balancing nested objects
+ * and arrays.
+ */
+class JsonObjectWriter {
+    private final StringBuilder mJson = new StringBuilder("{");
+    private boolean mFirstInContainer = true;
+
+    /** Starts a member of the current object. Must be followed by a value. */
+    JsonObjectWriter name(String name) {
+        separate();
+        appendString(name);
+        mJson.append(':');
+        mFirstInContainer = true;
+        return this;
+    }
+
+    JsonObjectWriter value(String value) {
+        separate();
+        if (value == null) {
+            mJson.append("null");
+        } else {
+            appendString(value);
+        }
+        return this;
+    }
+
+    JsonObjectWriter value(boolean value) {
+        separate();
+        mJson.append(value);
+        return this;
+    }
+
+    JsonObjectWriter value(long value) {
+        separate();
+        mJson.append(value);
+        return this;
+    }
+
+    JsonObjectWriter value(double value) {
+        separate();
+        mJson.append(value);
+        return this;
+    }
+
+    JsonObjectWriter beginObject() {
+        separate();
+        mJson.append('{');
+        mFirstInContainer = true;
+        return this;
+    }
+
+    JsonObjectWriter endObject() {
+        mJson.append('}');
+        mFirstInContainer = false;
+        return this;
+    }
+
+    JsonObjectWriter beginArray() {
+        separate();
+        mJson.append('[');
+        mFirstInContainer = true;
+        return this;
+    }
+
+    JsonObjectWriter endArray() {
+        mJson.append(']');
+        mFirstInContainer = false;
+        return this;
+    }
+
+    /** Returns the JSON text of the object, closing it. */
+    @Override
+    public String toString() {
+        return mJson.toString() + "}";
+    }
+
+    /**
+     * Outputs the comma separating the next name or value from the preceding one, unless the next
+     * one is the first of its container or the value of a member.
+     */
+    private void separate() {
+        if (!mFirstInContainer) {
+            mJson.append(',');
+        }
+        mFirstInContainer = false;
+    }
+
+    private void appendString(String value) {
+        mJson.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    mJson.append("\\\"");
+                    break;
+                case '\\':
+                    mJson.append("\\\\");
+                    break;
+                case '\n':
+                    mJson.append("\\n");
+                    break;
+                case '\r':
+                    mJson.append("\\r");
+                    break;
+                case '\t':
+                    mJson.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        mJson.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        mJson.append(c);
+                    }
+                    break;
+            }
+        }
+        mJson.append('"');
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apksig.cli;
+
+import com.android.apksig.util.TraceListener;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@link TraceListener} which adds up the duration of each phase of signing or verifying one APK,
+ * and forwards all notifications to another listener.
+ *
+ * <p>Instances are meant to be used for a single APK, signed or verified on a single thread.
+ */
+class PhaseTimingsTraceListener implements TraceListener {
+    private final TraceListener mDelegate;
+    private final Map<Phase, Long> mDurationsNanos = new EnumMap<>(Phase.class);
+
+    PhaseTimingsTraceListener(TraceListener delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void onPhaseStarted(Phase phase) {
+        mDelegate.onPhaseStarted(phase);
+    }
+
+    @Override
+    public void onPhaseFinished(Phase phase, long durationNanos, long byteCount, int entryCount) {
+        Long previousDurationNanos = mDurationsNanos.get(phase);
+        mDurationsNanos.put(
+                phase,
+                (previousDurationNanos != null)
+                        ? previousDurationNanos + durationNanos
+                        : durationNanos);
+        mDelegate.onPhaseFinished(phase, durationNanos, byteCount, entryCount);
+    }
+
+    /**
+     * Returns the total duration, in nanoseconds, of each phase reported as finished so far, in
+     * the order of {@link Phase}. Phases which were never reported as finished are omitted.
+     */
+    Map<Phase, Long> getDurationsNanos() {
+        return Collections.unmodifiableMap(mDurationsNanos);
+    }
+}